@@ -11,7 +11,6 @@ import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
-import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URI;
@@ -29,13 +28,20 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import org.bsplines.ltexls.parsing.AnnotatedTextFragment;
 import org.bsplines.ltexls.tools.Tools;
 import org.checkerframework.checker.nullness.qual.EnsuresNonNullIf;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
 import org.languagetool.markup.TextPart;
 
 public class LanguageToolHttpInterface extends LanguageToolInterface {
+  private static final int cancellationPollingIntervalMilliseconds = 100;
+
   private String languageShortCode;
   private String motherTongueShortCode;
   private List<String> enabledRuleIds;
@@ -65,7 +71,19 @@ public class LanguageToolHttpInterface extends LanguageToolInterface {
   }
 
   @Override
-  public List<LanguageToolRuleMatch> check(AnnotatedTextFragment annotatedTextFragment) {
+  public List<LanguageToolRuleMatch> check(AnnotatedTextFragment annotatedTextFragment,
+        CancelChecker cancelChecker) {
+    return check(annotatedTextFragment, false, cancelChecker);
+  }
+
+  @Override
+  public List<LanguageToolRuleMatch> checkSpelling(AnnotatedTextFragment annotatedTextFragment,
+        CancelChecker cancelChecker) {
+    return check(annotatedTextFragment, true, cancelChecker);
+  }
+
+  private List<LanguageToolRuleMatch> check(AnnotatedTextFragment annotatedTextFragment,
+        boolean spellingOnly, CancelChecker cancelChecker) {
     if (!isReady()) return Collections.emptyList();
 
     JsonArray jsonDataAnnotation = new JsonArray();
@@ -106,12 +124,19 @@ public class LanguageToolHttpInterface extends LanguageToolInterface {
       requestEntries.put("motherTongue", this.motherTongueShortCode);
     }
 
-    if (!this.enabledRuleIds.isEmpty()) {
-      requestEntries.put("enabledRules", String.join(",", this.enabledRuleIds));
-    }
+    if (spellingOnly) {
+      // the server doesn't accept disabled rules together with enabledOnly, they are removed
+      // from the result instead
+      requestEntries.put("enabledCategories", "TYPOS");
+      requestEntries.put("enabledOnly", "true");
+    } else {
+      if (!this.enabledRuleIds.isEmpty()) {
+        requestEntries.put("enabledRules", String.join(",", this.enabledRuleIds));
+      }
 
-    if (!this.disabledRuleIds.isEmpty()) {
-      requestEntries.put("disabledRules", String.join(",", this.disabledRuleIds));
+      if (!this.disabledRuleIds.isEmpty()) {
+        requestEntries.put("disabledRules", String.join(",", this.disabledRuleIds));
+      }
     }
 
     StringBuilder builder = new StringBuilder();
@@ -139,11 +164,27 @@ public class LanguageToolHttpInterface extends LanguageToolInterface {
         .header("Content-Type", "application/json")
         .POST(BodyPublishers.ofString(requestBody))
         .build();
+    CompletableFuture<HttpResponse<String>> httpResponseFuture =
+        this.httpClient.sendAsync(httpRequest, BodyHandlers.ofString());
     HttpResponse<String> httpResponse;
 
     try {
-      httpResponse = this.httpClient.send(httpRequest, BodyHandlers.ofString());
-    } catch (IOException | InterruptedException e) {
+      while (true) {
+        if (cancelChecker.isCanceled()) {
+          // aborts the request
+          httpResponseFuture.cancel(true);
+          cancelChecker.checkCanceled();
+        }
+
+        try {
+          httpResponse = httpResponseFuture.get(
+              cancellationPollingIntervalMilliseconds, TimeUnit.MILLISECONDS);
+          break;
+        } catch (TimeoutException e) {
+          // poll cancelChecker again
+        }
+      }
+    } catch (ExecutionException | InterruptedException e) {
       Tools.logger.severe(Tools.i18n("couldNotSendHttpRequestToLanguageTool", e));
       return Collections.emptyList();
     }
@@ -163,6 +204,7 @@ public class LanguageToolHttpInterface extends LanguageToolInterface {
     for (JsonElement jsonElement : jsonMatches) {
       JsonObject jsonMatch = jsonElement.getAsJsonObject();
       String ruleId = jsonMatch.get("rule").getAsJsonObject().get("id").getAsString();
+      if (spellingOnly && this.disabledRuleIds.contains(ruleId)) continue;
       String sentence = jsonMatch.get("sentence").getAsString();
       int fromPos = jsonMatch.get("offset").getAsInt();
       int toPos = fromPos + jsonMatch.get("length").getAsInt();
@@ -9,12 +9,42 @@ package org.bsplines.ltexls.languagetool;
 
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
 import org.bsplines.ltexls.parsing.AnnotatedTextFragment;
+import org.bsplines.ltexls.tools.CancellationToken;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
 
 public abstract class LanguageToolInterface {
+  // LanguageTool instances must not be used by multiple threads at the same time; the lock is
+  // fair, so that the continuation of a long check cannot hold up checks of other documents
+  private ReentrantLock checkingLock;
+
+  public LanguageToolInterface() {
+    this.checkingLock = new ReentrantLock(true);
+  }
+
+  public ReentrantLock getCheckingLock() {
+    return this.checkingLock;
+  }
+
   public abstract boolean isReady();
 
-  public abstract List<LanguageToolRuleMatch> check(AnnotatedTextFragment annotatedTextFragment);
+  public List<LanguageToolRuleMatch> check(AnnotatedTextFragment annotatedTextFragment) {
+    return check(annotatedTextFragment, new CancellationToken());
+  }
+
+  // cancelChecker is polled while LanguageTool is running; if the check has been cancelled,
+  // LanguageTool is stopped and a CancellationException is thrown
+  public abstract List<LanguageToolRuleMatch> check(AnnotatedTextFragment annotatedTextFragment,
+        CancelChecker cancelChecker);
+
+  public List<LanguageToolRuleMatch> checkSpelling(AnnotatedTextFragment annotatedTextFragment) {
+    return checkSpelling(annotatedTextFragment, new CancellationToken());
+  }
+
+  // only runs the spelling rules, which is much faster than running all rules
+  public abstract List<LanguageToolRuleMatch> checkSpelling(
+        AnnotatedTextFragment annotatedTextFragment, CancelChecker cancelChecker);
 
   public abstract void activateDefaultFalseFriendRules();
 
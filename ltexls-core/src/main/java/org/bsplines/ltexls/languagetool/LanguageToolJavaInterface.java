@@ -25,6 +25,7 @@ import org.bsplines.ltexls.tools.Tools;
 import org.checkerframework.checker.nullness.qual.EnsuresNonNullIf;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
 import org.languagetool.AnalyzedSentence;
 import org.languagetool.AnalyzedTokenReadings;
 import org.languagetool.JLanguageTool;
@@ -33,15 +34,20 @@ import org.languagetool.Languages;
 import org.languagetool.ResultCache;
 import org.languagetool.RuleMatchListener;
 import org.languagetool.UserConfig;
+import org.languagetool.markup.AnnotatedText;
 import org.languagetool.rules.Rule;
 import org.languagetool.rules.RuleMatch;
 import org.languagetool.rules.patterns.AbstractPatternRule;
+import org.languagetool.rules.spelling.SpellingCheckRule;
 import org.xml.sax.SAXException;
 
 public class LanguageToolJavaInterface extends LanguageToolInterface {
   private Set<String> dictionary;
   private @MonotonicNonNull ResultCache resultCache;
   private @MonotonicNonNull JLanguageTool languageTool;
+  // JLanguageTool only accepts one callback for all checks, but it runs the rules in the thread
+  // that calls check, so the cancel checker of the current check is stored per thread
+  private ThreadLocal<@Nullable CancelChecker> currentCancelChecker;
 
   private static final int resultCacheExpireAfterMinutes = 60;
 
@@ -56,6 +62,7 @@ public class LanguageToolJavaInterface extends LanguageToolInterface {
   public LanguageToolJavaInterface(String languageShortCode, String motherTongueShortCode,
         int sentenceCacheSize, Set<String> dictionary) {
     this.dictionary = dictionary;
+    this.currentCancelChecker = new ThreadLocal<>();
 
     if (!Languages.isLanguageSupported(languageShortCode)) {
       Tools.logger.severe(Tools.i18n("notARecognizedLanguage", languageShortCode));
@@ -72,6 +79,10 @@ public class LanguageToolJavaInterface extends LanguageToolInterface {
     @SuppressWarnings("argument.type.incompatible")
     JLanguageTool languageTool = new JLanguageTool(
         language, motherTongue, this.resultCache, userConfig);
+    languageTool.setCheckCancelledCallback(() -> {
+      @Nullable CancelChecker cancelChecker = this.currentCancelChecker.get();
+      return ((cancelChecker != null) && cancelChecker.isCanceled());
+    });
     this.languageTool = languageTool;
   }
 
@@ -108,7 +119,8 @@ public class LanguageToolJavaInterface extends LanguageToolInterface {
   }
 
   @Override
-  public List<LanguageToolRuleMatch> check(AnnotatedTextFragment annotatedTextFragment) {
+  public List<LanguageToolRuleMatch> check(AnnotatedTextFragment annotatedTextFragment,
+        CancelChecker cancelChecker) {
     if (!isReady()) {
       Tools.logger.warning(Tools.i18n("skippingTextCheckAsLanguageToolHasNotBeenInitialized"));
       return Collections.emptyList();
@@ -148,11 +160,14 @@ public class LanguageToolJavaInterface extends LanguageToolInterface {
             }
           }, false, "utf-8"));
 
+      this.currentCancelChecker.set(cancelChecker);
+
       try {
         matches = this.languageTool.check(annotatedTextFragment.getAnnotatedText(),
-            true, JLanguageTool.ParagraphHandling.NORMAL, ruleMatchListener, JLanguageTool.Mode.ALL,
-            ruleLevel);
+            true, annotatedTextFragment.getParagraphHandling(), ruleMatchListener,
+            JLanguageTool.Mode.ALL, ruleLevel);
       } finally {
+        this.currentCancelChecker.remove();
         System.setOut(stdout);
       }
     } catch (RuntimeException | IOException e) {
@@ -160,6 +175,61 @@ public class LanguageToolJavaInterface extends LanguageToolInterface {
       return Collections.emptyList();
     }
 
+    // LanguageTool returns the matches found so far if the check has been cancelled
+    cancelChecker.checkCanceled();
+    return convertRuleMatches(matches, annotatedTextFragment);
+  }
+
+  @Override
+  public List<LanguageToolRuleMatch> checkSpelling(AnnotatedTextFragment annotatedTextFragment,
+        CancelChecker cancelChecker) {
+    if (!isReady()) {
+      Tools.logger.warning(Tools.i18n("skippingTextCheckAsLanguageToolHasNotBeenInitialized"));
+      return Collections.emptyList();
+    }
+
+    // same as JLanguageTool.check, but without the other rules, text-level rules, and threading
+    AnnotatedText annotatedText = annotatedTextFragment.getAnnotatedText();
+    List<SpellingCheckRule> spellingCheckRules = this.languageTool.getAllSpellingCheckRules();
+    List<RuleMatch> matches = new ArrayList<>();
+    int charCount = 0;
+    int lineCount = 0;
+    int columnCount = 1;
+
+    try {
+      for (AnalyzedSentence sentence : this.languageTool.analyzeText(
+            annotatedText.getPlainText())) {
+        if (cancelChecker.isCanceled()) break;
+        String sentenceText = sentence.getText();
+
+        for (SpellingCheckRule spellingCheckRule : spellingCheckRules) {
+          for (RuleMatch match : spellingCheckRule.match(sentence)) {
+            matches.add(this.languageTool.adjustRuleMatchPos(match, charCount, columnCount,
+                lineCount, sentenceText, annotatedText));
+          }
+        }
+
+        charCount += sentenceText.length();
+        int lastLineBreakPos = sentenceText.lastIndexOf('\n');
+
+        if (lastLineBreakPos == -1) {
+          columnCount += sentenceText.length();
+        } else {
+          lineCount += sentenceText.length() - sentenceText.replace("\n", "").length();
+          columnCount = sentenceText.length() - lastLineBreakPos;
+        }
+      }
+    } catch (RuntimeException | IOException e) {
+      Tools.logger.severe(Tools.i18n("languageToolFailed", e));
+      return Collections.emptyList();
+    }
+
+    cancelChecker.checkCanceled();
+    return convertRuleMatches(matches, annotatedTextFragment);
+  }
+
+  private List<LanguageToolRuleMatch> convertRuleMatches(List<RuleMatch> matches,
+        AnnotatedTextFragment annotatedTextFragment) {
     List<LanguageToolRuleMatch> result = new ArrayList<>();
 
     for (RuleMatch match : matches) {
@@ -11,12 +11,9 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.regex.Pattern;
 import org.bsplines.ltexls.parsing.AnnotatedTextFragment;
-import org.bsplines.ltexls.server.LtexTextDocumentItem;
-import org.bsplines.ltexls.tools.Tools;
 import org.checkerframework.checker.initialization.qual.UnknownInitialization;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
-import org.eclipse.lsp4j.Range;
 import org.languagetool.rules.RuleMatch;
 
 public class LanguageToolRuleMatch {
@@ -54,6 +51,15 @@ public class LanguageToolRuleMatch {
     this.message = twoOrMoreSpacesPattern.matcher(this.message).replaceAll(" ").trim();
   }
 
+  public LanguageToolRuleMatch(LanguageToolRuleMatch obj) {
+    if (obj.ruleId != null) this.ruleId = obj.ruleId;
+    if (obj.sentence != null) this.sentence = obj.sentence;
+    this.fromPos = obj.fromPos;
+    this.toPos = obj.toPos;
+    this.message = obj.message;
+    this.suggestedReplacements = new ArrayList<>(obj.suggestedReplacements);
+  }
+
   public @Nullable String getRuleId() {
     return this.ruleId;
   }
@@ -86,11 +92,6 @@ public class LanguageToolRuleMatch {
     this.toPos = toPos;
   }
 
-  public boolean isIntersectingWithRange(Range range, LtexTextDocumentItem document) {
-    return Tools.areRangesIntersecting(new Range(document.convertPosition(this.fromPos),
-        document.convertPosition(this.toPos)), range);
-  }
-
   public boolean isUnknownWordRule(@UnknownInitialization LanguageToolRuleMatch this) {
     return ((this.ruleId != null) && (
         this.ruleId.startsWith("MORFOLOGIK_")
@@ -7,49 +7,183 @@
 
 package org.bsplines.ltexls.parsing;
 
-import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+import org.languagetool.JLanguageTool;
 import org.languagetool.markup.AnnotatedText;
+import org.languagetool.markup.AnnotatedTextBuilder;
+import org.languagetool.markup.TextPart;
 
 public class AnnotatedTextFragment {
   private AnnotatedText annotatedText;
   private CodeFragment codeFragment;
-  private @MonotonicNonNull String plainText;
-  private @MonotonicNonNull AnnotatedText inverseAnnotatedText;
+  private AnnotatedTextPositionIndex positionIndex;
+  // changes of the code since the annotated text has been built, each as
+  // {fromPos, oldToPos, newToPos} relative to the fragment
+  private List<int[]> codeChanges;
+  // whether LanguageTool runs all rules, only the text-level rules (for fragments that have been
+  // split into chunks), or only the other rules (for the chunks)
+  private JLanguageTool.ParagraphHandling paragraphHandling;
 
   public AnnotatedTextFragment(AnnotatedText annotatedText, CodeFragment codeFragment) {
     this.annotatedText = annotatedText;
     this.codeFragment = codeFragment;
+    this.positionIndex = new AnnotatedTextPositionIndex(annotatedText);
+    this.codeChanges = Collections.emptyList();
+    this.paragraphHandling = JLanguageTool.ParagraphHandling.NORMAL;
   }
 
-  public AnnotatedText getAnnotatedText() {
-    return this.annotatedText;
+  private AnnotatedTextFragment(AnnotatedTextFragment obj, CodeFragment codeFragment,
+        List<int[]> codeChanges) {
+    this.annotatedText = obj.annotatedText;
+    this.codeFragment = codeFragment;
+    this.positionIndex = obj.positionIndex;
+    this.codeChanges = codeChanges;
+    this.paragraphHandling = obj.paragraphHandling;
   }
 
-  public CodeFragment getCodeFragment() {
-    return this.codeFragment;
+  public AnnotatedTextFragment withFromPos(int fromPos) {
+    return new AnnotatedTextFragment(this, this.codeFragment.withFromPos(fromPos),
+        this.codeChanges);
   }
 
-  public String getSubstringOfPlainText(int fromPos, int toPos) {
-    if (this.plainText == null) this.plainText = this.annotatedText.getPlainText();
+  // keeps the annotated text, positions before fromPos and after toPos (relative to the
+  // fragment) are still mapped correctly
+  public AnnotatedTextFragment withCodeChange(int fromPos, int toPos, String newCode) {
+    String code = this.codeFragment.getCode();
+    CodeFragment codeFragment = new CodeFragment(this.codeFragment.getCodeLanguageId(),
+        code.substring(0, fromPos) + newCode + code.substring(toPos),
+        this.codeFragment.getFromPos(), this.codeFragment.getSettings());
+    List<int[]> codeChanges = new ArrayList<>(this.codeChanges);
+    codeChanges.add(new int[]{fromPos, toPos, fromPos + newCode.length()});
+    return new AnnotatedTextFragment(this, codeFragment, codeChanges);
+  }
+
+  public AnnotatedTextFragment withParagraphHandling(
+        JLanguageTool.ParagraphHandling paragraphHandling) {
+    AnnotatedTextFragment obj = new AnnotatedTextFragment(this, this.codeFragment,
+        this.codeChanges);
+    obj.paragraphHandling = paragraphHandling;
+    return obj;
+  }
+
+  // splits the fragment at paragraph breaks of the plain text into chunks with at least
+  // minChunkLength characters of plain text (except for the last chunk), which only run the
+  // rules that are not text-level rules; as LanguageTool analyzes every paragraph on its own,
+  // this doesn't change their matches; math and ignored environments are markup, so they are
+  // never split; must not be called after code changes
+  public List<AnnotatedTextFragment> splitIntoChunks(int minChunkLength) {
+    List<AnnotatedTextFragment> chunks = new ArrayList<>();
+    AnnotatedTextBuilder builder = createChunkBuilder();
+    String markup = "";
+    int chunkFromPos = 0;
+    int chunkLength = 0;
+    int pos = 0;
+
+    for (TextPart part : this.annotatedText.getParts()) {
+      String text = part.getPart();
 
-    if (this.inverseAnnotatedText == null) {
-      List<Map.Entry<Integer, Integer>> mapping = this.annotatedText.getMapping();
-      List<Map.Entry<Integer, Integer>> inverseMapping = new ArrayList<>();
+      if (part.getType() == TextPart.Type.MARKUP) {
+        // markup might be followed by fake content that replaces it in the plain text
+        if (!markup.isEmpty()) builder.addMarkup(markup);
+        markup = text;
+        pos += text.length();
+      } else if (part.getType() == TextPart.Type.FAKE_CONTENT) {
+        builder.addMarkup(markup, text);
+        markup = "";
+        chunkLength += text.length();
 
-      for (Map.Entry<Integer, Integer> entry : mapping) {
-        inverseMapping.add(new AbstractMap.SimpleEntry<>(entry.getValue(), entry.getKey()));
+        if ((chunkLength >= minChunkLength) && text.endsWith("\n\n")) {
+          chunks.add(buildChunk(builder, chunkFromPos, pos));
+          builder = createChunkBuilder();
+          chunkFromPos = pos;
+          chunkLength = 0;
+        }
+      } else {
+        if (!markup.isEmpty()) builder.addMarkup(markup);
+        markup = "";
+        int fromIndex = 0;
+
+        for (int index = text.indexOf("\n\n"); index != -1;
+              index = text.indexOf("\n\n", index + 1)) {
+          if (chunkLength + index + 2 - fromIndex < minChunkLength) continue;
+          builder.addText(text.substring(fromIndex, index + 2));
+          chunks.add(buildChunk(builder, chunkFromPos, pos + index + 2));
+          builder = createChunkBuilder();
+          chunkFromPos = pos + index + 2;
+          chunkLength = 0;
+          fromIndex = index + 2;
+        }
+
+        builder.addText(text.substring(fromIndex));
+        chunkLength += text.length() - fromIndex;
+        pos += text.length();
       }
+    }
+
+    if (!markup.isEmpty()) builder.addMarkup(markup);
+    if (pos > chunkFromPos) chunks.add(buildChunk(builder, chunkFromPos, pos));
+    return chunks;
+  }
+
+  private AnnotatedTextBuilder createChunkBuilder() {
+    AnnotatedTextBuilder builder = new AnnotatedTextBuilder();
+
+    for (Map.Entry<AnnotatedText.MetaDataKey, String> entry
+          : this.annotatedText.getMetaData().entrySet()) {
+      builder.addGlobalMetaData(entry.getKey(), entry.getValue());
+    }
+
+    for (Map.Entry<String, String> entry : this.annotatedText.getCustomMetaData().entrySet()) {
+      builder.addGlobalMetaData(entry.getKey(), entry.getValue());
+    }
 
-      this.inverseAnnotatedText = new AnnotatedText(Collections.emptyList(), inverseMapping,
-          Collections.emptyMap(), Collections.emptyMap());
+    return builder;
+  }
+
+  private AnnotatedTextFragment buildChunk(AnnotatedTextBuilder builder, int fromPos, int toPos) {
+    CodeFragment chunkCodeFragment = new CodeFragment(this.codeFragment.getCodeLanguageId(),
+        this.codeFragment.getCode().substring(fromPos, toPos),
+        this.codeFragment.getFromPos() + fromPos, this.codeFragment.getSettings());
+    return (new AnnotatedTextFragment(builder.build(), chunkCodeFragment)).withParagraphHandling(
+        JLanguageTool.ParagraphHandling.ONLYNONPARA);
+  }
+
+  private int convertToOriginalCodePosition(int pos) {
+    for (int i = this.codeChanges.size() - 1; i >= 0; i--) {
+      int[] codeChange = this.codeChanges.get(i);
+
+      if (pos >= codeChange[2]) {
+        pos += codeChange[1] - codeChange[2];
+      } else if (pos > codeChange[0]) {
+        pos = codeChange[0];
+      }
     }
 
-    return this.plainText.substring(this.inverseAnnotatedText.getOriginalTextPositionFor(fromPos),
-      this.inverseAnnotatedText.getOriginalTextPositionFor(toPos));
+    return pos;
+  }
+
+  public AnnotatedText getAnnotatedText() {
+    return this.annotatedText;
+  }
+
+  public CodeFragment getCodeFragment() {
+    return this.codeFragment;
+  }
+
+  public AnnotatedTextPositionIndex getPositionIndex() {
+    return this.positionIndex;
+  }
+
+  public JLanguageTool.ParagraphHandling getParagraphHandling() {
+    return this.paragraphHandling;
+  }
+
+  public String getSubstringOfPlainText(int fromPos, int toPos) {
+    return this.annotatedText.getPlainText().substring(
+        this.positionIndex.getPlainTextPosition(convertToOriginalCodePosition(fromPos)),
+        this.positionIndex.getPlainTextPosition(convertToOriginalCodePosition(toPos)));
   }
 }
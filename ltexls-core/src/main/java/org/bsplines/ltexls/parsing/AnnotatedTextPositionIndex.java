@@ -0,0 +1,82 @@
+/* Copyright (C) 2020 Julian Valentin, LTeX Development Community
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package org.bsplines.ltexls.parsing;
+
+import java.util.Arrays;
+import org.languagetool.markup.AnnotatedText;
+
+public class AnnotatedTextPositionIndex {
+  private int[] plainTextPositions;
+  private int[] originalTextPositions;
+  private int[] inverseOriginalTextPositions;
+  private int[] inversePlainTextPositions;
+
+  public AnnotatedTextPositionIndex(AnnotatedText annotatedText) {
+    int mappingSize = annotatedText.getMappingSize();
+    this.plainTextPositions = new int[mappingSize];
+    this.originalTextPositions = new int[mappingSize];
+    long[] packedInverseMapping = new long[mappingSize];
+
+    for (int i = 0; i < mappingSize; i++) {
+      int plainTextPosition = annotatedText.getMappingPlainTextPosition(i);
+      int originalTextPosition = annotatedText.getMappingOriginalTextPosition(i);
+      this.plainTextPositions[i] = plainTextPosition;
+      this.originalTextPositions[i] = originalTextPosition;
+      packedInverseMapping[i] = (((long)originalTextPosition) << 32) | plainTextPosition;
+    }
+
+    // positions are non-negative, so this sorts by original text position, then by plain text
+    // position
+    Arrays.sort(packedInverseMapping);
+    this.inverseOriginalTextPositions = new int[mappingSize];
+    this.inversePlainTextPositions = new int[mappingSize];
+
+    for (int i = 0; i < mappingSize; i++) {
+      this.inverseOriginalTextPositions[i] = (int)(packedInverseMapping[i] >>> 32);
+      this.inversePlainTextPositions[i] = (int)packedInverseMapping[i];
+    }
+  }
+
+  private static int interpolate(int[] keys, int[] values, int key) {
+    if (keys.length == 0) {
+      return key;
+    } else if (keys.length == 1) {
+      return values[0];
+    }
+
+    // index of the first entry with a key greater than key
+    int lowerIndex = 0;
+    int upperIndex = keys.length;
+
+    while (lowerIndex < upperIndex) {
+      int middleIndex = (lowerIndex + upperIndex) >>> 1;
+
+      if (keys[middleIndex] <= key) {
+        lowerIndex = middleIndex + 1;
+      } else {
+        upperIndex = middleIndex;
+      }
+    }
+
+    int i = Math.min(Math.max(lowerIndex, 1), keys.length - 1);
+    if (keys[i - 1] == key) return values[i - 1];
+    if (keys[i] == keys[i - 1]) return values[i];
+
+    float t = (float)(key - keys[i - 1]) / (float)(keys[i] - keys[i - 1]);
+    return Math.round((1 - t) * values[i - 1] + t * values[i]);
+  }
+
+  public int getOriginalTextPosition(int plainTextPosition) {
+    return interpolate(this.plainTextPositions, this.originalTextPositions, plainTextPosition);
+  }
+
+  public int getPlainTextPosition(int originalTextPosition) {
+    return interpolate(this.inverseOriginalTextPositions, this.inversePlainTextPositions,
+        originalTextPosition);
+  }
+}
@@ -30,8 +30,10 @@ public class BibtexFragmentizer extends CodeFragmentizer {
   private static final LatexCommandSignature bibtexEntryCommandSignature =
       new LatexCommandSignature("@[A-Za-z]+{}", LatexCommandSignature.Action.IGNORE,
         DummyGenerator.getDefault(), false);
-  private static final LatexCommandSignatureMatcher bibtexEntryCommandSignatureMatcher =
-      new LatexCommandSignatureMatcher(bibtexEntryCommandSignature, false);
+  // the matcher keeps the state of the current matching, see LatexFragmentizer
+  private static final ThreadLocal<LatexCommandSignatureMatcher>
+      bibtexEntryCommandSignatureMatcher = ThreadLocal.withInitial(() ->
+        new LatexCommandSignatureMatcher(bibtexEntryCommandSignature, false));
 
   private LatexFragmentizer latexFragmentizer;
 
@@ -53,6 +55,8 @@ public class BibtexFragmentizer extends CodeFragmentizer {
 
   private List<CodeFragment> fragmentizeBibtexFields(List<CodeFragment> fragments) {
     ArrayList<CodeFragment> newFragments = new ArrayList<>();
+    LatexCommandSignatureMatcher commandSignatureMatcher =
+        bibtexEntryCommandSignatureMatcher.get();
 
     for (CodeFragment oldFragment : fragments) {
       String oldFragmentCode = oldFragment.getCode();
@@ -63,11 +67,11 @@ public class BibtexFragmentizer extends CodeFragmentizer {
       Settings newFragmentSettings = oldFragmentSettings.withDisabledRules(
           newFragmentDisabledRules);
 
-      bibtexEntryCommandSignatureMatcher.startMatching(oldFragmentCode, Collections.emptySet());
+      commandSignatureMatcher.startMatching(oldFragmentCode, Collections.emptySet());
       @Nullable LatexCommandSignatureMatch match = null;
       @Nullable Map<String, Boolean> bibtexFields = null;
 
-      while ((match = bibtexEntryCommandSignatureMatcher.findNextMatch()) != null) {
+      while ((match = commandSignatureMatcher.findNextMatch()) != null) {
         if (bibtexFields == null) {
           bibtexFields = new HashMap<>(BibtexFragmentizerDefaults.getDefaultBibtexFields());
           bibtexFields.putAll(oldFragmentSettings.getBibtexFields());
@@ -7,12 +7,9 @@
 
 package org.bsplines.ltexls.parsing.latex;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Stack;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -93,21 +90,13 @@ public class LatexAnnotatedTextBuilder extends CodeAnnotatedTextBuilder {
 
   private String language;
   private String codeLanguageId;
-  private List<LatexCommandSignature> commandSignatures;
-  private Map<String, List<LatexCommandSignature>> commandSignatureMap;
-  private List<LatexEnvironmentSignature> environmentSignatures;
-  private Map<String, List<LatexEnvironmentSignature>> environmentSignatureMap;
+  private LatexGrammar grammar;
   private boolean isInStrictMode;
 
   public LatexAnnotatedTextBuilder(String codeLanguageId) {
     this.language = "en-US";
     this.codeLanguageId = codeLanguageId;
-    this.commandSignatures = new ArrayList<>(
-        LatexAnnotatedTextBuilderDefaults.getDefaultLatexCommandSignatures());
-    this.commandSignatureMap = createCommandSignatureMap(this.commandSignatures);
-    this.environmentSignatures = new ArrayList<>(
-        LatexAnnotatedTextBuilderDefaults.getDefaultLatexEnvironmentSignatures());
-    this.environmentSignatureMap = createCommandSignatureMap(this.environmentSignatures);
+    this.grammar = LatexGrammar.getDefault();
     this.isInStrictMode = false;
 
     reinitialize();
@@ -138,19 +127,6 @@ public class LatexAnnotatedTextBuilder extends CodeAnnotatedTextBuilder {
     this.curMode = Mode.PARAGRAPH_TEXT;
   }
 
-  private static <T extends LatexCommandSignature> Map<String, List<T>> createCommandSignatureMap(
-        List<T> commandSignatures) {
-    Map<String, List<T>> map = new HashMap<>();
-
-    for (T commandSignature : commandSignatures) {
-      String commandPrefix = commandSignature.getPrefix();
-      if (!map.containsKey(commandPrefix)) map.put(commandPrefix, new ArrayList<>());
-      map.get(commandPrefix).add(commandSignature);
-    }
-
-    return map;
-  }
-
   private static boolean isPunctuation(char ch) {
     return ((ch == '.') || (ch == ',') || (ch == ':') || (ch == ';') || (ch == '\u2026'));
   }
@@ -184,47 +160,7 @@ public class LatexAnnotatedTextBuilder extends CodeAnnotatedTextBuilder {
   @Override
   public void setSettings(Settings settings) {
     this.language = settings.getLanguageShortCode();
-
-    for (Map.Entry<String, String> entry : settings.getLatexCommands().entrySet()) {
-      String actionString = entry.getValue();
-      LatexCommandSignature.Action action;
-      @Nullable DummyGenerator dummyGenerator = null;
-
-      if (actionString.equals("default")) {
-        action = LatexCommandSignature.Action.DEFAULT;
-      } else if (actionString.equals("ignore")) {
-        action = LatexCommandSignature.Action.IGNORE;
-      } else if (actionString.equals("dummy")) {
-        action = LatexCommandSignature.Action.DUMMY;
-      } else if (actionString.equals("pluralDummy")) {
-        action = LatexCommandSignature.Action.DUMMY;
-        dummyGenerator = DummyGenerator.getDefault(true);
-      } else {
-        continue;
-      }
-
-      if (dummyGenerator == null) dummyGenerator = DummyGenerator.getDefault();
-      this.commandSignatures.add(new LatexCommandSignature(entry.getKey(), action, dummyGenerator));
-    }
-
-    this.commandSignatureMap = createCommandSignatureMap(this.commandSignatures);
-
-    for (Map.Entry<String, String> entry : settings.getLatexEnvironments().entrySet()) {
-      String actionString = entry.getValue();
-      LatexEnvironmentSignature.Action action;
-
-      if (actionString.equals("default")) {
-        action = LatexEnvironmentSignature.Action.DEFAULT;
-      } else if (actionString.equals("ignore")) {
-        action = LatexEnvironmentSignature.Action.IGNORE;
-      } else {
-        continue;
-      }
-
-      this.environmentSignatures.add(new LatexEnvironmentSignature(entry.getKey(), action));
-    }
-
-    this.environmentSignatureMap = createCommandSignatureMap(this.environmentSignatures);
+    this.grammar = LatexGrammar.get(settings);
   }
 
   public void setInStrictMode(boolean isInStrictMode) {
@@ -384,7 +320,7 @@ public class LatexAnnotatedTextBuilder extends CodeAnnotatedTextBuilder {
         }
       } else if (command.equals("\\begin")) {
         @Nullable List<LatexEnvironmentSignature> possibleEnvironmentSignatures =
-            this.environmentSignatureMap.get(command + argument);
+            this.grammar.getEnvironmentSignatures(command + argument);
 
         if (possibleEnvironmentSignatures == null) {
           possibleEnvironmentSignatures = Collections.emptyList();
@@ -564,7 +500,7 @@ public class LatexAnnotatedTextBuilder extends CodeAnnotatedTextBuilder {
       addMarkup(verbCommand, generateDummy());
     } else {
       @Nullable List<LatexCommandSignature> possibleCommandSignatures =
-          this.commandSignatureMap.get(command);
+          this.grammar.getCommandSignatures(command);
 
       if (possibleCommandSignatures == null) {
         possibleCommandSignatures = Collections.emptyList();
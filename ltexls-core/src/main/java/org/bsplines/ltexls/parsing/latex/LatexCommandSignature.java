@@ -31,9 +31,6 @@ public class LatexCommandSignature {
     DUMMY,
   }
 
-  private static final Pattern genericCommandPattern = Pattern.compile(
-      "^(.+?)(\\{\\}|\\[\\]|\\(\\))*$");
-  private static final Pattern argumentPattern = Pattern.compile("^((\\{\\})|(\\[\\])|(\\(\\)))");
   private static final Pattern commentPattern = Pattern.compile("^%.*?($|(\n[ \n\r\t]*))");
 
   private String prefix;
@@ -41,7 +38,7 @@ public class LatexCommandSignature {
   private Action action;
   private DummyGenerator dummyGenerator;
   private String commandPrototype;
-  private Pattern commandPattern;
+  private @Nullable Pattern commandPattern;
 
   public LatexCommandSignature(String commandPrototype) {
     this(commandPrototype, Action.IGNORE);
@@ -64,48 +61,47 @@ public class LatexCommandSignature {
     this.dummyGenerator = dummyGenerator;
     this.commandPrototype = commandPrototype;
 
-    Matcher commandMatcher = genericCommandPattern.matcher(commandPrototype);
-    boolean found = commandMatcher.find();
-    @Nullable String prefix = (found ? commandMatcher.group(1) : null);
-
-    if (prefix == null) {
+    if (commandPrototype.isEmpty()) {
       Tools.logger.warning(Tools.i18n("invalidCommandPrototype", commandPrototype));
-      this.commandPattern = Pattern.compile(" ^$");
+      this.commandPattern = null;
       return;
     }
 
-    this.prefix = prefix;
-    int pos = commandMatcher.end(1);
+    // parse the prototype by hand instead of with regular expressions, as this constructor is
+    // called for every default signature when the defaults are loaded
+    int prefixLength = commandPrototype.length();
 
-    while (true) {
-      Matcher argumentMatcher = argumentPattern.matcher(commandPrototype.substring(pos));
-      if (!argumentMatcher.find()) break;
+    while (prefixLength > 2) {
+      @Nullable ArgumentType argumentType = getArgumentType(
+          commandPrototype.charAt(prefixLength - 2), commandPrototype.charAt(prefixLength - 1));
+      if (argumentType == null) break;
+      this.argumentTypes.add(0, argumentType);
+      prefixLength -= 2;
+    }
 
-      LatexCommandSignature.ArgumentType argumentType;
+    this.prefix = commandPrototype.substring(0, prefixLength);
+    this.action = action;
 
-      if (argumentMatcher.group(2) != null) {
-        argumentType = LatexCommandSignature.ArgumentType.BRACE;
-      } else if (argumentMatcher.group(3) != null) {
-        argumentType = LatexCommandSignature.ArgumentType.BRACKET;
-      } else if (argumentMatcher.group(4) != null) {
-        argumentType = LatexCommandSignature.ArgumentType.PARENTHESIS;
-      } else {
-        argumentType = LatexCommandSignature.ArgumentType.BRACE;
-      }
+    // escaped prefixes are matched with String.startsWith
+    this.commandPattern = (escapeCommandPrefix ? null : Pattern.compile("^" + this.prefix));
+  }
 
-      this.argumentTypes.add(argumentType);
-      pos += argumentMatcher.group().length();
-      assert argumentMatcher.group().length() > 0;
+  private static @Nullable ArgumentType getArgumentType(char openChar, char closeChar) {
+    if ((openChar == '{') && (closeChar == '}')) {
+      return ArgumentType.BRACE;
+    } else if ((openChar == '[') && (closeChar == ']')) {
+      return ArgumentType.BRACKET;
+    } else if ((openChar == '(') && (closeChar == ')')) {
+      return ArgumentType.PARENTHESIS;
+    } else {
+      return null;
     }
-
-    this.action = action;
-    this.commandPattern = Pattern.compile(
-        "^" + (escapeCommandPrefix ? Pattern.quote(this.prefix) : this.prefix));
   }
 
   private static String matchPatternFromPosition(String code, int fromPos, Pattern pattern) {
-    Matcher matcher = pattern.matcher(code.substring(fromPos));
-    return (matcher.find() ? matcher.group() : "");
+    // use a region instead of a substring to avoid copying the remaining code for every attempt
+    Matcher matcher = pattern.matcher(code).region(fromPos, code.length());
+    return (matcher.lookingAt() ? matcher.group() : "");
   }
 
   public static String matchArgumentFromPosition(
@@ -132,7 +128,7 @@ public class LatexCommandSignature {
       }
     }
 
-    if (code.charAt(pos) != openChar) return "";
+    if ((pos >= code.length()) || (code.charAt(pos) != openChar)) return "";
     pos++;
 
     Stack<ArgumentType> argumentTypeStack = new Stack<>();
@@ -208,9 +204,17 @@ public class LatexCommandSignature {
   private int matchFromPosition(String code, int fromPos,
         @Nullable List<Pair<Integer, Integer>> arguments) {
     int pos = fromPos;
-    String match = matchPatternFromPosition(code, pos, this.commandPattern);
-    if (match.isEmpty()) return -1;
-    pos += match.length();
+    @Nullable Pattern commandPattern = this.commandPattern;
+    String match;
+
+    if (commandPattern != null) {
+      match = matchPatternFromPosition(code, pos, commandPattern);
+      if (match.isEmpty()) return -1;
+      pos += match.length();
+    } else {
+      if (this.prefix.isEmpty() || !code.startsWith(this.prefix, pos)) return -1;
+      pos += this.prefix.length();
+    }
 
     for (ArgumentType argumentType : this.argumentTypes) {
       match = matchPatternFromPosition(code, pos, commentPattern);
@@ -10,8 +10,10 @@ package org.bsplines.ltexls.parsing.latex;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -19,14 +21,23 @@ import org.checkerframework.checker.nullness.qual.Nullable;
 import org.eclipse.xtext.xbase.lib.Pair;
 
 public class LatexCommandSignatureMatcher {
-  private static final Pattern commentPattern = Pattern.compile("(?<!\\\\)(?:\\\\\\\\)*%");
-
   private List<LatexCommandSignature> commandSignatures;
-  private Pattern commandPattern;
+  private @Nullable PrefixTrieNode prefixTrie;
+  private @Nullable Pattern commandPattern;
   private @Nullable String code;
   private @Nullable Matcher matcher;
   private @Nullable Set<String> ignoreCommandPrototypes;
 
+  private int pos;
+  private int commentScanPos;
+  private boolean inComment;
+  private int numberOfPrecedingBackslashes;
+
+  private static class PrefixTrieNode {
+    private Map<Character, PrefixTrieNode> children = new HashMap<>();
+    private List<Integer> commandSignatureIndices = new ArrayList<>();
+  }
+
   public LatexCommandSignatureMatcher(LatexCommandSignature commandSignature) {
     this(commandSignature, true);
   }
@@ -45,62 +56,184 @@ public class LatexCommandSignatureMatcher {
         boolean escapeCommandPrefixes) {
     this.commandSignatures = new ArrayList<>(commandSignatures);
 
-    StringBuilder commandPatternStringBuilder = new StringBuilder("");
-    boolean first = true;
+    if (escapeCommandPrefixes) {
+      // literal prefixes are indexed in a trie, so the set of signatures to try at a given
+      // position is found in time proportional to the prefix length, not the number of signatures
+      this.prefixTrie = createPrefixTrie(this.commandSignatures);
+      this.commandPattern = null;
+    } else {
+      // prefixes are regular expressions, fall back to a single alternation
+      StringBuilder commandPatternStringBuilder = new StringBuilder("");
+      boolean first = true;
 
-    for (LatexCommandSignature commandSignature : commandSignatures) {
-      if (first) {
-        first = false;
-      } else {
-        commandPatternStringBuilder.append("|");
+      for (LatexCommandSignature commandSignature : this.commandSignatures) {
+        if (first) {
+          first = false;
+        } else {
+          commandPatternStringBuilder.append("|");
+        }
+
+        commandPatternStringBuilder.append(commandSignature.getPrefix());
       }
 
-      String commandPrefix = commandSignature.getPrefix();
-      commandPatternStringBuilder.append(
-          escapeCommandPrefixes ? Pattern.quote(commandPrefix) : commandPrefix);
+      this.prefixTrie = null;
+      this.commandPattern = Pattern.compile(commandPatternStringBuilder.toString());
     }
 
-    this.commandPattern = Pattern.compile(commandPatternStringBuilder.toString());
-
     this.code = null;
     this.matcher = null;
     this.ignoreCommandPrototypes = null;
   }
 
+  private static PrefixTrieNode createPrefixTrie(List<LatexCommandSignature> commandSignatures) {
+    PrefixTrieNode root = new PrefixTrieNode();
+
+    for (int i = 0; i < commandSignatures.size(); i++) {
+      String prefix = commandSignatures.get(i).getPrefix();
+      if (prefix.isEmpty()) continue;
+      PrefixTrieNode node = root;
+
+      for (int j = 0; j < prefix.length(); j++) {
+        node = node.children.computeIfAbsent(prefix.charAt(j),
+            (Character character) -> new PrefixTrieNode());
+      }
+
+      node.commandSignatureIndices.add(i);
+    }
+
+    return root;
+  }
+
   public void startMatching(String code, Set<String> ignoreCommandPrototypes) {
     this.code = code;
-    this.matcher = this.commandPattern.matcher(code);
+    @Nullable Pattern commandPattern = this.commandPattern;
+    this.matcher = ((commandPattern != null) ? commandPattern.matcher(code) : null);
     this.ignoreCommandPrototypes = new HashSet<String>(ignoreCommandPrototypes);
+
+    this.pos = 0;
+    this.commentScanPos = 0;
+    this.inComment = false;
+    this.numberOfPrecedingBackslashes = 0;
+  }
+
+  // advances the comment scan to toPos and returns whether toPos is inside a comment; the scan
+  // only moves forward, so every character is examined at most once per startMatching call
+  private boolean isInComment(String code, int toPos) {
+    for (; this.commentScanPos < toPos; this.commentScanPos++) {
+      char curChar = code.charAt(this.commentScanPos);
+
+      if (curChar == '\n') {
+        this.inComment = false;
+        this.numberOfPrecedingBackslashes = 0;
+      } else if (this.inComment) {
+        continue;
+      } else if (curChar == '\\') {
+        this.numberOfPrecedingBackslashes++;
+      } else {
+        if ((curChar == '%') && (this.numberOfPrecedingBackslashes % 2 == 0)) {
+          this.inComment = true;
+        }
+
+        this.numberOfPrecedingBackslashes = 0;
+      }
+    }
+
+    return this.inComment;
   }
 
   public @Nullable LatexCommandSignatureMatch findNextMatch() {
     // fixes false-positive dereference.of.nullable warnings
     @Nullable String code = this.code;
-    @Nullable Matcher matcher = this.matcher;
     @Nullable Set<String> ignoreCommandPrototypes = this.ignoreCommandPrototypes;
-    if ((code == null) || (matcher == null) || (ignoreCommandPrototypes == null)) return null;
+    if ((code == null) || (ignoreCommandPrototypes == null)) return null;
 
-    while (matcher.find()) {
-      int fromPos = matcher.start();
+    @Nullable PrefixTrieNode prefixTrie = this.prefixTrie;
+    @Nullable Matcher matcher = this.matcher;
+
+    if (prefixTrie != null) {
+      return findNextMatchWithPrefixTrie(code, prefixTrie, ignoreCommandPrototypes);
+    } else if (matcher != null) {
+      return findNextMatchWithPattern(code, matcher, ignoreCommandPrototypes);
+    } else {
+      return null;
+    }
+  }
+
+  private @Nullable LatexCommandSignatureMatch findNextMatchWithPrefixTrie(String code,
+        PrefixTrieNode prefixTrie, Set<String> ignoreCommandPrototypes) {
+    List<Integer> candidateIndices = new ArrayList<>();
+
+    while (this.pos < code.length()) {
+      int fromPos = this.pos;
+      @Nullable PrefixTrieNode node = prefixTrie.children.get(code.charAt(fromPos));
+
+      if (node == null) {
+        this.pos++;
+        continue;
+      }
 
-      int lineStartPos = code.lastIndexOf('\n', fromPos) + 1;
-      String precedingPartOfLine = code.substring(lineStartPos, fromPos);
-      if (commentPattern.matcher(precedingPartOfLine).find()) continue;
+      if (isInComment(code, fromPos)) {
+        int lineEndPos = code.indexOf('\n', fromPos);
+        this.pos = ((lineEndPos > -1) ? lineEndPos : code.length());
+        continue;
+      }
+
+      candidateIndices.clear();
+      int shortestPrefixLength = -1;
+
+      for (int i = fromPos + 1; node != null; i++) {
+        if (!node.commandSignatureIndices.isEmpty()) {
+          candidateIndices.addAll(node.commandSignatureIndices);
+          if (shortestPrefixLength == -1) shortestPrefixLength = i - fromPos;
+        }
 
+        node = ((i < code.length()) ? node.children.get(code.charAt(i)) : null);
+      }
+
+      if (shortestPrefixLength == -1) {
+        this.pos++;
+        continue;
+      }
+
+      // continue after the prefix to find commands nested in the arguments
+      this.pos = fromPos + shortestPrefixLength;
+
+      // preserve the order of the signatures for tie-breaking
+      Collections.sort(candidateIndices);
       @Nullable LatexCommandSignatureMatch bestMatch = null;
 
-      for (LatexCommandSignature commandSignature : this.commandSignatures) {
-        if (ignoreCommandPrototypes.contains(commandSignature.getCommandPrototype())) {
-          continue;
+      for (int index : candidateIndices) {
+        LatexCommandSignature commandSignature = this.commandSignatures.get(index);
+        @Nullable LatexCommandSignatureMatch match = matchCommandSignature(
+            commandSignature, code, fromPos, ignoreCommandPrototypes);
+
+        if ((match != null)
+              && ((bestMatch == null) || (match.getToPos() > bestMatch.getToPos()))) {
+          bestMatch = match;
         }
+      }
 
-        @Nullable List<Pair<Integer, Integer>> arguments =
-            commandSignature.matchArgumentsFromPosition(code, fromPos);
+      if (bestMatch != null) return bestMatch;
+    }
+
+    return null;
+  }
+
+  private @Nullable LatexCommandSignatureMatch findNextMatchWithPattern(String code,
+        Matcher matcher, Set<String> ignoreCommandPrototypes) {
+    while (matcher.find()) {
+      int fromPos = matcher.start();
+      if (isInComment(code, fromPos)) continue;
 
-        if (arguments != null) {
-          LatexCommandSignatureMatch match = new LatexCommandSignatureMatch(
-              commandSignature, code, fromPos, arguments);
-          if ((bestMatch == null) || (match.getToPos() > bestMatch.getToPos())) bestMatch = match;
+      @Nullable LatexCommandSignatureMatch bestMatch = null;
+
+      for (LatexCommandSignature commandSignature : this.commandSignatures) {
+        @Nullable LatexCommandSignatureMatch match = matchCommandSignature(
+            commandSignature, code, fromPos, ignoreCommandPrototypes);
+
+        if ((match != null)
+              && ((bestMatch == null) || (match.getToPos() > bestMatch.getToPos()))) {
+          bestMatch = match;
         }
       }
 
@@ -110,6 +243,18 @@ public class LatexCommandSignatureMatcher {
     return null;
   }
 
+  private static @Nullable LatexCommandSignatureMatch matchCommandSignature(
+        LatexCommandSignature commandSignature, String code, int fromPos,
+        Set<String> ignoreCommandPrototypes) {
+    if (ignoreCommandPrototypes.contains(commandSignature.getCommandPrototype())) return null;
+
+    @Nullable List<Pair<Integer, Integer>> arguments =
+        commandSignature.matchArgumentsFromPosition(code, fromPos);
+
+    return ((arguments != null)
+        ? new LatexCommandSignatureMatch(commandSignature, code, fromPos, arguments) : null);
+  }
+
   public List<LatexCommandSignature> getCommandSignatures() {
     return Collections.unmodifiableList(this.commandSignatures);
   }
@@ -7,12 +7,10 @@
 
 package org.bsplines.ltexls.parsing.latex;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 public class LatexEnvironmentSignature extends LatexCommandSignature {
-  private static final Pattern prefixPattern = Pattern.compile("^\\\\begin\\{([^\\}]+)\\}");
+  private static final String environmentPrefix = "\\begin{";
 
   private boolean ignoreAllArguments;
   private String environmentName;
@@ -22,13 +20,11 @@ public class LatexEnvironmentSignature extends LatexCommandSignature {
   }
 
   public LatexEnvironmentSignature(String environmentPrototype, Action action) {
-    super((prefixPattern.matcher(environmentPrototype).find()
-          ? environmentPrototype : "\\begin{" + environmentPrototype + "}"),
+    super(((parseEnvironmentName(environmentPrototype) != null)
+          ? environmentPrototype : environmentPrefix + environmentPrototype + "}"),
         action);
 
-    Matcher prefixMatcher = prefixPattern.matcher(environmentPrototype);
-    boolean matchFound = prefixMatcher.find();
-    @Nullable String environmentName = (matchFound ? prefixMatcher.group(1) : null);
+    @Nullable String environmentName = parseEnvironmentName(environmentPrototype);
 
     if (environmentName != null) {
       this.ignoreAllArguments = false;
@@ -39,6 +35,14 @@ public class LatexEnvironmentSignature extends LatexCommandSignature {
     }
   }
 
+  private static @Nullable String parseEnvironmentName(String environmentPrototype) {
+    if (!environmentPrototype.startsWith(environmentPrefix)) return null;
+    int environmentNameEndPos = environmentPrototype.indexOf('}', environmentPrefix.length());
+    return ((environmentNameEndPos > environmentPrefix.length())
+        ? environmentPrototype.substring(environmentPrefix.length(), environmentNameEndPos)
+        : null);
+  }
+
   public boolean doesIgnoreAllArguments() {
     return this.ignoreAllArguments;
   }
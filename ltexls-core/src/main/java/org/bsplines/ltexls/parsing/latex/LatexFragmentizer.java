@@ -11,10 +11,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.Stack;
 import java.util.regex.Pattern;
 import org.bsplines.ltexls.parsing.CodeFragment;
@@ -28,35 +26,41 @@ public class LatexFragmentizer extends CodeFragmentizer {
   private static final Pattern commentPattern = Pattern.compile(
       "^\\s*%\\s*(?i)ltex(?-i):(.*?)$", Pattern.MULTILINE);
 
-  private static final LatexCommandSignatureMatcher extraCommandSignatureMatcher =
-      new LatexCommandSignatureMatcher(Arrays.asList(
+  // matchers keep the state of the current matching, so every thread needs its own ones (as
+  // documents are fragmentized concurrently)
+  private static final ThreadLocal<LatexCommandSignatureMatcher> extraCommandSignatureMatcher =
+      ThreadLocal.withInitial(() -> new LatexCommandSignatureMatcher(Arrays.asList(
         new LatexCommandSignature("\\footnote{}"),
         new LatexCommandSignature("\\footnote[]{}"),
         new LatexCommandSignature("\\todo{}"),
-        new LatexCommandSignature("\\todo[]{}")));
+        new LatexCommandSignature("\\todo[]{}"))));
 
   private static final Pattern languageTagReplacementPattern = Pattern.compile("[^A-Za-z]+");
   private static final Map<String, String> babelLanguageMap = createBabelLanguageMap();
 
   private static final LatexCommandSignature usePackageCommandSignature =
       new LatexCommandSignature("\\usepackage[]{}");
-  private static final LatexCommandSignatureMatcher usePackageCommandSignatureMatcher =
-      new LatexCommandSignatureMatcher(Collections.singletonList(usePackageCommandSignature));
+  private static final ThreadLocal<LatexCommandSignatureMatcher>
+      usePackageCommandSignatureMatcher = ThreadLocal.withInitial(() ->
+        new LatexCommandSignatureMatcher(Collections.singletonList(usePackageCommandSignature)));
 
   private static final LatexCommandSignature babelSwitchCommandSignature =
       new LatexCommandSignature("\\selectlanguage{}");
-  private static final LatexCommandSignatureMatcher babelSwitchCommandSignatureMatcher =
-      new LatexCommandSignatureMatcher(Collections.singletonList(babelSwitchCommandSignature));
+  private static final ThreadLocal<LatexCommandSignatureMatcher>
+      babelSwitchCommandSignatureMatcher = ThreadLocal.withInitial(() ->
+        new LatexCommandSignatureMatcher(Collections.singletonList(babelSwitchCommandSignature)));
 
   private static final Map<LatexCommandSignature, String> babelInlineCommandSignatureMap =
       createBabelInlineCommandSignatureMap();
-  private static final LatexCommandSignatureMatcher babelInlineCommandSignatureMatcher =
-      new LatexCommandSignatureMatcher(babelInlineCommandSignatureMap.keySet());
+  private static final ThreadLocal<LatexCommandSignatureMatcher>
+      babelInlineCommandSignatureMatcher = ThreadLocal.withInitial(() ->
+        new LatexCommandSignatureMatcher(babelInlineCommandSignatureMap.keySet()));
 
   private static final Map<LatexCommandSignature, String> babelEnvironmentCommandSignatureMap =
       createBabelEnvironmentCommandSignatureMap();
-  private static final LatexCommandSignatureMatcher babelEnvironmentCommandSignatureMatcher =
-      new LatexCommandSignatureMatcher(babelEnvironmentCommandSignatureMap.keySet());
+  private static final ThreadLocal<LatexCommandSignatureMatcher>
+      babelEnvironmentCommandSignatureMatcher = ThreadLocal.withInitial(() ->
+        new LatexCommandSignatureMatcher(babelEnvironmentCommandSignatureMap.keySet()));
 
   private RegexCodeFragmentizer commentFragmentizer;
 
@@ -220,16 +224,6 @@ public class LatexFragmentizer extends CodeFragmentizer {
     this.commentFragmentizer = new RegexCodeFragmentizer(codeLanguageId, commentPattern);
   }
 
-  private static Set<String> getIgnoreCommandPrototypes(Settings settings) {
-    Set<String> ignoreCommandPrototypes = new HashSet<>();
-
-    for (Map.Entry<String, String> entry : settings.getLatexCommands().entrySet()) {
-      if (entry.getValue().equals("ignore")) ignoreCommandPrototypes.add(entry.getKey());
-    }
-
-    return ignoreCommandPrototypes;
-  }
-
   @Override
   public List<CodeFragment> fragmentize(String code, Settings originalSettings) {
     List<CodeFragment> fragments = Collections.singletonList(new CodeFragment(
@@ -247,17 +241,19 @@ public class LatexFragmentizer extends CodeFragmentizer {
 
   private List<CodeFragment> fragmentizeBabelUsePackageCommands(List<CodeFragment> fragments) {
     ArrayList<CodeFragment> newFragments = new ArrayList<>();
+    LatexCommandSignatureMatcher commandSignatureMatcher =
+        usePackageCommandSignatureMatcher.get();
 
     for (CodeFragment oldFragment : fragments) {
       String oldFragmentCode = oldFragment.getCode();
       Settings oldFragmentSettings = oldFragment.getSettings();
-      usePackageCommandSignatureMatcher.startMatching(oldFragmentCode,
-          getIgnoreCommandPrototypes(oldFragmentSettings));
+      commandSignatureMatcher.startMatching(oldFragmentCode,
+          LatexGrammar.get(oldFragmentSettings).getIgnoreCommandPrototypes());
       int prevFromPos = 0;
       Settings prevSettings = oldFragmentSettings;
       @Nullable LatexCommandSignatureMatch match;
 
-      while ((match = usePackageCommandSignatureMatcher.findNextMatch()) != null) {
+      while ((match = commandSignatureMatcher.findNextMatch()) != null) {
         String packageName = match.getArgumentContents(1);
         if (!packageName.equals("babel")) continue;
 
@@ -299,17 +295,19 @@ public class LatexFragmentizer extends CodeFragmentizer {
 
   private List<CodeFragment> fragmentizeBabelSwitchCommands(List<CodeFragment> fragments) {
     ArrayList<CodeFragment> newFragments = new ArrayList<>();
+    LatexCommandSignatureMatcher commandSignatureMatcher =
+        babelSwitchCommandSignatureMatcher.get();
 
     for (CodeFragment oldFragment : fragments) {
       String oldFragmentCode = oldFragment.getCode();
       Settings oldFragmentSettings = oldFragment.getSettings();
-      babelSwitchCommandSignatureMatcher.startMatching(oldFragmentCode,
-          getIgnoreCommandPrototypes(oldFragmentSettings));
+      commandSignatureMatcher.startMatching(oldFragmentCode,
+          LatexGrammar.get(oldFragmentSettings).getIgnoreCommandPrototypes());
       int prevFromPos = 0;
       Settings prevSettings = oldFragmentSettings;
       @Nullable LatexCommandSignatureMatch match;
 
-      while ((match = babelSwitchCommandSignatureMatcher.findNextMatch()) != null) {
+      while ((match = commandSignatureMatcher.findNextMatch()) != null) {
         String babelLanguage = match.getArgumentContents(0);
         @Nullable String languageShortCode = babelLanguageMap.get(babelLanguage);
 
@@ -339,16 +337,18 @@ public class LatexFragmentizer extends CodeFragmentizer {
 
   private List<CodeFragment> fragmentizeBabelInlineCommands(List<CodeFragment> fragments) {
     ArrayList<CodeFragment> newFragments = new ArrayList<>();
+    LatexCommandSignatureMatcher commandSignatureMatcher =
+        babelInlineCommandSignatureMatcher.get();
 
     for (CodeFragment oldFragment : fragments) {
       String oldFragmentCode = oldFragment.getCode();
       Settings oldFragmentSettings = oldFragment.getSettings();
-      babelInlineCommandSignatureMatcher.startMatching(oldFragmentCode,
-          getIgnoreCommandPrototypes(oldFragmentSettings));
+      commandSignatureMatcher.startMatching(oldFragmentCode,
+          LatexGrammar.get(oldFragmentSettings).getIgnoreCommandPrototypes());
       Settings curSettings = oldFragmentSettings;
       @Nullable LatexCommandSignatureMatch match;
 
-      while ((match = babelInlineCommandSignatureMatcher.findNextMatch()) != null) {
+      while ((match = commandSignatureMatcher.findNextMatch()) != null) {
         @Nullable String languageShortCode =
             babelInlineCommandSignatureMap.get(match.getCommandSignature());
         String babelLanguage = "";
@@ -382,19 +382,21 @@ public class LatexFragmentizer extends CodeFragmentizer {
 
   private List<CodeFragment> fragmentizeBabelEnvironments(List<CodeFragment> fragments) {
     ArrayList<CodeFragment> newFragments = new ArrayList<>();
+    LatexCommandSignatureMatcher commandSignatureMatcher =
+        babelEnvironmentCommandSignatureMatcher.get();
 
     for (CodeFragment oldFragment : fragments) {
       String oldFragmentCode = oldFragment.getCode();
       Settings oldFragmentSettings = oldFragment.getSettings();
-      babelEnvironmentCommandSignatureMatcher.startMatching(oldFragmentCode,
-          getIgnoreCommandPrototypes(oldFragmentSettings));
+      commandSignatureMatcher.startMatching(oldFragmentCode,
+          LatexGrammar.get(oldFragmentSettings).getIgnoreCommandPrototypes());
       Stack<Settings> settingsStack = new Stack<>();
       Stack<Integer> fromPosStack = new Stack<>();
       settingsStack.push(oldFragmentSettings);
       fromPosStack.push(0);
       @Nullable LatexCommandSignatureMatch match;
 
-      while (((match = babelEnvironmentCommandSignatureMatcher.findNextMatch()) != null)
+      while (((match = commandSignatureMatcher.findNextMatch()) != null)
             && !settingsStack.isEmpty()) {
         String commandPrototype = match.getCommandSignature().getCommandPrototype();
         boolean isBegin = commandPrototype.startsWith("\\begin");
@@ -458,15 +460,17 @@ public class LatexFragmentizer extends CodeFragmentizer {
 
   private List<CodeFragment> fragmentizeExtraCommands(List<CodeFragment> fragments) {
     ArrayList<CodeFragment> newFragments = new ArrayList<>();
+    LatexCommandSignatureMatcher commandSignatureMatcher =
+        extraCommandSignatureMatcher.get();
 
     for (CodeFragment oldFragment : fragments) {
       String oldFragmentCode = oldFragment.getCode();
       Settings oldFragmentSettings = oldFragment.getSettings();
-      extraCommandSignatureMatcher.startMatching(oldFragmentCode,
-          getIgnoreCommandPrototypes(oldFragmentSettings));
+      commandSignatureMatcher.startMatching(oldFragmentCode,
+          LatexGrammar.get(oldFragmentSettings).getIgnoreCommandPrototypes());
       @Nullable LatexCommandSignatureMatch match;
 
-      while ((match = extraCommandSignatureMatcher.findNextMatch()) != null) {
+      while ((match = commandSignatureMatcher.findNextMatch()) != null) {
         String contents = match.getArgumentContents(match.getArgumentsSize() - 1);
         int contentsFromPos = match.getArgumentContentsFromPos(match.getArgumentsSize() - 1);
         newFragments.add(new CodeFragment(this.codeLanguageId, contents,
@@ -0,0 +1,182 @@
+/* Copyright (C) 2020 Julian Valentin, LTeX Development Community
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package org.bsplines.ltexls.parsing.latex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.bsplines.ltexls.parsing.DummyGenerator;
+import org.bsplines.ltexls.settings.Settings;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+public final class LatexGrammar {
+  private static final int maxCacheSize = 16;
+
+  private static final LatexGrammar defaultGrammar = new LatexGrammar(
+      Collections.emptyMap(), Collections.emptyMap());
+  // grammars are immutable, so they are shared between builders and threads for all settings
+  // with the same latex.commands and latex.environments
+  private static final Map<List<Map<String, String>>, LatexGrammar> cache =
+      new ConcurrentHashMap<>();
+  // grammars by the identity of the maps of the settings, which are shared between copies of the
+  // settings; looking them up doesn't depend on the size of the maps, so this is cheap enough to
+  // be done for every fragment
+  private static final Map<SettingsMapsKey, LatexGrammar> settingsMapsCache =
+      new ConcurrentHashMap<>();
+
+  private final Map<String, List<LatexCommandSignature>> commandSignatureMap;
+  private final Map<String, List<LatexEnvironmentSignature>> environmentSignatureMap;
+  private final Set<String> ignoreCommandPrototypes;
+
+  private LatexGrammar(Map<String, String> latexCommands, Map<String, String> latexEnvironments) {
+    List<LatexCommandSignature> commandSignatures = new ArrayList<>(
+        LatexAnnotatedTextBuilderDefaults.getDefaultLatexCommandSignatures());
+    Set<String> ignoreCommandPrototypes = new HashSet<>();
+
+    for (Map.Entry<String, String> entry : latexCommands.entrySet()) {
+      String actionString = entry.getValue();
+      LatexCommandSignature.Action action;
+      @Nullable DummyGenerator dummyGenerator = null;
+
+      if (actionString.equals("default")) {
+        action = LatexCommandSignature.Action.DEFAULT;
+      } else if (actionString.equals("ignore")) {
+        action = LatexCommandSignature.Action.IGNORE;
+        ignoreCommandPrototypes.add(entry.getKey());
+      } else if (actionString.equals("dummy")) {
+        action = LatexCommandSignature.Action.DUMMY;
+      } else if (actionString.equals("pluralDummy")) {
+        action = LatexCommandSignature.Action.DUMMY;
+        dummyGenerator = DummyGenerator.getDefault(true);
+      } else {
+        continue;
+      }
+
+      if (dummyGenerator == null) dummyGenerator = DummyGenerator.getDefault();
+      commandSignatures.add(new LatexCommandSignature(entry.getKey(), action, dummyGenerator));
+    }
+
+    List<LatexEnvironmentSignature> environmentSignatures = new ArrayList<>(
+        LatexAnnotatedTextBuilderDefaults.getDefaultLatexEnvironmentSignatures());
+
+    for (Map.Entry<String, String> entry : latexEnvironments.entrySet()) {
+      String actionString = entry.getValue();
+      LatexEnvironmentSignature.Action action;
+
+      if (actionString.equals("default")) {
+        action = LatexEnvironmentSignature.Action.DEFAULT;
+      } else if (actionString.equals("ignore")) {
+        action = LatexEnvironmentSignature.Action.IGNORE;
+      } else {
+        continue;
+      }
+
+      environmentSignatures.add(new LatexEnvironmentSignature(entry.getKey(), action));
+    }
+
+    this.commandSignatureMap = createCommandSignatureMap(commandSignatures);
+    this.environmentSignatureMap = createCommandSignatureMap(environmentSignatures);
+    this.ignoreCommandPrototypes = Collections.unmodifiableSet(ignoreCommandPrototypes);
+  }
+
+  private static <T extends LatexCommandSignature> Map<String, List<T>> createCommandSignatureMap(
+        List<T> commandSignatures) {
+    Map<String, List<T>> map = new HashMap<>();
+
+    for (T commandSignature : commandSignatures) {
+      String commandPrefix = commandSignature.getPrefix();
+      if (!map.containsKey(commandPrefix)) map.put(commandPrefix, new ArrayList<>());
+      map.get(commandPrefix).add(commandSignature);
+    }
+
+    for (Map.Entry<String, List<T>> entry : map.entrySet()) {
+      entry.setValue(Collections.unmodifiableList(entry.getValue()));
+    }
+
+    return Collections.unmodifiableMap(map);
+  }
+
+  public static LatexGrammar getDefault() {
+    return defaultGrammar;
+  }
+
+  public static LatexGrammar get(Settings settings) {
+    Map<String, String> latexCommands = settings.getLatexCommands();
+    Map<String, String> latexEnvironments = settings.getLatexEnvironments();
+    if (latexCommands.isEmpty() && latexEnvironments.isEmpty()) return defaultGrammar;
+
+    SettingsMapsKey settingsMapsKey = new SettingsMapsKey(latexCommands, latexEnvironments);
+    @Nullable LatexGrammar grammar = settingsMapsCache.get(settingsMapsKey);
+    if (grammar != null) return grammar;
+
+    // the maps of settings are never modified, so they don't have to be copied
+    grammar = get(Arrays.asList(latexCommands, latexEnvironments));
+    if (settingsMapsCache.size() >= maxCacheSize) settingsMapsCache.clear();
+    settingsMapsCache.put(settingsMapsKey, grammar);
+    return grammar;
+  }
+
+  public static LatexGrammar get(Map<String, String> latexCommands,
+        Map<String, String> latexEnvironments) {
+    if (latexCommands.isEmpty() && latexEnvironments.isEmpty()) return defaultGrammar;
+    return get(Arrays.asList(new HashMap<>(latexCommands), new HashMap<>(latexEnvironments)));
+  }
+
+  private static LatexGrammar get(List<Map<String, String>> key) {
+    @Nullable LatexGrammar grammar = cache.get(key);
+    if (grammar != null) return grammar;
+
+    // settings rarely change, so simply start over instead of tracking usage
+    if (cache.size() >= maxCacheSize) cache.clear();
+    return cache.computeIfAbsent(key, (List<Map<String, String>> curKey) ->
+        new LatexGrammar(curKey.get(0), curKey.get(1)));
+  }
+
+  public @Nullable List<LatexCommandSignature> getCommandSignatures(String prefix) {
+    return this.commandSignatureMap.get(prefix);
+  }
+
+  public @Nullable List<LatexEnvironmentSignature> getEnvironmentSignatures(String prefix) {
+    return this.environmentSignatureMap.get(prefix);
+  }
+
+  public Set<String> getIgnoreCommandPrototypes() {
+    return this.ignoreCommandPrototypes;
+  }
+
+  private static final class SettingsMapsKey {
+    private final Map<String, String> latexCommands;
+    private final Map<String, String> latexEnvironments;
+
+    public SettingsMapsKey(Map<String, String> latexCommands,
+          Map<String, String> latexEnvironments) {
+      this.latexCommands = latexCommands;
+      this.latexEnvironments = latexEnvironments;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object obj) {
+      if (!(obj instanceof SettingsMapsKey)) return false;
+      SettingsMapsKey other = (SettingsMapsKey)obj;
+      return ((this.latexCommands == other.latexCommands)
+          && (this.latexEnvironments == other.latexEnvironments));
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * System.identityHashCode(this.latexCommands)
+          + System.identityHashCode(this.latexEnvironments);
+    }
+  }
+}
@@ -0,0 +1,257 @@
+/* Copyright (C) 2020 Julian Valentin, LTeX Development Community
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package org.bsplines.ltexls.server;
+
+import com.sun.management.OperatingSystemMXBean;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+import org.bsplines.ltexls.settings.SettingsManager;
+import org.bsplines.ltexls.tools.Tools;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
+
+// limits the number of concurrent background checks (checks of documents that have just been
+// opened, checks after settings changes, and checks requested via ltex.checkDocument) to the
+// configured share of the processors that is not used by other processes; interactive checks
+// always start immediately, but background checks don't start while they are running
+public class BackgroundCheckGovernor {
+  private static final long pollingIntervalMilliseconds = 1000;
+  // weight of the newest sample in the moving average of the load of other processes
+  private static final double loadSmoothingFactor = 0.5;
+  // background checks are started one at a time when they have been waiting for this long, so
+  // that they are not postponed indefinitely on a permanently busy system
+  private static final Duration maxWaitingDuration = Duration.ofSeconds(30);
+  private static final long checkingThreadKeepAliveSeconds = 60;
+  private static final ScheduledExecutorService scheduler =
+      Executors.newSingleThreadScheduledExecutor((Runnable runnable) -> {
+        Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  private SettingsManager settingsManager;
+  private int processorCount;
+  private DoubleSupplier otherProcessesLoadSupplier;
+  // fraction of all processors used by other processes, smoothed over the last samples
+  private double otherProcessesLoad;
+  private int runningBackgroundCheckCount;
+  private int runningInteractiveCheckCount;
+  private Deque<WaitingCheck> waitingChecks;
+  private @Nullable ScheduledFuture<?> pollingFuture;
+  // runs the LanguageTool stage of interactive and background checks, with one thread per
+  // processor (the number of running checks is kept below that by the governor, except for
+  // interactive checks, which then have to wait for a thread)
+  private ThreadPoolExecutor checkingExecutor;
+
+  public BackgroundCheckGovernor(SettingsManager settingsManager) {
+    this(settingsManager, Runtime.getRuntime().availableProcessors(),
+        BackgroundCheckGovernor::getOtherProcessesLoad);
+  }
+
+  public BackgroundCheckGovernor(SettingsManager settingsManager, int processorCount,
+        DoubleSupplier otherProcessesLoadSupplier) {
+    this.settingsManager = settingsManager;
+    this.processorCount = processorCount;
+    this.otherProcessesLoadSupplier = otherProcessesLoadSupplier;
+    this.otherProcessesLoad = 0;
+    this.runningBackgroundCheckCount = 0;
+    this.runningInteractiveCheckCount = 0;
+    this.waitingChecks = new ArrayDeque<>();
+    this.pollingFuture = null;
+    int checkingThreadCount = Math.max(processorCount, 1);
+    this.checkingExecutor = new ThreadPoolExecutor(checkingThreadCount, checkingThreadCount,
+        checkingThreadKeepAliveSeconds, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+        (Runnable runnable) -> {
+          Thread thread = new Thread(runnable);
+          thread.setDaemon(true);
+          return thread;
+        });
+    this.checkingExecutor.allowCoreThreadTimeOut(true);
+  }
+
+  // the load of the language server itself doesn't count, as it is what is being limited
+  private static double getOtherProcessesLoad() {
+    try {
+      OperatingSystemMXBean operatingSystemMxBean =
+          (OperatingSystemMXBean)ManagementFactory.getOperatingSystemMXBean();
+      double systemLoad = operatingSystemMxBean.getSystemCpuLoad();
+      double processLoad = operatingSystemMxBean.getProcessCpuLoad();
+      if ((systemLoad < 0) || (processLoad < 0)) return 0;
+      return Math.max(systemLoad - processLoad, 0);
+    } catch (ClassCastException e) {
+      return 0;
+    }
+  }
+
+  // returns a future that completes when the check may start; it is completed exceptionally
+  // with a CancellationException if the check is cancelled while waiting, and endCheck has to be
+  // called if and only if it completes normally
+  public CompletableFuture<Void> startCheck(boolean background, CancelChecker cancelChecker) {
+    if (!background) {
+      synchronized (this) {
+        this.runningInteractiveCheckCount++;
+      }
+
+      return CompletableFuture.completedFuture(null);
+    }
+
+    WaitingCheck waitingCheck = new WaitingCheck(cancelChecker);
+
+    synchronized (this) {
+      if (this.pollingFuture == null) {
+        // the average from before the governor became idle is outdated
+        this.otherProcessesLoad = this.otherProcessesLoadSupplier.getAsDouble();
+        this.pollingFuture = scheduler.scheduleAtFixedRate(this::poll,
+            pollingIntervalMilliseconds, pollingIntervalMilliseconds, TimeUnit.MILLISECONDS);
+      }
+
+      this.waitingChecks.addLast(waitingCheck);
+    }
+
+    startWaitingChecks();
+    return waitingCheck.getFuture();
+  }
+
+  public void endCheck(boolean background) {
+    synchronized (this) {
+      if (background) {
+        this.runningBackgroundCheckCount--;
+      } else {
+        this.runningInteractiveCheckCount--;
+      }
+    }
+
+    startWaitingChecks();
+  }
+
+  private void poll() {
+    synchronized (this) {
+      sampleLoad();
+
+      // the polling is restarted by the next background check
+      if ((this.runningBackgroundCheckCount == 0) && this.waitingChecks.isEmpty()
+            && (this.pollingFuture != null)) {
+        this.pollingFuture.cancel(false);
+        this.pollingFuture = null;
+      }
+    }
+
+    startWaitingChecks();
+  }
+
+  private synchronized void sampleLoad() {
+    this.otherProcessesLoad = loadSmoothingFactor * this.otherProcessesLoadSupplier.getAsDouble()
+        + (1 - loadSmoothingFactor) * this.otherProcessesLoad;
+  }
+
+  public synchronized int getMaxBackgroundCheckCount() {
+    double cpuShare = Math.min(Math.max(
+        this.settingsManager.getSettings().getBackgroundCheckCpuShare(), 0), 1);
+    double availableShare = Math.min(cpuShare, 1 - this.otherProcessesLoad);
+    long maxCount = Math.round(availableShare * this.processorCount)
+        - this.runningInteractiveCheckCount;
+    return (int)Math.max(maxCount, 0);
+  }
+
+  public synchronized int getRunningBackgroundCheckCount() {
+    return this.runningBackgroundCheckCount;
+  }
+
+  public synchronized int getWaitingBackgroundCheckCount() {
+    return this.waitingChecks.size();
+  }
+
+  public Executor getCheckingExecutor() {
+    return this.checkingExecutor;
+  }
+
+  private void startWaitingChecks() {
+    List<CompletableFuture<Void>> startedFutures = new ArrayList<>();
+    List<CompletableFuture<Void>> cancelledFutures = new ArrayList<>();
+
+    synchronized (this) {
+      for (Iterator<WaitingCheck> iterator = this.waitingChecks.iterator();
+            iterator.hasNext();) {
+        WaitingCheck waitingCheck = iterator.next();
+
+        if (waitingCheck.isCanceled()) {
+          iterator.remove();
+          cancelledFutures.add(waitingCheck.getFuture());
+        }
+      }
+
+      int maxCount = getMaxBackgroundCheckCount();
+      Instant now = Instant.now();
+
+      while (!this.waitingChecks.isEmpty()) {
+        WaitingCheck waitingCheck = this.waitingChecks.getFirst();
+        boolean overdue = ((this.runningBackgroundCheckCount == 0)
+            && (Duration.between(waitingCheck.getStartInstant(), now)
+              .compareTo(maxWaitingDuration) > 0));
+        if ((this.runningBackgroundCheckCount >= maxCount) && !overdue) break;
+
+        this.waitingChecks.removeFirst();
+        this.runningBackgroundCheckCount++;
+        startedFutures.add(waitingCheck.getFuture());
+      }
+
+      if (!this.waitingChecks.isEmpty() && startedFutures.isEmpty()) {
+        Tools.logger.finer(Tools.i18n("postponingBackgroundChecks",
+            this.waitingChecks.size(), this.runningBackgroundCheckCount, maxCount));
+      }
+    }
+
+    // the futures are completed outside of the lock, as their dependent stages might run in
+    // this thread
+    for (CompletableFuture<Void> future : cancelledFutures) {
+      future.completeExceptionally(new CancellationException());
+    }
+
+    for (CompletableFuture<Void> future : startedFutures) future.complete(null);
+  }
+
+  private static class WaitingCheck {
+    private CancelChecker cancelChecker;
+    private CompletableFuture<Void> future;
+    private Instant startInstant;
+
+    public WaitingCheck(CancelChecker cancelChecker) {
+      this.cancelChecker = cancelChecker;
+      this.future = new CompletableFuture<>();
+      this.startInstant = Instant.now();
+    }
+
+    public boolean isCanceled() {
+      return this.cancelChecker.isCanceled();
+    }
+
+    public CompletableFuture<Void> getFuture() {
+      return this.future;
+    }
+
+    public Instant getStartInstant() {
+      return this.startInstant;
+    }
+  }
+}
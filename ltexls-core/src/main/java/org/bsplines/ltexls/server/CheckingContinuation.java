@@ -0,0 +1,170 @@
+/* Copyright (C) 2020 Julian Valentin, LTeX Development Community
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package org.bsplines.ltexls.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.bsplines.ltexls.languagetool.LanguageToolRuleMatch;
+import org.bsplines.ltexls.parsing.AnnotatedTextFragment;
+import org.bsplines.ltexls.settings.Settings;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.eclipse.xtext.xbase.lib.Pair;
+
+// state of a check of a document, which records the fragments that remain to be checked when
+// the time budget of the check has been exhausted, so that the check can be resumed later;
+// fragments of different languages may be checked concurrently
+public class CheckingContinuation {
+  private LtexTextDocumentSnapshot documentSnapshot;
+  private Settings settings;
+  private List<AnnotatedTextFragment> annotatedTextFragments;
+  private int rangeOffset;
+  private @Nullable Pair<List<List<LanguageToolRuleMatch>>, List<AnnotatedTextFragment>>
+      previousCheckingResult;
+  private Map<String, Integer> previousFragmentIndexMap;
+  // indices of the fragments in the order in which they are checked
+  private List<Integer> fragmentIndices;
+  private List<List<LanguageToolRuleMatch>> checkedFragmentMatches;
+  private List<AnnotatedTextFragment> checkedFragments;
+  private Map<Integer, List<LanguageToolRuleMatch>> fragmentMatchesMap;
+  // fragments that could not be checked (e.g., if LanguageTool failed); their lack of matches
+  // must not be reused by later checks
+  private Set<Integer> uncheckedFragmentIndices;
+
+  public CheckingContinuation(LtexTextDocumentSnapshot documentSnapshot, Settings settings,
+        List<AnnotatedTextFragment> annotatedTextFragments, List<Integer> fragmentIndices,
+        int rangeOffset,
+        @Nullable Pair<List<List<LanguageToolRuleMatch>>, List<AnnotatedTextFragment>>
+          previousCheckingResult) {
+    this.documentSnapshot = documentSnapshot;
+    this.settings = settings;
+    this.annotatedTextFragments = annotatedTextFragments;
+    this.fragmentIndices = fragmentIndices;
+    this.rangeOffset = rangeOffset;
+    this.previousCheckingResult = previousCheckingResult;
+    this.previousFragmentIndexMap = new HashMap<>();
+    this.checkedFragmentMatches = new ArrayList<>();
+    this.checkedFragments = new ArrayList<>();
+    this.fragmentMatchesMap = new HashMap<>();
+    this.uncheckedFragmentIndices = new HashSet<>();
+
+    if ((previousCheckingResult != null) && (rangeOffset == 0)) {
+      List<AnnotatedTextFragment> previousFragments = previousCheckingResult.getValue();
+
+      for (int i = previousFragments.size() - 1; i >= 0; i--) {
+        this.previousFragmentIndexMap.put(
+            previousFragments.get(i).getAnnotatedText().getPlainText(), i);
+      }
+    }
+  }
+
+  public synchronized boolean isDone() {
+    return (this.checkedFragments.size() >= this.fragmentIndices.size());
+  }
+
+  public synchronized int getRemainingFragmentCount() {
+    return this.fragmentIndices.size() - this.checkedFragments.size();
+  }
+
+  // indices of the fragments that have not been checked yet, in the order in which they are
+  // checked
+  public synchronized List<Integer> getRemainingFragmentIndices() {
+    List<Integer> remainingFragmentIndices = new ArrayList<>();
+
+    for (int fragmentIndex : this.fragmentIndices) {
+      if (!this.fragmentMatchesMap.containsKey(fragmentIndex)) {
+        remainingFragmentIndices.add(fragmentIndex);
+      }
+    }
+
+    return remainingFragmentIndices;
+  }
+
+  // matches is null if the fragment could not be checked
+  public synchronized void addFragmentMatches(int fragmentIndex,
+        @Nullable List<LanguageToolRuleMatch> matches) {
+    if (matches == null) {
+      this.uncheckedFragmentIndices.add(fragmentIndex);
+      matches = Collections.emptyList();
+    }
+
+    this.fragmentMatchesMap.put(fragmentIndex, matches);
+    this.checkedFragmentMatches.add(matches);
+    this.checkedFragments.add(this.annotatedTextFragments.get(fragmentIndex));
+  }
+
+  // matches of the fragments checked so far, in the order in which they have been checked
+  public synchronized Pair<List<List<LanguageToolRuleMatch>>, List<AnnotatedTextFragment>>
+        getPartialCheckingResult() {
+    return Pair.of(Collections.unmodifiableList(new ArrayList<>(this.checkedFragmentMatches)),
+        Collections.unmodifiableList(new ArrayList<>(this.checkedFragments)));
+  }
+
+  // matches of all fragments in document order; fragments that have not been checked yet don't
+  // have any matches
+  public synchronized Pair<List<List<LanguageToolRuleMatch>>, List<AnnotatedTextFragment>>
+        getCheckingResult() {
+    List<List<LanguageToolRuleMatch>> fragmentMatches = new ArrayList<>();
+
+    for (int i = 0; i < this.annotatedTextFragments.size(); i++) {
+      @Nullable List<LanguageToolRuleMatch> matches = this.fragmentMatchesMap.get(i);
+      fragmentMatches.add((matches != null) ? matches : Collections.emptyList());
+    }
+
+    return Pair.of(fragmentMatches, this.annotatedTextFragments);
+  }
+
+  // same as getCheckingResult, but only with the fragments that have actually been checked, so
+  // that the result can be used as previous checking result of later checks
+  public synchronized Pair<List<List<LanguageToolRuleMatch>>, List<AnnotatedTextFragment>>
+        getReusableCheckingResult() {
+    List<List<LanguageToolRuleMatch>> fragmentMatches = new ArrayList<>();
+    List<AnnotatedTextFragment> fragments = new ArrayList<>();
+
+    for (int i = 0; i < this.annotatedTextFragments.size(); i++) {
+      @Nullable List<LanguageToolRuleMatch> matches = this.fragmentMatchesMap.get(i);
+
+      if ((matches != null) && !this.uncheckedFragmentIndices.contains(i)) {
+        fragmentMatches.add(matches);
+        fragments.add(this.annotatedTextFragments.get(i));
+      }
+    }
+
+    return Pair.of(fragmentMatches, fragments);
+  }
+
+  // the matches are only valid for the version of the document in this snapshot
+  public LtexTextDocumentSnapshot getDocumentSnapshot() {
+    return this.documentSnapshot;
+  }
+
+  public Settings getSettings() {
+    return this.settings;
+  }
+
+  public List<AnnotatedTextFragment> getAnnotatedTextFragments() {
+    return Collections.unmodifiableList(this.annotatedTextFragments);
+  }
+
+  public int getRangeOffset() {
+    return this.rangeOffset;
+  }
+
+  public @Nullable Pair<List<List<LanguageToolRuleMatch>>, List<AnnotatedTextFragment>>
+        getPreviousCheckingResult() {
+    return this.previousCheckingResult;
+  }
+
+  public Map<String, Integer> getPreviousFragmentIndexMap() {
+    return Collections.unmodifiableMap(this.previousFragmentIndexMap);
+  }
+}
@@ -0,0 +1,77 @@
+/* Copyright (C) 2020 Julian Valentin, LTeX Development Community
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package org.bsplines.ltexls.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.bsplines.ltexls.languagetool.LanguageToolRuleMatch;
+import org.bsplines.ltexls.parsing.AnnotatedTextFragment;
+import org.bsplines.ltexls.parsing.CodeFragment;
+import org.bsplines.ltexls.tools.IntervalIndex;
+import org.eclipse.xtext.xbase.lib.Pair;
+
+public class CheckingResultIndex {
+  private Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>> checkingResult;
+  private IntervalIndex matchIndex;
+  private IntervalIndex fragmentIndex;
+
+  public CheckingResultIndex(
+        Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>> checkingResult) {
+    this.checkingResult = checkingResult;
+
+    List<LanguageToolRuleMatch> matches = checkingResult.getKey();
+    int[] matchFromPositions = new int[matches.size()];
+    int[] matchToPositions = new int[matches.size()];
+
+    for (int i = 0; i < matches.size(); i++) {
+      matchFromPositions[i] = matches.get(i).getFromPos();
+      matchToPositions[i] = matches.get(i).getToPos();
+    }
+
+    this.matchIndex = new IntervalIndex(matchFromPositions, matchToPositions);
+
+    List<AnnotatedTextFragment> annotatedTextFragments = checkingResult.getValue();
+    int[] fragmentFromPositions = new int[annotatedTextFragments.size()];
+    int[] fragmentToPositions = new int[annotatedTextFragments.size()];
+
+    for (int i = 0; i < annotatedTextFragments.size(); i++) {
+      CodeFragment codeFragment = annotatedTextFragments.get(i).getCodeFragment();
+      fragmentFromPositions[i] = codeFragment.getFromPos();
+      fragmentToPositions[i] = codeFragment.getFromPos() + codeFragment.getCode().length();
+    }
+
+    this.fragmentIndex = new IntervalIndex(fragmentFromPositions, fragmentToPositions);
+  }
+
+  public Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>> getCheckingResult() {
+    return this.checkingResult;
+  }
+
+  // returns the matches intersecting [fromPos, toPos] in the order of the checking result
+  public List<LanguageToolRuleMatch> findMatchesIntersectingWith(int fromPos, int toPos) {
+    List<LanguageToolRuleMatch> matches = this.checkingResult.getKey();
+    List<LanguageToolRuleMatch> result = new ArrayList<>();
+
+    for (int index : this.matchIndex.findIntersecting(fromPos, toPos)) {
+      result.add(matches.get(index));
+    }
+
+    return result;
+  }
+
+  // returns the index of the first fragment that contains the match or -1 if there is none
+  public int findAnnotatedTextFragmentWithMatch(LanguageToolRuleMatch match) {
+    List<AnnotatedTextFragment> annotatedTextFragments = this.checkingResult.getValue();
+
+    for (int index : this.fragmentIndex.findIntersecting(match.getFromPos(), match.getFromPos())) {
+      if (annotatedTextFragments.get(index).getCodeFragment().contains(match)) return index;
+    }
+
+    return -1;
+  }
+}
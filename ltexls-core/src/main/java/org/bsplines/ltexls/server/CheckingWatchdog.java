@@ -0,0 +1,196 @@
+/* Copyright (C) 2020 Julian Valentin, LTeX Development Community
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package org.bsplines.ltexls.server;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.bsplines.ltexls.tools.Tools;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
+
+// keeps track of the running checks of fragments and aborts those that run for too long (e.g.,
+// due to a LanguageTool rule that takes ages for some text), logging the stack trace of the
+// checking thread to explain what the check was stuck in
+public class CheckingWatchdog {
+  private static final Duration defaultMaxCheckingDuration = Duration.ofSeconds(60);
+  private static final long pollingIntervalMilliseconds = 1000;
+  private static final int maxStuckCheckCount = 10;
+  private static final ScheduledExecutorService scheduler =
+      Executors.newSingleThreadScheduledExecutor((Runnable runnable) -> {
+        Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  private Duration maxCheckingDuration;
+  private Set<WatchedCheck> watchedChecks;
+  // most recent checks that have been aborted, oldest first
+  private Deque<WatchedCheck> stuckChecks;
+  private @Nullable ScheduledFuture<?> pollingFuture;
+
+  public CheckingWatchdog() {
+    this(defaultMaxCheckingDuration);
+  }
+
+  public CheckingWatchdog(Duration maxCheckingDuration) {
+    this.maxCheckingDuration = maxCheckingDuration;
+    this.watchedChecks = ConcurrentHashMap.newKeySet();
+    this.stuckChecks = new ArrayDeque<>();
+    this.pollingFuture = null;
+  }
+
+  // starts watching the check of the code between fromPos and toPos of the document with the
+  // given URI in the current thread; the returned cancel checker has to be used for the check
+  // and has to be passed to unwatch afterwards
+  public WatchedCheck watch(String uri, int fromPos, int toPos, CancelChecker cancelChecker) {
+    WatchedCheck watchedCheck = new WatchedCheck(uri, fromPos, toPos, cancelChecker);
+    this.watchedChecks.add(watchedCheck);
+
+    synchronized (this) {
+      if (this.pollingFuture == null) {
+        this.pollingFuture = scheduler.scheduleAtFixedRate(this::poll,
+            pollingIntervalMilliseconds, pollingIntervalMilliseconds, TimeUnit.MILLISECONDS);
+      }
+    }
+
+    return watchedCheck;
+  }
+
+  public void unwatch(WatchedCheck watchedCheck) {
+    watchedCheck.end();
+    this.watchedChecks.remove(watchedCheck);
+  }
+
+  private void poll() {
+    Instant now = Instant.now();
+
+    for (WatchedCheck watchedCheck : this.watchedChecks) {
+      if (!watchedCheck.isAborted() && (Duration.between(watchedCheck.getStartInstant(), now)
+            .compareTo(this.maxCheckingDuration) > 0)) {
+        abort(watchedCheck);
+      }
+    }
+
+    synchronized (this) {
+      // the polling is restarted by the next call of watch
+      if (this.watchedChecks.isEmpty() && (this.pollingFuture != null)) {
+        this.pollingFuture.cancel(false);
+        this.pollingFuture = null;
+      }
+    }
+  }
+
+  private void abort(WatchedCheck watchedCheck) {
+    StringBuilder stackTrace = new StringBuilder();
+
+    for (StackTraceElement element : watchedCheck.getThread().getStackTrace()) {
+      stackTrace.append("\n    at ");
+      stackTrace.append(element.toString());
+    }
+
+    Tools.logger.warning(Tools.i18n("abortingStuckCheck", watchedCheck.getUri(),
+        watchedCheck.getFromPos(), watchedCheck.getToPos(),
+        this.maxCheckingDuration.getSeconds(), stackTrace.toString()));
+    watchedCheck.abort();
+
+    synchronized (this.stuckChecks) {
+      this.stuckChecks.addLast(watchedCheck);
+      if (this.stuckChecks.size() > maxStuckCheckCount) this.stuckChecks.removeFirst();
+    }
+  }
+
+  public List<WatchedCheck> getStuckChecks() {
+    synchronized (this.stuckChecks) {
+      return new ArrayList<>(this.stuckChecks);
+    }
+  }
+
+  public static class WatchedCheck implements CancelChecker {
+    private String uri;
+    private int fromPos;
+    private int toPos;
+    private CancelChecker cancelChecker;
+    private Thread thread;
+    private Instant startInstant;
+    private volatile @Nullable Instant endInstant;
+    private volatile @Nullable Instant abortInstant;
+
+    public WatchedCheck(String uri, int fromPos, int toPos, CancelChecker cancelChecker) {
+      this.uri = uri;
+      this.fromPos = fromPos;
+      this.toPos = toPos;
+      this.cancelChecker = cancelChecker;
+      this.thread = Thread.currentThread();
+      this.startInstant = Instant.now();
+      this.endInstant = null;
+      this.abortInstant = null;
+    }
+
+    private void abort() {
+      this.abortInstant = Instant.now();
+    }
+
+    private void end() {
+      this.endInstant = Instant.now();
+    }
+
+    @Override
+    public void checkCanceled() {
+      if (isCanceled()) throw new CancellationException();
+    }
+
+    @Override
+    public boolean isCanceled() {
+      return isAborted() || this.cancelChecker.isCanceled();
+    }
+
+    public String getUri() {
+      return this.uri;
+    }
+
+    public int getFromPos() {
+      return this.fromPos;
+    }
+
+    public int getToPos() {
+      return this.toPos;
+    }
+
+    public Thread getThread() {
+      return this.thread;
+    }
+
+    public Instant getStartInstant() {
+      return this.startInstant;
+    }
+
+    // null if the checking thread is still stuck in the check
+    public @Nullable Instant getEndInstant() {
+      return this.endInstant;
+    }
+
+    public boolean isAborted() {
+      return (this.abortInstant != null);
+    }
+
+    public @Nullable Instant getAbortInstant() {
+      return this.abortInstant;
+    }
+  }
+}
@@ -60,6 +60,11 @@ public class CodeActionGenerator {
   }
 
   public Diagnostic createDiagnostic(LanguageToolRuleMatch match, LtexTextDocumentItem document) {
+    return createDiagnostic(match, document.getSnapshot());
+  }
+
+  public Diagnostic createDiagnostic(LanguageToolRuleMatch match,
+        LtexTextDocumentSnapshot document) {
     Diagnostic ret = new Diagnostic();
     ret.setRange(new Range(document.convertPosition(match.getFromPos()),
         document.convertPosition(match.getToPos())));
@@ -70,15 +75,6 @@ public class CodeActionGenerator {
     return ret;
   }
 
-  private static int findAnnotatedTextFragmentWithMatch(
-        List<AnnotatedTextFragment> annotatedTextFragments, LanguageToolRuleMatch match) {
-    for (int i = 0; i < annotatedTextFragments.size(); i++) {
-      if (annotatedTextFragments.get(i).getCodeFragment().contains(match)) return i;
-    }
-
-    return -1;
-  }
-
   private static void addToMap(String key, String value,
         Map<String, List<String>> map, JsonObject jsonObject) {
     if (!map.containsKey(key)) {
@@ -109,7 +105,7 @@ public class CodeActionGenerator {
         Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>> checkingResult) {
     if (checkingResult.getValue() == null) return Collections.emptyList();
 
-    List<AnnotatedTextFragment> annotatedTextFragments = checkingResult.getValue();
+    CheckingResultIndex checkingResultIndex = document.getCheckingResultIndex(checkingResult);
     List<Either<Command, CodeAction>> result =
         new ArrayList<Either<Command, CodeAction>>();
 
@@ -118,33 +114,34 @@ public class CodeActionGenerator {
     List<LanguageToolRuleMatch> disableRuleMatches = new ArrayList<>();
     Map<String, List<LanguageToolRuleMatch>> useWordMatchesMap = new LinkedHashMap<>();
 
-    for (LanguageToolRuleMatch match : checkingResult.getKey()) {
-      if (match.isIntersectingWithRange(params.getRange(), document)) {
-        if (match.isUnknownWordRule()) addToDictionaryMatches.add(match);
-        if (match.getSentence() != null) hideFalsePositiveMatches.add(match);
-        disableRuleMatches.add(match);
+    Range range = params.getRange();
 
-        for (String newWord : match.getSuggestedReplacements()) {
-          useWordMatchesMap.putIfAbsent(newWord, new ArrayList<>());
-          useWordMatchesMap.get(newWord).add(match);
-        }
+    for (LanguageToolRuleMatch match : checkingResultIndex.findMatchesIntersectingWith(
+          document.convertPosition(range.getStart()), document.convertPosition(range.getEnd()))) {
+      if (match.isUnknownWordRule()) addToDictionaryMatches.add(match);
+      if (match.getSentence() != null) hideFalsePositiveMatches.add(match);
+      disableRuleMatches.add(match);
+
+      for (String newWord : match.getSuggestedReplacements()) {
+        useWordMatchesMap.putIfAbsent(newWord, new ArrayList<>());
+        useWordMatchesMap.get(newWord).add(match);
       }
     }
 
     if (!addToDictionaryMatches.isEmpty()
           && this.settingsManager.getSettings().getLanguageToolHttpServerUri().isEmpty()) {
       result.add(Either.forRight(getAddWordToDictionaryCodeAction(document,
-          addToDictionaryMatches, annotatedTextFragments)));
+          addToDictionaryMatches, checkingResultIndex)));
     }
 
     if (!hideFalsePositiveMatches.isEmpty()) {
       result.add(Either.forRight(getHideFalsePositiveCodeAction(document,
-          hideFalsePositiveMatches, annotatedTextFragments)));
+          hideFalsePositiveMatches, checkingResultIndex)));
     }
 
     if (!disableRuleMatches.isEmpty()) {
       result.add(Either.forRight(getDisableRuleCodeAction(document,
-          disableRuleMatches, annotatedTextFragments)));
+          disableRuleMatches, checkingResultIndex)));
     }
 
     for (Map.Entry<String, List<LanguageToolRuleMatch>> entry : useWordMatchesMap.entrySet()) {
@@ -157,14 +154,15 @@ public class CodeActionGenerator {
   private CodeAction getAddWordToDictionaryCodeAction(
         LtexTextDocumentItem document,
         List<LanguageToolRuleMatch> addToDictionaryMatches,
-        List<AnnotatedTextFragment> annotatedTextFragments) {
+        CheckingResultIndex checkingResultIndex) {
+    List<AnnotatedTextFragment> annotatedTextFragments =
+        checkingResultIndex.getCheckingResult().getValue();
     Map<String, List<String>> unknownWordsMap = new HashMap<>();
     JsonObject unknownWordsJsonObject = new JsonObject();
     List<Diagnostic> diagnostics = new ArrayList<>();
 
     for (LanguageToolRuleMatch match : addToDictionaryMatches) {
-      int fragmentIndex = findAnnotatedTextFragmentWithMatch(
-          annotatedTextFragments, match);
+      int fragmentIndex = checkingResultIndex.findAnnotatedTextFragmentWithMatch(match);
 
       if (fragmentIndex == -1) {
         Tools.logger.warning(Tools.i18n("couldNotFindFragmentForMatch"));
@@ -204,7 +202,9 @@ public class CodeActionGenerator {
   private CodeAction getHideFalsePositiveCodeAction(
         LtexTextDocumentItem document,
         List<LanguageToolRuleMatch> hideFalsePositiveMatches,
-        List<AnnotatedTextFragment> annotatedTextFragments) {
+        CheckingResultIndex checkingResultIndex) {
+    List<AnnotatedTextFragment> annotatedTextFragments =
+        checkingResultIndex.getCheckingResult().getValue();
     List<Pair<String, String>> ruleIdSentencePairs = new ArrayList<>();
     Map<String, List<String>> hiddenFalsePositivesMap = new HashMap<>();
     JsonObject falsePositivesJsonObject = new JsonObject();
@@ -218,8 +218,7 @@ public class CodeActionGenerator {
       Pair<String, String> pair = new Pair<>(ruleId, sentence);
 
       if (!ruleIdSentencePairs.contains(pair)) {
-        int fragmentIndex = findAnnotatedTextFragmentWithMatch(
-            annotatedTextFragments, match);
+        int fragmentIndex = checkingResultIndex.findAnnotatedTextFragmentWithMatch(match);
 
         if (fragmentIndex == -1) {
           Tools.logger.warning(Tools.i18n("couldNotFindFragmentForMatch"));
@@ -280,7 +279,9 @@ public class CodeActionGenerator {
   private CodeAction getDisableRuleCodeAction(
         LtexTextDocumentItem document,
         List<LanguageToolRuleMatch> disableRuleMatches,
-        List<AnnotatedTextFragment> annotatedTextFragments) {
+        CheckingResultIndex checkingResultIndex) {
+    List<AnnotatedTextFragment> annotatedTextFragments =
+        checkingResultIndex.getCheckingResult().getValue();
     Map<String, List<String>> ruleIdsMap = new HashMap<>();
     JsonObject ruleIdsJsonObject = new JsonObject();
     List<Diagnostic> diagnostics = new ArrayList<>();
@@ -289,8 +290,7 @@ public class CodeActionGenerator {
       @Nullable String ruleId = match.getRuleId();
 
       if (ruleId != null) {
-        int fragmentIndex = findAnnotatedTextFragmentWithMatch(
-            annotatedTextFragments, match);
+        int fragmentIndex = checkingResultIndex.findAnnotatedTextFragmentWithMatch(match);
 
         if (fragmentIndex == -1) {
           Tools.logger.warning(Tools.i18n("couldNotFindFragmentForMatch"));
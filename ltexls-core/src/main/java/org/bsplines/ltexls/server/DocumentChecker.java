@@ -7,40 +7,105 @@
 
 package org.bsplines.ltexls.server;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import org.apache.commons.text.StringEscapeUtils;
 import org.bsplines.ltexls.languagetool.LanguageToolInterface;
 import org.bsplines.ltexls.languagetool.LanguageToolRuleMatch;
 import org.bsplines.ltexls.parsing.AnnotatedTextFragment;
+import org.bsplines.ltexls.parsing.AnnotatedTextPositionIndex;
 import org.bsplines.ltexls.parsing.CodeAnnotatedTextBuilder;
 import org.bsplines.ltexls.parsing.CodeFragment;
 import org.bsplines.ltexls.parsing.CodeFragmentizer;
 import org.bsplines.ltexls.settings.HiddenFalsePositive;
+import org.bsplines.ltexls.settings.HiddenFalsePositiveIndex;
 import org.bsplines.ltexls.settings.Settings;
 import org.bsplines.ltexls.settings.SettingsManager;
+import org.bsplines.ltexls.tools.CancellationToken;
 import org.bsplines.ltexls.tools.Tools;
 import org.checkerframework.checker.nullness.qual.Nullable;
+import org.eclipse.lsp4j.Position;
 import org.eclipse.lsp4j.Range;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
 import org.eclipse.xtext.xbase.lib.Pair;
+import org.languagetool.JLanguageTool;
 import org.languagetool.markup.AnnotatedText;
 import org.languagetool.markup.TextPart;
 
 public class DocumentChecker {
+  private static final int maxFragmentResultCacheSize = 1024;
+  // fragments with at least twice as many characters of plain text are split into chunks, which
+  // are checked by additional LanguageTool instances at the same time
+  private static final int minChunkLength = 10000;
+  private static final int chunkCheckingThreadCount = Math.max(1,
+      Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+  // checks fragments of different languages in parallel
+  private static final Executor languageBatchExecutor = Executors.newCachedThreadPool(
+      (Runnable runnable) -> {
+        Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+        return thread;
+      });
+  private static final long lockPollingIntervalMilliseconds = 1000;
+  // time that a check which has been aborted by the watchdog gets to notice it before its
+  // LanguageTool instance is replaced
+  private static final Duration stuckCheckGracePeriod = Duration.ofSeconds(10);
+
   private SettingsManager settingsManager;
 
+  // matches of checked fragments with positions relative to the fragment, shared between all
+  // documents; the key consists of a digest of the parts of the annotated text, the language,
+  // whether picky rules are enabled, and the fingerprint of the other settings that LanguageTool
+  // depends on
+  private Map<List<String>, List<LanguageToolRuleMatch>> fragmentResultCache;
+  private volatile @Nullable Pair<Settings, String> lastRuleFingerprint;
+  private CheckingWatchdog checkingWatchdog;
+  // checks that hold the checking lock of LanguageTool interfaces
+  private Map<LanguageToolInterface, CheckingWatchdog.WatchedCheck> lockingChecks;
+
   public DocumentChecker(SettingsManager settingsManager) {
+    this(settingsManager, new CheckingWatchdog());
+  }
+
+  public DocumentChecker(SettingsManager settingsManager, CheckingWatchdog checkingWatchdog) {
     this.settingsManager = settingsManager;
+    this.fragmentResultCache = new ConcurrentHashMap<>();
+    this.lastRuleFingerprint = null;
+    this.checkingWatchdog = checkingWatchdog;
+    this.lockingChecks = new ConcurrentHashMap<>();
+  }
+
+  public CheckingWatchdog getCheckingWatchdog() {
+    return this.checkingWatchdog;
   }
 
   private List<CodeFragment> fragmentizeDocument(
-        LtexTextDocumentItem document, @Nullable Range range) {
-    CodeFragmentizer codeFragmentizer = CodeFragmentizer.create(document.getLanguageId());
+        LtexTextDocumentSnapshot document, @Nullable Range range, Settings settings) {
+    CodeFragmentizer codeFragmentizer = CodeFragmentizer.create(document.getCodeLanguageId());
     String code = document.getText();
 
     if (range != null) {
@@ -48,7 +113,7 @@ public class DocumentChecker {
           document.convertPosition(range.getEnd()));
     }
 
-    return codeFragmentizer.fragmentize(code, this.settingsManager.getSettings());
+    return codeFragmentizer.fragmentize(code, settings);
   }
 
   private List<AnnotatedTextFragment> buildAnnotatedTextFragments(
@@ -67,28 +132,276 @@ public class DocumentChecker {
     return annotatedTextFragments;
   }
 
-  private List<LanguageToolRuleMatch> checkAnnotatedTextFragments(
-        List<AnnotatedTextFragment> annotatedTextFragments, int rangeOffset) {
-    List<LanguageToolRuleMatch> matches = new ArrayList<>();
+  // replaces fragments with long plain texts by their chunks, followed by the whole fragment, for
+  // which only the text-level rules are checked (as they might need the context of other
+  // paragraphs); not possible with a LanguageTool HTTP server, which always runs all rules
+  private static List<AnnotatedTextFragment> splitLongAnnotatedTextFragments(
+        List<AnnotatedTextFragment> annotatedTextFragments) {
+    List<AnnotatedTextFragment> result = new ArrayList<>();
 
     for (AnnotatedTextFragment annotatedTextFragment : annotatedTextFragments) {
-      matches.addAll(checkAnnotatedTextFragment(annotatedTextFragment, rangeOffset));
+      int plainTextLength = annotatedTextFragment.getAnnotatedText().getPlainText().length();
+      List<AnnotatedTextFragment> chunks = ((annotatedTextFragment.getCodeFragment().getSettings()
+            .getLanguageToolHttpServerUri().isEmpty() && (plainTextLength >= 2 * minChunkLength))
+          ? annotatedTextFragment.splitIntoChunks(minChunkLength) : Collections.emptyList());
+
+      if (chunks.size() <= 1) {
+        result.add(annotatedTextFragment);
+      } else {
+        Tools.logger.fine(Tools.i18n("splittingFragmentIntoChunks",
+            plainTextLength, chunks.size()));
+        result.addAll(chunks);
+        result.add(annotatedTextFragment.withParagraphHandling(
+            JLanguageTool.ParagraphHandling.ONLYPARA));
+      }
     }
 
-    return matches;
+    return result;
+  }
+
+  // checks the remaining fragments of the continuation until all fragments have been checked or
+  // the deadline has passed; fragments of different languages are checked by different
+  // LanguageTool instances, so every language gets its own thread, in which the fragments keep
+  // the order of the continuation; chunks are distributed to additional threads and instances
+  private void checkRemainingAnnotatedTextFragments(CheckingContinuation continuation,
+        @Nullable Consumer<Pair<List<List<LanguageToolRuleMatch>>, List<AnnotatedTextFragment>>>
+          partialCheckingResultConsumer,
+        CancelChecker cancelChecker, @Nullable Instant deadline) {
+    List<AnnotatedTextFragment> annotatedTextFragments = continuation.getAnnotatedTextFragments();
+    // key is the language and the index of the LanguageTool interface
+    Map<List<Object>, List<Integer>> batchFragmentIndicesMap = new LinkedHashMap<>();
+    Set<String> languageShortCodes = new LinkedHashSet<>();
+    int chunkCount = 0;
+
+    for (int fragmentIndex : continuation.getRemainingFragmentIndices()) {
+      AnnotatedTextFragment annotatedTextFragment = annotatedTextFragments.get(fragmentIndex);
+      String languageShortCode = annotatedTextFragment.getCodeFragment().getSettings()
+          .getLanguageShortCode();
+      int languageToolInterfaceIndex = 0;
+
+      if (annotatedTextFragment.getParagraphHandling()
+            == JLanguageTool.ParagraphHandling.ONLYNONPARA) {
+        languageToolInterfaceIndex = 1 + (chunkCount % chunkCheckingThreadCount);
+        chunkCount++;
+      }
+
+      languageShortCodes.add(languageShortCode);
+      batchFragmentIndicesMap.computeIfAbsent(
+          Arrays.asList(languageShortCode, languageToolInterfaceIndex),
+          (List<Object> key) -> new ArrayList<>()).add(fragmentIndex);
+    }
+
+    if (batchFragmentIndicesMap.size() <= 1) {
+      for (Map.Entry<List<Object>, List<Integer>> entry : batchFragmentIndicesMap.entrySet()) {
+        checkAnnotatedTextFragmentBatch(continuation, entry.getValue(),
+            (int)entry.getKey().get(1), partialCheckingResultConsumer, cancelChecker, deadline);
+      }
+    } else {
+      Tools.logger.fine(Tools.i18n("checkingLanguagesInParallel",
+          String.join(", ", languageShortCodes)));
+      List<CompletableFuture<Void>> futures = new ArrayList<>();
+
+      for (Map.Entry<List<Object>, List<Integer>> entry : batchFragmentIndicesMap.entrySet()) {
+        futures.add(CompletableFuture.runAsync(() -> checkAnnotatedTextFragmentBatch(
+              continuation, entry.getValue(), (int)entry.getKey().get(1),
+              partialCheckingResultConsumer, cancelChecker, deadline),
+            languageBatchExecutor));
+      }
+
+      try {
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+      } catch (CompletionException e) {
+        @Nullable Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+        throw e;
+      }
+
+      // another thread might have cancelled the check after the last fragment of this thread
+      cancelChecker.checkCanceled();
+    }
+
+    if ((deadline != null) && !continuation.isDone()) {
+      Tools.logger.fine(Tools.i18n("checkTimeBudgetExhausted",
+          continuation.getRemainingFragmentCount()));
+    }
+  }
+
+  // at least one fragment is checked, so that every call makes progress
+  private void checkAnnotatedTextFragmentBatch(CheckingContinuation continuation,
+        List<Integer> fragmentIndices, int languageToolInterfaceIndex,
+        @Nullable Consumer<Pair<List<List<LanguageToolRuleMatch>>, List<AnnotatedTextFragment>>>
+          partialCheckingResultConsumer,
+        CancelChecker cancelChecker, @Nullable Instant deadline) {
+    List<AnnotatedTextFragment> annotatedTextFragments = continuation.getAnnotatedTextFragments();
+
+    for (int fragmentIndex : fragmentIndices) {
+      cancelChecker.checkCanceled();
+      @Nullable List<LanguageToolRuleMatch> matches = checkOrReuseAnnotatedTextFragment(
+          continuation.getDocumentSnapshot().getUri(),
+          annotatedTextFragments.get(fragmentIndex), continuation.getRangeOffset(),
+          continuation.getPreviousCheckingResult(), continuation.getPreviousFragmentIndexMap(),
+          languageToolInterfaceIndex, cancelChecker);
+
+      synchronized (continuation) {
+        continuation.addFragmentMatches(fragmentIndex, matches);
+
+        if ((partialCheckingResultConsumer != null) && !continuation.isDone()) {
+          partialCheckingResultConsumer.accept(continuation.getPartialCheckingResult());
+        }
+      }
+
+      if ((deadline != null) && Instant.now().isAfter(deadline)) break;
+    }
+  }
+
+  // fragments containing the caret come first (innermost first), followed by the other
+  // fragments in order of increasing distance to the caret, so that diagnostics near the caret
+  // are available early; without caret, the order of the document is kept
+  private static List<Integer> getFragmentIndicesSortedByDistanceToCaret(
+        LtexTextDocumentSnapshot document, List<AnnotatedTextFragment> annotatedTextFragments,
+        int rangeOffset) {
+    List<Integer> fragmentIndices = new ArrayList<>();
+    for (int i = 0; i < annotatedTextFragments.size(); i++) fragmentIndices.add(i);
+    @Nullable Position caretPosition = document.getCaretPosition();
+    if ((caretPosition == null) || (fragmentIndices.size() <= 1)) return fragmentIndices;
+
+    int caretPos = document.convertPosition(caretPosition) - rangeOffset;
+    int[] distances = new int[annotatedTextFragments.size()];
+    int[] lengths = new int[annotatedTextFragments.size()];
+
+    for (int i = 0; i < annotatedTextFragments.size(); i++) {
+      CodeFragment codeFragment = annotatedTextFragments.get(i).getCodeFragment();
+      int fromPos = codeFragment.getFromPos();
+      int toPos = fromPos + codeFragment.getCode().length();
+      distances[i] = ((caretPos < fromPos) ? (fromPos - caretPos)
+          : ((caretPos > toPos) ? (caretPos - toPos) : 0));
+      lengths[i] = ((distances[i] == 0) ? (toPos - fromPos) : 0);
+    }
+
+    fragmentIndices.sort((Integer index1, Integer index2) -> {
+      int result = Integer.compare(distances[index1], distances[index2]);
+      return ((result != 0) ? result : Integer.compare(lengths[index1], lengths[index2]));
+    });
+
+    return fragmentIndices;
   }
 
-  private List<LanguageToolRuleMatch> checkAnnotatedTextFragment(
-        AnnotatedTextFragment annotatedTextFragment, int rangeOffset) {
+  private @Nullable List<LanguageToolRuleMatch> checkOrReuseAnnotatedTextFragment(String uri,
+        AnnotatedTextFragment annotatedTextFragment, int rangeOffset,
+        @Nullable Pair<List<List<LanguageToolRuleMatch>>, List<AnnotatedTextFragment>>
+          previousCheckingResult,
+        Map<String, Integer> previousFragmentIndexMap, int languageToolInterfaceIndex,
+        CancelChecker cancelChecker) {
+    @Nullable Integer previousFragmentIndex = previousFragmentIndexMap.get(
+        annotatedTextFragment.getAnnotatedText().getPlainText());
+
+    if ((previousCheckingResult != null) && (previousFragmentIndex != null)) {
+      AnnotatedTextFragment previousFragment =
+          previousCheckingResult.getValue().get(previousFragmentIndex);
+
+      if ((annotatedTextFragment.getParagraphHandling()
+              == previousFragment.getParagraphHandling())
+            && isLanguageToolResultReusable(annotatedTextFragment.getCodeFragment().getSettings(),
+              previousFragment.getCodeFragment().getSettings())) {
+        Tools.logger.fine(Tools.i18n("reusingRuleMatchesOfUnchangedPlainText"));
+        return remapMatches(previousCheckingResult.getKey().get(previousFragmentIndex),
+            previousFragment, annotatedTextFragment);
+      }
+    }
+
+    return checkAnnotatedTextFragment(uri, annotatedTextFragment, rangeOffset, false,
+        languageToolInterfaceIndex, true, cancelChecker);
+  }
+
+  private static boolean isLanguageToolResultReusable(Settings settings, Settings oldSettings) {
+    return (settings.getLanguageShortCode().equals(oldSettings.getLanguageShortCode())
+        && settings.getEnabled().equals(oldSettings.getEnabled())
+        && settings.getEnablePickyRules().equals(oldSettings.getEnablePickyRules())
+        && settings.getDifferencesRelevantForLanguageTool(oldSettings).isEmpty());
+  }
+
+  // maps the matches of a fragment with the same plain text through the plain text to the
+  // positions in the code of the new fragment
+  private static List<LanguageToolRuleMatch> remapMatches(List<LanguageToolRuleMatch> matches,
+        AnnotatedTextFragment oldFragment, AnnotatedTextFragment newFragment) {
+    int oldFromPos = oldFragment.getCodeFragment().getFromPos();
+    int newFromPos = newFragment.getCodeFragment().getFromPos();
+    AnnotatedTextPositionIndex oldPositionIndex = oldFragment.getPositionIndex();
+    AnnotatedText newAnnotatedText = newFragment.getAnnotatedText();
+    List<LanguageToolRuleMatch> newMatches = new ArrayList<>();
+
+    for (LanguageToolRuleMatch match : matches) {
+      LanguageToolRuleMatch newMatch = new LanguageToolRuleMatch(match);
+      int plainTextFromPos = oldPositionIndex.getPlainTextPosition(
+          match.getFromPos() - oldFromPos);
+      int plainTextToPos = oldPositionIndex.getPlainTextPosition(match.getToPos() - oldFromPos);
+      newMatch.setFromPos(newAnnotatedText.getOriginalTextPositionFor(plainTextFromPos)
+          + newFromPos);
+      // map the last character instead of the end, otherwise the match would be extended by
+      // markup following it (same as LanguageTool does)
+      newMatch.setToPos(((plainTextToPos > plainTextFromPos)
+          ? (newAnnotatedText.getOriginalTextPositionFor(plainTextToPos - 1) + 1)
+          : newAnnotatedText.getOriginalTextPositionFor(plainTextToPos)) + newFromPos);
+      newMatches.add(newMatch);
+    }
+
+    return newMatches;
+  }
+
+  // waits for the checking lock of the interface while polling the cancel checker; if the check
+  // that holds the lock has been aborted by the watchdog, but is still running (e.g., stuck in a
+  // regular expression of a rule, which LanguageTool doesn't interrupt), the interface is
+  // replaced by a new one; returns the interface whose lock has been acquired, or null if the
+  // new interface could not be initialized
+  private @Nullable LanguageToolInterface lockLanguageToolInterface(
+        LanguageToolInterface languageToolInterface, Settings settings,
+        int languageToolInterfaceIndex, CancelChecker cancelChecker) {
+    while (true) {
+      try {
+        if (languageToolInterface.getCheckingLock().tryLock(
+              lockPollingIntervalMilliseconds, TimeUnit.MILLISECONDS)) {
+          return languageToolInterface;
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new CancellationException();
+      }
+
+      cancelChecker.checkCanceled();
+      CheckingWatchdog.@Nullable WatchedCheck lockingCheck =
+          this.lockingChecks.get(languageToolInterface);
+      @Nullable Instant abortInstant =
+          ((lockingCheck != null) ? lockingCheck.getAbortInstant() : null);
+
+      if ((lockingCheck != null) && (abortInstant != null)
+            && (Duration.between(abortInstant, Instant.now())
+              .compareTo(stuckCheckGracePeriod) > 0)) {
+        Tools.logger.warning(Tools.i18n("replacingStuckLanguageToolInstance",
+            settings.getLanguageShortCode(), lockingCheck.getUri()));
+        this.settingsManager.retireLanguageToolInterface(languageToolInterface);
+        @Nullable LanguageToolInterface newLanguageToolInterface =
+            this.settingsManager.getLanguageToolInterface(settings, languageToolInterfaceIndex);
+        if (newLanguageToolInterface == null) return null;
+        languageToolInterface = newLanguageToolInterface;
+      }
+    }
+  }
+
+  // returns null if the fragment could not be checked (e.g., if LanguageTool failed, the check
+  // has been aborted by the watchdog, or LanguageTool is busy with another check and
+  // waitForLanguageTool is false), as opposed to the fragment not having any matches
+  private @Nullable List<LanguageToolRuleMatch> checkAnnotatedTextFragment(String uri,
+        AnnotatedTextFragment annotatedTextFragment, int rangeOffset, boolean spellingOnly,
+        int languageToolInterfaceIndex, boolean waitForLanguageTool,
+        CancelChecker cancelChecker) {
     CodeFragment codeFragment = annotatedTextFragment.getCodeFragment();
     Settings settings = codeFragment.getSettings();
-    this.settingsManager.setSettings(settings);
     @Nullable LanguageToolInterface languageToolInterface =
-        this.settingsManager.getLanguageToolInterface();
+        this.settingsManager.getLanguageToolInterface(settings, languageToolInterfaceIndex);
 
     if (languageToolInterface == null) {
       Tools.logger.warning(Tools.i18n("skippingTextCheckAsLanguageToolHasNotBeenInitialized"));
-      return Collections.emptyList();
+      return null;
     } else if (!settings.getEnabled().contains(codeFragment.getCodeLanguageId())
           && !codeFragment.getCodeLanguageId().equals("plaintext")) {
       Tools.logger.fine(Tools.i18n("skippingTextCheckAsLtexHasBeenDisabled",
@@ -133,14 +446,59 @@ public class DocumentChecker {
           settings.getLanguageShortCode(), StringEscapeUtils.escapeJava(logText), postfix));
     }
 
-    Instant beforeCheckingInstant = Instant.now();
+    @Nullable List<String> cacheKey = getFragmentResultCacheKey(
+        annotatedTextFragment, spellingOnly);
+    @Nullable List<LanguageToolRuleMatch> cachedMatches =
+        ((cacheKey != null) ? this.fragmentResultCache.get(cacheKey) : null);
     List<LanguageToolRuleMatch> matches = Collections.emptyList();
 
+    if (cachedMatches != null) {
+      Tools.logger.fine(Tools.i18n("reusingCachedRuleMatchesOfFragment"));
+      matches = shiftMatches(cachedMatches, codeFragment.getFromPos() + rangeOffset);
+      return matches;
+    }
+
+    Instant beforeCheckingInstant = Instant.now();
+    ReentrantLock checkingLock = languageToolInterface.getCheckingLock();
+
+    if (waitForLanguageTool) {
+      @Nullable LanguageToolInterface lockedLanguageToolInterface = lockLanguageToolInterface(
+          languageToolInterface, settings, languageToolInterfaceIndex, cancelChecker);
+
+      if (lockedLanguageToolInterface == null) {
+        Tools.logger.warning(Tools.i18n("skippingTextCheckAsLanguageToolHasNotBeenInitialized"));
+        return null;
+      }
+
+      languageToolInterface = lockedLanguageToolInterface;
+      checkingLock = languageToolInterface.getCheckingLock();
+    } else if (!checkingLock.tryLock()) {
+      Tools.logger.fine(Tools.i18n("skippingTextCheckAsLanguageToolIsBusy"));
+      return null;
+    }
+
+    // waiting for the lock doesn't count towards the checking duration
+    int fromPos = codeFragment.getFromPos() + rangeOffset;
+    CheckingWatchdog.WatchedCheck watchedCheck = this.checkingWatchdog.watch(
+        uri, fromPos, fromPos + codeFragment.getCode().length(), cancelChecker);
+    this.lockingChecks.put(languageToolInterface, watchedCheck);
+
     try {
-      matches = languageToolInterface.check(annotatedTextFragment);
+      matches = (spellingOnly
+          ? languageToolInterface.checkSpelling(annotatedTextFragment, watchedCheck)
+          : languageToolInterface.check(annotatedTextFragment, watchedCheck));
+    } catch (CancellationException e) {
+      // matches of cancelled checks are incomplete and must not be cached; fragments whose check
+      // has been aborted by the watchdog are skipped, so that the rest of the document is checked
+      if (!watchedCheck.isAborted() || cancelChecker.isCanceled()) throw e;
+      return null;
     } catch (RuntimeException e) {
       Tools.logger.severe(Tools.i18n("languageToolFailed", e));
-      return matches;
+      return null;
+    } finally {
+      this.checkingWatchdog.unwatch(watchedCheck);
+      this.lockingChecks.remove(languageToolInterface, watchedCheck);
+      checkingLock.unlock();
     }
 
     if (Tools.logger.isLoggable(Level.FINER)) {
@@ -150,7 +508,16 @@ public class DocumentChecker {
 
     Tools.logger.fine((matches.size() == 1) ? Tools.i18n("obtainedRuleMatch") :
         Tools.i18n("obtainedRuleMatches", matches.size()));
-    removeIgnoredMatches(matches);
+
+    if (cacheKey != null) {
+      // settings rarely change, so simply start over instead of tracking usage
+      if (this.fragmentResultCache.size() >= maxFragmentResultCacheSize) {
+        this.fragmentResultCache.clear();
+      }
+
+      this.fragmentResultCache.put(cacheKey,
+          Collections.unmodifiableList(shiftMatches(matches, 0)));
+    }
 
     for (LanguageToolRuleMatch match : matches) {
       match.setFromPos(match.getFromPos() + annotatedTextFragment.getCodeFragment().getFromPos()
@@ -162,11 +529,111 @@ public class DocumentChecker {
     return matches;
   }
 
-  private void removeIgnoredMatches(List<LanguageToolRuleMatch> matches) {
-    Settings settings = this.settingsManager.getSettings();
-    Set<HiddenFalsePositive> hiddenFalsePositives = settings.getHiddenFalsePositives();
+  private static List<LanguageToolRuleMatch> shiftMatches(
+        List<LanguageToolRuleMatch> matches, int offset) {
+    List<LanguageToolRuleMatch> shiftedMatches = new ArrayList<>();
+
+    for (LanguageToolRuleMatch match : matches) {
+      LanguageToolRuleMatch shiftedMatch = new LanguageToolRuleMatch(match);
+      shiftedMatch.setFromPos(match.getFromPos() + offset);
+      shiftedMatch.setToPos(match.getToPos() + offset);
+      shiftedMatches.add(shiftedMatch);
+    }
+
+    return shiftedMatches;
+  }
+
+  private @Nullable List<String> getFragmentResultCacheKey(
+        AnnotatedTextFragment annotatedTextFragment, boolean spellingOnly) {
+    @Nullable MessageDigest messageDigest = createMessageDigest();
+    if (messageDigest == null) return null;
+    AnnotatedText annotatedText = annotatedTextFragment.getAnnotatedText();
+    Settings settings = annotatedTextFragment.getCodeFragment().getSettings();
+
+    for (TextPart textPart : annotatedText.getParts()) {
+      updateMessageDigest(messageDigest, textPart.getType().toString());
+      updateMessageDigest(messageDigest, textPart.getPart());
+    }
+
+    return Arrays.asList(Base64.getEncoder().encodeToString(messageDigest.digest()),
+        settings.getLanguageShortCode(), settings.getEnablePickyRules().toString(),
+        getRuleFingerprint(settings), Boolean.toString(spellingOnly),
+        annotatedTextFragment.getParagraphHandling().toString());
+  }
+
+  private String getRuleFingerprint(Settings settings) {
+    // fragments of a document usually share the same settings object, and sorting large
+    // dictionaries for every fragment would be wasteful
+    @Nullable Pair<Settings, String> lastRuleFingerprint = this.lastRuleFingerprint;
+
+    if ((lastRuleFingerprint != null) && (lastRuleFingerprint.getKey() == settings)) {
+      return lastRuleFingerprint.getValue();
+    }
+
+    @Nullable MessageDigest messageDigest = createMessageDigest();
+    if (messageDigest == null) return "";
+
+    for (Collection<String> strings : Arrays.asList(settings.getDictionary(),
+          settings.getDisabledRules(), settings.getEnabledRules(),
+          Arrays.asList(settings.getMotherTongueShortCode(),
+            settings.getLanguageModelRulesDirectory(),
+            settings.getNeuralNetworkModelRulesDirectory(),
+            settings.getWord2VecModelRulesDirectory(),
+            settings.getLanguageToolHttpServerUri()))) {
+      Collection<String> sortedStrings = ((strings instanceof List) ? strings
+          : new TreeSet<>(strings));
+      updateMessageDigest(messageDigest, Integer.toString(sortedStrings.size()));
+      for (String string : sortedStrings) updateMessageDigest(messageDigest, string);
+    }
+
+    String ruleFingerprint = Base64.getEncoder().encodeToString(messageDigest.digest());
+    this.lastRuleFingerprint = new Pair<>(settings, ruleFingerprint);
+    return ruleFingerprint;
+  }
+
+  private static @Nullable MessageDigest createMessageDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // every Java platform has to support SHA-256, so this only disables the cache
+      return null;
+    }
+  }
+
+  private static void updateMessageDigest(MessageDigest messageDigest, String string) {
+    // prefix the length so that different sequences of strings cannot yield the same input
+    messageDigest.update(Integer.toString(string.length()).getBytes(StandardCharsets.UTF_8));
+    messageDigest.update((byte)':');
+    messageDigest.update(string.getBytes(StandardCharsets.UTF_8));
+  }
+
+  // returns the matches of all fragments that are not hidden false positives; if settings is not
+  // null, its hidden false positives are used instead of those of the fragments
+  public List<LanguageToolRuleMatch> removeHiddenFalsePositives(
+        List<List<LanguageToolRuleMatch>> fragmentMatches,
+        List<AnnotatedTextFragment> annotatedTextFragments, @Nullable Settings settings) {
+    List<LanguageToolRuleMatch> matches = new ArrayList<>();
+
+    for (int i = 0; i < fragmentMatches.size(); i++) {
+      List<LanguageToolRuleMatch> curMatches = new ArrayList<>(fragmentMatches.get(i));
+      Settings fragmentSettings = annotatedTextFragments.get(i).getCodeFragment().getSettings();
+
+      if (settings != null) {
+        fragmentSettings = settings.withLanguageShortCode(
+            fragmentSettings.getLanguageShortCode());
+      }
+
+      removeHiddenFalsePositives(curMatches, fragmentSettings.getHiddenFalsePositives());
+      matches.addAll(curMatches);
+    }
+
+    return matches;
+  }
 
+  private static void removeHiddenFalsePositives(List<LanguageToolRuleMatch> matches,
+        Set<HiddenFalsePositive> hiddenFalsePositives) {
     if (!matches.isEmpty() && !hiddenFalsePositives.isEmpty()) {
+      HiddenFalsePositiveIndex index = HiddenFalsePositiveIndex.get(hiddenFalsePositives);
       List<LanguageToolRuleMatch> ignoreMatches = new ArrayList<>();
 
       for (LanguageToolRuleMatch match : matches) {
@@ -175,13 +642,9 @@ public class DocumentChecker {
         if ((ruleId == null) || (sentence == null)) continue;
         sentence = sentence.trim();
 
-        for (HiddenFalsePositive pair : hiddenFalsePositives) {
-          if (pair.getRuleId().equals(ruleId)
-                && pair.getSentencePattern().matcher(sentence).find()) {
-            Tools.logger.fine(Tools.i18n("hidingFalsePositive", ruleId, sentence));
-            ignoreMatches.add(match);
-            break;
-          }
+        if (index.isHiddenFalsePositive(ruleId, sentence)) {
+          Tools.logger.fine(Tools.i18n("hidingFalsePositive", ruleId, sentence));
+          ignoreMatches.add(match);
         }
       }
 
@@ -194,6 +657,59 @@ public class DocumentChecker {
     }
   }
 
+  // only runs the spelling rules of LanguageTool, which is fast enough to be done on every
+  // keystroke; returns the unknown words that are not hidden false positives
+  public Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>> checkSpelling(
+        LtexTextDocumentItem document, @Nullable Range range) {
+    return checkSpelling(document.getSnapshot(), this.settingsManager.getSettings(), range,
+        new CancellationToken());
+  }
+
+  public Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>> checkSpelling(
+        LtexTextDocumentSnapshot document, Settings settings, @Nullable Range range,
+        CancelChecker cancelChecker) {
+    @Nullable Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>> checkingResult =
+        checkSpelling(document, settings, range, true, cancelChecker);
+    // only null if the check doesn't wait for LanguageTool
+    return ((checkingResult != null) ? checkingResult
+        : Pair.of(Collections.emptyList(), Collections.emptyList()));
+  }
+
+  // same as checkSpelling, but doesn't wait if LanguageTool is busy with another check (which
+  // might take much longer than the spelling check); returns null if a fragment could not be
+  // checked, as the unknown words of the range would be incomplete
+  public @Nullable Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>>
+        checkSpellingIfIdle(LtexTextDocumentSnapshot document, Settings settings,
+          @Nullable Range range, CancelChecker cancelChecker) {
+    return checkSpelling(document, settings, range, false, cancelChecker);
+  }
+
+  private @Nullable Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>>
+        checkSpelling(LtexTextDocumentSnapshot document, Settings settings,
+          @Nullable Range range, boolean waitForLanguageTool, CancelChecker cancelChecker) {
+    int rangeOffset = ((range == null) ? 0 : document.convertPosition(range.getStart()));
+    List<CodeFragment> codeFragments = fragmentizeDocument(document, range, settings);
+    List<AnnotatedTextFragment> annotatedTextFragments =
+        buildAnnotatedTextFragments(codeFragments);
+    List<List<LanguageToolRuleMatch>> fragmentMatches = new ArrayList<>();
+
+    for (AnnotatedTextFragment annotatedTextFragment : annotatedTextFragments) {
+      cancelChecker.checkCanceled();
+      @Nullable List<LanguageToolRuleMatch> checkedMatches = checkAnnotatedTextFragment(
+          document.getUri(), annotatedTextFragment, rangeOffset, true, 0,
+          waitForLanguageTool, cancelChecker);
+      if ((checkedMatches == null) && !waitForLanguageTool) return null;
+      List<LanguageToolRuleMatch> matches = ((checkedMatches != null)
+          ? new ArrayList<>(checkedMatches) : new ArrayList<>());
+
+      matches.removeIf((LanguageToolRuleMatch match) -> !match.isUnknownWordRule());
+      fragmentMatches.add(matches);
+    }
+
+    return new Pair<>(removeHiddenFalsePositives(
+        fragmentMatches, annotatedTextFragments, null), annotatedTextFragments);
+  }
+
   public Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>> check(
         LtexTextDocumentItem document) {
     return check(document, null);
@@ -201,18 +717,99 @@ public class DocumentChecker {
 
   public Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>> check(
         LtexTextDocumentItem document, @Nullable Range range) {
-    Settings originalSettings = this.settingsManager.getSettings();
+    Pair<List<List<LanguageToolRuleMatch>>, List<AnnotatedTextFragment>> checkingResult =
+        checkWithHiddenFalsePositives(document, range);
+    List<AnnotatedTextFragment> annotatedTextFragments = checkingResult.getValue();
+    return new Pair<>(removeHiddenFalsePositives(
+        checkingResult.getKey(), annotatedTextFragments, null), annotatedTextFragments);
+  }
+
+  public Pair<List<List<LanguageToolRuleMatch>>, List<AnnotatedTextFragment>>
+        checkWithHiddenFalsePositives(LtexTextDocumentItem document, @Nullable Range range) {
+    return checkWithHiddenFalsePositives(document, range, null);
+  }
+
+  public Pair<List<List<LanguageToolRuleMatch>>, List<AnnotatedTextFragment>>
+        checkWithHiddenFalsePositives(LtexTextDocumentItem document, @Nullable Range range,
+          @Nullable Pair<List<List<LanguageToolRuleMatch>>, List<AnnotatedTextFragment>>
+            previousCheckingResult) {
+    return checkWithHiddenFalsePositives(document, range, previousCheckingResult, null);
+  }
+
+  public Pair<List<List<LanguageToolRuleMatch>>, List<AnnotatedTextFragment>>
+        checkWithHiddenFalsePositives(LtexTextDocumentItem document, @Nullable Range range,
+          @Nullable Pair<List<List<LanguageToolRuleMatch>>, List<AnnotatedTextFragment>>
+            previousCheckingResult,
+          @Nullable Consumer<Pair<List<List<LanguageToolRuleMatch>>, List<AnnotatedTextFragment>>>
+            partialCheckingResultConsumer) {
+    return checkWithHiddenFalsePositives(document, range, previousCheckingResult,
+        partialCheckingResultConsumer, new CancellationToken());
+  }
+
+  // returns the matches per fragment, including hidden false positives; LanguageTool is skipped
+  // for fragments whose plain text and settings equal those of a fragment of
+  // previousCheckingResult (previous result of checkWithHiddenFalsePositives for the whole
+  // document); fragments near the caret are checked first, and after every fragment except the
+  // last, partialCheckingResultConsumer receives the matches of the fragments checked so far;
+  // if cancelChecker reports that the check has been cancelled, a CancellationException is thrown
+  public Pair<List<List<LanguageToolRuleMatch>>, List<AnnotatedTextFragment>>
+        checkWithHiddenFalsePositives(LtexTextDocumentItem document, @Nullable Range range,
+          @Nullable Pair<List<List<LanguageToolRuleMatch>>, List<AnnotatedTextFragment>>
+            previousCheckingResult,
+          @Nullable Consumer<Pair<List<List<LanguageToolRuleMatch>>, List<AnnotatedTextFragment>>>
+            partialCheckingResultConsumer,
+          CancelChecker cancelChecker) {
+    return checkWithTimeBudget(document.getSnapshot(), this.settingsManager.getSettings(),
+        range, previousCheckingResult, partialCheckingResultConsumer, cancelChecker, null)
+        .getCheckingResult();
+  }
+
+  // same as checkWithHiddenFalsePositives, but stops after the first fragment that exceeds
+  // timeBudget (if not null); the remaining fragments can then be checked with resumeCheck
+  public CheckingContinuation checkWithTimeBudget(LtexTextDocumentSnapshot document,
+        Settings settings, @Nullable Range range,
+        @Nullable Pair<List<List<LanguageToolRuleMatch>>, List<AnnotatedTextFragment>>
+          previousCheckingResult,
+        @Nullable Consumer<Pair<List<List<LanguageToolRuleMatch>>, List<AnnotatedTextFragment>>>
+          partialCheckingResultConsumer,
+        CancelChecker cancelChecker, @Nullable Duration timeBudget) {
+    return checkWithTimeBudget(prepareCheck(document, settings, range, previousCheckingResult),
+        partialCheckingResultConsumer, cancelChecker, timeBudget);
+  }
+
+  // first stage of a check, which doesn't need LanguageTool: fragmentizes the document, builds
+  // the annotated texts, and determines the order in which the fragments are checked
+  public CheckingContinuation prepareCheck(LtexTextDocumentSnapshot document,
+        Settings settings, @Nullable Range range,
+        @Nullable Pair<List<List<LanguageToolRuleMatch>>, List<AnnotatedTextFragment>>
+          previousCheckingResult) {
     int rangeOffset = ((range == null) ? 0 : document.convertPosition(range.getStart()));
+    List<CodeFragment> codeFragments = fragmentizeDocument(document, range, settings);
+    List<AnnotatedTextFragment> annotatedTextFragments = splitLongAnnotatedTextFragments(
+        buildAnnotatedTextFragments(codeFragments));
+    return new CheckingContinuation(document, settings, annotatedTextFragments,
+        getFragmentIndicesSortedByDistanceToCaret(document, annotatedTextFragments, rangeOffset),
+        rangeOffset, previousCheckingResult);
+  }
 
-    try {
-      List<CodeFragment> codeFragments = fragmentizeDocument(document, range);
-      List<AnnotatedTextFragment> annotatedTextFragments =
-          buildAnnotatedTextFragments(codeFragments);
-      List<LanguageToolRuleMatch> matches =
-          checkAnnotatedTextFragments(annotatedTextFragments, rangeOffset);
-      return new Pair<>(matches, annotatedTextFragments);
-    } finally {
-      this.settingsManager.setSettings(originalSettings);
-    }
+  // second stage of a check: checks the fragments of a prepared check with LanguageTool until
+  // timeBudget (if not null) is exhausted
+  public CheckingContinuation checkWithTimeBudget(CheckingContinuation continuation,
+        @Nullable Consumer<Pair<List<List<LanguageToolRuleMatch>>, List<AnnotatedTextFragment>>>
+          partialCheckingResultConsumer,
+        CancelChecker cancelChecker, @Nullable Duration timeBudget) {
+    @Nullable Instant deadline = ((timeBudget != null) ? Instant.now().plus(timeBudget) : null);
+    checkRemainingAnnotatedTextFragments(continuation, partialCheckingResultConsumer,
+        cancelChecker, deadline);
+    return continuation;
+  }
+
+  public CheckingContinuation resumeCheck(CheckingContinuation continuation,
+        @Nullable Consumer<Pair<List<List<LanguageToolRuleMatch>>, List<AnnotatedTextFragment>>>
+          partialCheckingResultConsumer,
+        CancelChecker cancelChecker, @Nullable Duration timeBudget) {
+    Tools.logger.fine(Tools.i18n("resumingCheck", continuation.getRemainingFragmentCount()));
+    return checkWithTimeBudget(continuation, partialCheckingResultConsumer, cancelChecker,
+        timeBudget);
   }
 }
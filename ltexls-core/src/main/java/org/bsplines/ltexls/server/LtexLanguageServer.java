@@ -12,9 +12,12 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import org.bsplines.ltexls.client.LtexLanguageClient;
 import org.bsplines.ltexls.settings.SettingsManager;
+import org.bsplines.ltexls.tools.CancellationToken;
 import org.bsplines.ltexls.tools.Tools;
 import org.checkerframework.checker.initialization.qual.NotOnlyInitialized;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
@@ -27,6 +30,8 @@ import org.eclipse.lsp4j.InitializeResult;
 import org.eclipse.lsp4j.ServerCapabilities;
 import org.eclipse.lsp4j.TextDocumentSyncKind;
 import org.eclipse.lsp4j.WindowClientCapabilities;
+import org.eclipse.lsp4j.WorkDoneProgressCancelParams;
+import org.eclipse.lsp4j.jsonrpc.messages.Either;
 import org.eclipse.lsp4j.services.LanguageClient;
 import org.eclipse.lsp4j.services.LanguageClientAware;
 import org.eclipse.lsp4j.services.LanguageServer;
@@ -38,21 +43,27 @@ public class LtexLanguageServer implements LanguageServer, LanguageClientAware {
   private SettingsManager settingsManager;
   private DocumentChecker documentChecker;
   private CodeActionGenerator codeActionGenerator;
+  private BackgroundCheckGovernor backgroundCheckGovernor;
   private @NotOnlyInitialized LtexTextDocumentService ltexTextDocumentService;
   private @NotOnlyInitialized LtexWorkspaceService ltexWorkspaceService;
   private boolean clientSupportsWorkDoneProgress;
   private boolean clientSupportsWorkspaceSpecificConfiguration;
   private Instant startupInstant;
+  // checks that can be cancelled by the client via their work done progress, keyed by the
+  // progress token
+  private Map<String, CancellationToken> progressCancellationTokenMap;
 
   public LtexLanguageServer() {
     this.settingsManager = new SettingsManager();
     this.documentChecker = new DocumentChecker(this.settingsManager);
     this.codeActionGenerator = new CodeActionGenerator(this.settingsManager);
+    this.backgroundCheckGovernor = new BackgroundCheckGovernor(this.settingsManager);
     this.ltexTextDocumentService = new LtexTextDocumentService(this);
     this.ltexWorkspaceService = new LtexWorkspaceService(this);
     this.clientSupportsWorkDoneProgress = false;
     this.clientSupportsWorkspaceSpecificConfiguration = false;
     this.startupInstant = Instant.now();
+    this.progressCancellationTokenMap = new ConcurrentHashMap<>();
   }
 
   @Override
@@ -123,6 +134,26 @@ public class LtexLanguageServer implements LanguageServer, LanguageClientAware {
     System.exit(0);
   }
 
+  @Override
+  public void cancelProgress(WorkDoneProgressCancelParams params) {
+    @Nullable CancellationToken cancellationToken = this.progressCancellationTokenMap.remove(
+        getProgressTokenKey(params.getToken()));
+    if (cancellationToken != null) cancellationToken.cancel();
+  }
+
+  public void registerProgressCancellationToken(Either<String, Number> progressToken,
+        CancellationToken cancellationToken) {
+    this.progressCancellationTokenMap.put(getProgressTokenKey(progressToken), cancellationToken);
+  }
+
+  public void unregisterProgressCancellationToken(Either<String, Number> progressToken) {
+    this.progressCancellationTokenMap.remove(getProgressTokenKey(progressToken));
+  }
+
+  private static String getProgressTokenKey(Either<String, Number> progressToken) {
+    return (progressToken.isLeft() ? progressToken.getLeft() : progressToken.getRight().toString());
+  }
+
   @Override
   public void connect(LanguageClient languageClient) {
     this.languageClient = (LtexLanguageClient)languageClient;
@@ -154,6 +185,10 @@ public class LtexLanguageServer implements LanguageServer, LanguageClientAware {
     return this.codeActionGenerator;
   }
 
+  public BackgroundCheckGovernor getBackgroundCheckGovernor() {
+    return this.backgroundCheckGovernor;
+  }
+
   public LtexTextDocumentService getLtexTextDocumentService() {
     return this.ltexTextDocumentService;
   }
@@ -9,14 +9,30 @@ package org.bsplines.ltexls.server;
 
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.bsplines.ltexls.client.LtexLanguageClient;
 import org.bsplines.ltexls.languagetool.LanguageToolRuleMatch;
 import org.bsplines.ltexls.parsing.AnnotatedTextFragment;
+import org.bsplines.ltexls.parsing.CodeFragment;
+import org.bsplines.ltexls.settings.Settings;
+import org.bsplines.ltexls.settings.SettingsChangeImpact;
+import org.bsplines.ltexls.settings.SettingsManager;
+import org.bsplines.ltexls.tools.CancellationToken;
+import org.bsplines.ltexls.tools.IntervalIndex;
 import org.bsplines.ltexls.tools.Tools;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.eclipse.lsp4j.ConfigurationItem;
@@ -31,27 +47,89 @@ import org.eclipse.lsp4j.TextDocumentItem;
 import org.eclipse.lsp4j.WorkDoneProgressBegin;
 import org.eclipse.lsp4j.WorkDoneProgressCreateParams;
 import org.eclipse.lsp4j.WorkDoneProgressEnd;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
 import org.eclipse.lsp4j.jsonrpc.messages.Either;
 import org.eclipse.xtext.xbase.lib.Pair;
 
 public class LtexTextDocumentItem extends TextDocumentItem {
+  private static final int maxSpellingCheckLength = 10000;
+  private static final Duration checkTimeBudget = Duration.ofSeconds(5);
+  private static final int maxPreparedCheckCount = 4;
+  // checks are prepared (fragmentized and parsed) in a separate stage, so that the next check is
+  // prepared while LanguageTool checks the current one
+  private static final Executor preparationExecutor = Executors.newSingleThreadExecutor(
+      (Runnable runnable) -> {
+        Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+        return thread;
+      });
+  private static final PreparedCheckPermits preparedCheckPermits =
+      new PreparedCheckPermits(maxPreparedCheckCount);
+  // continuations of checks that exhausted their time budget run with low priority, one at a time
+  private static final Executor continuationExecutor = Executors.newSingleThreadExecutor(
+      (Runnable runnable) -> {
+        Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+      });
+  // spelling checks of CheckFrequency.TIERED, which must not block the thread that receives
+  // the changes of the document
+  private static final Executor spellingExecutor = Executors.newSingleThreadExecutor(
+      (Runnable runnable) -> {
+        Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+        return thread;
+      });
+
   private LtexLanguageServer languageServer;
-  private List<Integer> lineStartPosList;
-  private @Nullable Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>> checkingResult;
-  private @Nullable List<Diagnostic> diagnostics;
-  private @Nullable Position caretPosition;
-  private Instant lastCaretChangeInstant;
+  // replaced as a whole on every change, so that checks can work on a consistent state of the
+  // document while the client keeps editing it; the snapshot and the state derived from it are
+  // only changed while holding the lock of this item, so that a check that finishes during a
+  // change can't store its result for the old text (fields that are also read without the lock
+  // are volatile)
+  private volatile LtexTextDocumentSnapshot snapshot;
+  private volatile @Nullable Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>>
+      checkingResult;
+  private @Nullable List<List<LanguageToolRuleMatch>> fragmentMatchesWithHiddenFalsePositives;
+  private @Nullable Settings checkingSettings;
+  // result of the last check of the whole document, kept across edits so that LanguageTool can
+  // be skipped for fragments whose plain text didn't change
+  private volatile @Nullable Pair<List<List<LanguageToolRuleMatch>>, List<AnnotatedTextFragment>>
+      previousFullCheckingResult;
+  private volatile @Nullable CheckingResultIndex checkingResultIndex;
+  // checks that have not finished yet, keyed by document version and range
+  private Map<List<@Nullable Object>, PendingCheck> pendingCheckMap;
+  // all checks that have not finished yet, including those that have been replaced in
+  // pendingCheckMap by a check without cache
+  private Set<PendingCheck> pendingChecks;
+  private volatile @Nullable List<Diagnostic> diagnostics;
+  // diagnostics together with the index built for them; both are replaced in one step, as they
+  // are used by the checking threads and by the delayed diagnostics publisher at the same time
+  private volatile @Nullable Pair<List<Diagnostic>, IntervalIndex> diagnosticsIndex;
+  private volatile Instant lastCaretChangeInstant;
+  // code that changed since the last check (-1 if none), for the spelling check of
+  // CheckFrequency.TIERED
+  private int dirtyFromPos;
+  private int dirtyToPos;
 
   public LtexTextDocumentItem(LtexLanguageServer languageServer,
         String uri, String codeLanguageId, int version, String text) {
     super(uri, codeLanguageId, version, text);
     this.languageServer = languageServer;
-    this.lineStartPosList = new ArrayList<>();
+    this.snapshot = new LtexTextDocumentSnapshot(uri, codeLanguageId, version, text, null);
     this.checkingResult = null;
+    this.fragmentMatchesWithHiddenFalsePositives = null;
+    this.checkingSettings = null;
+    this.previousFullCheckingResult = null;
+    this.checkingResultIndex = null;
+    this.pendingCheckMap = new ConcurrentHashMap<>();
+    this.pendingChecks = ConcurrentHashMap.newKeySet();
     this.diagnostics = null;
-    this.caretPosition = null;
+    this.diagnosticsIndex = null;
     this.lastCaretChangeInstant = Instant.now();
-    reinitializeLineStartPosList(text, this.lineStartPosList);
+    this.dirtyFromPos = -1;
+    this.dirtyToPos = -1;
   }
 
   public LtexTextDocumentItem(LtexLanguageServer languageServer, TextDocumentItem document) {
@@ -59,36 +137,15 @@ public class LtexTextDocumentItem extends TextDocumentItem {
         document.getVersion(), document.getText());
   }
 
-  private void reinitializeLineStartPosList() {
-    reinitializeLineStartPosList(getText(), this.lineStartPosList);
-  }
-
-  private static void reinitializeLineStartPosList(String text, List<Integer> lineStartPosList) {
-    lineStartPosList.clear();
-    lineStartPosList.add(0);
-
-    for (int i = 0; i < text.length(); i++) {
-      char c = text.charAt(i);
-
-      if (c == '\r') {
-        if ((i + 1 < text.length()) && (text.charAt(i + 1) == '\n')) i++;
-        lineStartPosList.add(i + 1);
-      } else if (c == '\n') {
-        lineStartPosList.add(i + 1);
-      }
-    }
-  }
-
   @Override
   public boolean equals(@Nullable Object obj) {
     if ((obj == null) || !LtexTextDocumentItem.class.isAssignableFrom(obj.getClass())) return false;
     LtexTextDocumentItem other = (LtexTextDocumentItem)obj;
 
     if (!super.equals(other)) return false;
-    if (!this.lineStartPosList.equals(other.lineStartPosList)) return false;
     if (!Tools.equals(this.checkingResult, other.checkingResult)) return false;
     if (!Tools.equals(this.diagnostics, other.diagnostics)) return false;
-    if (!Tools.equals(this.caretPosition, other.caretPosition)) return false;
+    if (!Tools.equals(getCaretPosition(), other.getCaretPosition())) return false;
     if (!this.lastCaretChangeInstant.equals(other.lastCaretChangeInstant)) return false;
 
     return true;
@@ -99,10 +156,13 @@ public class LtexTextDocumentItem extends TextDocumentItem {
     int hash = 3;
 
     hash = 53 * hash + super.hashCode();
-    hash = 53 * hash + this.lineStartPosList.hashCode();
-    if (this.checkingResult != null) hash = 53 * hash + this.checkingResult.hashCode();
-    if (this.diagnostics != null) hash = 53 * hash + this.diagnostics.hashCode();
-    if (this.caretPosition != null) hash = 53 * hash + this.caretPosition.hashCode();
+    @Nullable Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>> checkingResult =
+        this.checkingResult;
+    if (checkingResult != null) hash = 53 * hash + checkingResult.hashCode();
+    @Nullable List<Diagnostic> diagnostics = this.diagnostics;
+    if (diagnostics != null) hash = 53 * hash + diagnostics.hashCode();
+    @Nullable Position caretPosition = getCaretPosition();
+    if (caretPosition != null) hash = 53 * hash + caretPosition.hashCode();
     hash = 53 * hash + this.lastCaretChangeInstant.hashCode();
 
     return hash;
@@ -112,68 +172,33 @@ public class LtexTextDocumentItem extends TextDocumentItem {
     return this.languageServer;
   }
 
-  public int convertPosition(Position position) {
-    int line = position.getLine();
-    int character = position.getCharacter();
-    String text = getText();
-
-    if (line < 0) {
-      return 0;
-    } else if (line >= this.lineStartPosList.size()) {
-      return text.length();
-    } else {
-      int lineStart = this.lineStartPosList.get(line);
-      int nextLineStart = ((line < this.lineStartPosList.size() - 1)
-          ? this.lineStartPosList.get(line + 1) : text.length());
-      int lineLength = nextLineStart - lineStart;
-
-      if (character < 0) {
-        return lineStart;
-      } else if (character >= lineLength) {
-        int pos = lineStart + lineLength;
-
-        if (pos >= 1) {
-          if (text.charAt(pos - 1) == '\r') {
-            pos--;
-          } else if (text.charAt(pos - 1) == '\n') {
-            pos--;
-            if ((pos >= 1) && (text.charAt(pos - 1) == '\r')) pos--;
-          }
-        }
-
-        return pos;
-      } else {
-        return lineStart + character;
-      }
-    }
+  public LtexTextDocumentSnapshot getSnapshot() {
+    return this.snapshot;
   }
 
-  public Position convertPosition(int pos) {
-    int line = Collections.binarySearch(this.lineStartPosList, pos);
+  // whether the text that has been checked in the snapshot is still the text of the document
+  private boolean isSnapshotCurrent(LtexTextDocumentSnapshot snapshot) {
+    LtexTextDocumentSnapshot currentSnapshot = this.snapshot;
+    return (currentSnapshot.getVersion() == snapshot.getVersion())
+        && (currentSnapshot.getText() == snapshot.getText())
+        && currentSnapshot.getCodeLanguageId().equals(snapshot.getCodeLanguageId());
+  }
 
-    if (line < 0) {
-      int insertionPoint = -line - 1;
-      line = insertionPoint - 1;
-    }
+  public int convertPosition(Position position) {
+    return this.snapshot.convertPosition(position);
+  }
 
-    return new Position(line, pos - this.lineStartPosList.get(line));
+  public Position convertPosition(int pos) {
+    return this.snapshot.convertPosition(pos);
   }
 
   public @Nullable Position getCaretPosition() {
-    return ((this.caretPosition != null)
-        ? new Position(this.caretPosition.getLine(), this.caretPosition.getCharacter()) : null);
+    return this.snapshot.getCaretPosition();
   }
 
   public void setCaretPosition(@Nullable Position caretPosition) {
-    if (caretPosition != null) {
-      if (this.caretPosition != null) {
-        this.caretPosition.setLine(caretPosition.getLine());
-        this.caretPosition.setCharacter(caretPosition.getCharacter());
-      } else {
-        this.caretPosition = new Position(caretPosition.getLine(), caretPosition.getCharacter());
-      }
-    } else {
-      this.caretPosition = null;
+    synchronized (this) {
+      this.snapshot = this.snapshot.withCaretPosition(caretPosition);
     }
   }
 
@@ -185,15 +210,49 @@ public class LtexTextDocumentItem extends TextDocumentItem {
     this.lastCaretChangeInstant = lastCaretChangeInstant;
   }
 
+  @Override
+  public void setLanguageId(String languageId) {
+    synchronized (this) {
+      super.setLanguageId(languageId);
+      this.snapshot = this.snapshot.withCodeLanguageId(languageId);
+    }
+  }
+
+  @Override
+  public void setVersion(int version) {
+    synchronized (this) {
+      super.setVersion(version);
+      this.snapshot = this.snapshot.withVersion(version);
+    }
+  }
+
   @Override
   public void setText(String text) {
-    final String oldText = getText();
-    super.setText(text);
-    reinitializeLineStartPosList();
-    this.checkingResult = null;
-    this.diagnostics = null;
-    this.caretPosition = guessCaretPositionInFullUpdate(oldText);
-    if (this.caretPosition != null) this.lastCaretChangeInstant = Instant.now();
+    synchronized (this) {
+      final String oldText = getText();
+      super.setText(text);
+      LtexTextDocumentSnapshot snapshot = new LtexTextDocumentSnapshot(
+          getUri(), getLanguageId(), getVersion(), text, null);
+      snapshot = snapshot.withCaretPosition(guessCaretPositionInFullUpdate(snapshot, oldText));
+      this.snapshot = snapshot;
+      this.checkingResult = null;
+      this.fragmentMatchesWithHiddenFalsePositives = null;
+      this.diagnostics = null;
+      if (snapshot.getCaretPosition() != null) this.lastCaretChangeInstant = Instant.now();
+      this.dirtyFromPos = 0;
+      this.dirtyToPos = text.length();
+    }
+
+    cancelPendingChecks();
+  }
+
+  // stops all running checks, as their results would be discarded anyway
+  public void cancelPendingChecks() {
+    this.pendingCheckMap.clear();
+
+    for (PendingCheck pendingCheck : this.pendingChecks) {
+      pendingCheck.cancel();
+    }
   }
 
   public void applyTextChangeEvents(List<TextDocumentContentChangeEvent> textChangeEvents) {
@@ -204,49 +263,175 @@ public class LtexTextDocumentItem extends TextDocumentItem {
     }
 
     if (textChangeEvents.size() > 1) {
-      this.caretPosition = null;
-      this.lastCaretChangeInstant = oldLastCaretChangeInstant;
+      synchronized (this) {
+        this.snapshot = this.snapshot.withCaretPosition(null);
+        this.lastCaretChangeInstant = oldLastCaretChangeInstant;
+      }
     }
   }
 
   public void applyTextChangeEvent(TextDocumentContentChangeEvent textChangeEvent) {
-    Range changeRange = textChangeEvent.getRange();
-    String changeText = textChangeEvent.getText();
-    int fromPos = -1;
-    int toPos = -1;
-    String oldText = getText();
-    String newText;
-
-    if (changeRange != null) {
-      fromPos = convertPosition(changeRange.getStart());
-      toPos = ((changeRange.getEnd() != changeRange.getStart())
-          ? convertPosition(changeRange.getEnd()) : fromPos);
-      newText = oldText.substring(0, fromPos) + changeText + oldText.substring(toPos);
-    } else {
-      newText = changeText;
+    synchronized (this) {
+      Range changeRange = textChangeEvent.getRange();
+      String changeText = textChangeEvent.getText();
+      int fromPos = -1;
+      int toPos = -1;
+      LtexTextDocumentSnapshot oldSnapshot = this.snapshot;
+      String oldText = oldSnapshot.getText();
+      String newText;
+
+      if (changeRange != null) {
+        fromPos = oldSnapshot.convertPosition(changeRange.getStart());
+        toPos = ((changeRange.getEnd() != changeRange.getStart())
+            ? oldSnapshot.convertPosition(changeRange.getEnd()) : fromPos);
+        newText = oldText.substring(0, fromPos) + changeText + oldText.substring(toPos);
+      } else {
+        newText = changeText;
+      }
+
+      super.setText(newText);
+      LtexTextDocumentSnapshot snapshot = new LtexTextDocumentSnapshot(
+          getUri(), getLanguageId(), getVersion(), newText, null);
+      @Nullable Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>> checkingResult =
+          this.checkingResult;
+      this.checkingResult = (((changeRange != null) && (checkingResult != null))
+          ? remapCheckingResult(checkingResult, fromPos, toPos, changeText) : null);
+      this.fragmentMatchesWithHiddenFalsePositives = null;
+      this.diagnostics = null;
+
+      if (changeRange != null) {
+        snapshot = snapshot.withCaretPosition(guessCaretPositionInIncrementalUpdate(
+            snapshot, changeRange, changeText, fromPos, toPos));
+        updateDirtyRange(fromPos, toPos, changeText.length());
+      } else {
+        snapshot = snapshot.withCaretPosition(
+            guessCaretPositionInFullUpdate(snapshot, oldText));
+        this.dirtyFromPos = 0;
+        this.dirtyToPos = newText.length();
+      }
+
+      this.snapshot = snapshot;
+      if (snapshot.getCaretPosition() != null) this.lastCaretChangeInstant = Instant.now();
     }
 
-    super.setText(newText);
-    reinitializeLineStartPosList();
-    this.checkingResult = null;
-    this.diagnostics = null;
+    cancelPendingChecks();
+  }
+
+  private void updateDirtyRange(int fromPos, int toPos, int changeLength) {
+    int newDirtyFromPos = fromPos;
+    int newDirtyToPos = fromPos + changeLength;
+
+    if (this.dirtyFromPos != -1) {
+      newDirtyFromPos = Math.min(newDirtyFromPos,
+          shiftPosition(this.dirtyFromPos, fromPos, toPos, changeLength));
+      newDirtyToPos = Math.max(newDirtyToPos,
+          shiftPosition(this.dirtyToPos, fromPos, toPos, changeLength));
+    }
+
+    this.dirtyFromPos = newDirtyFromPos;
+    this.dirtyToPos = newDirtyToPos;
+  }
 
-    if (changeRange != null) {
-      this.caretPosition = guessCaretPositionInIncrementalUpdate(
-          changeRange, changeText, fromPos, toPos);
+  private static int shiftPosition(int pos, int fromPos, int toPos, int changeLength) {
+    if (pos <= fromPos) {
+      return pos;
+    } else if (pos >= toPos) {
+      return pos + changeLength - (toPos - fromPos);
     } else {
-      this.caretPosition = guessCaretPositionInFullUpdate(oldText);
+      return fromPos;
     }
+  }
+
+  // returns the range of the paragraphs (separated by blank lines) that contain dirty code, or
+  // null if there is none or if it's too long
+  private @Nullable Range getDirtyParagraphRange(LtexTextDocumentSnapshot snapshot) {
+    if (this.dirtyFromPos == -1) return null;
+    String text = snapshot.getText();
+    int lineCount = snapshot.getLineCount();
+    int fromLine = snapshot.convertPosition(Math.min(this.dirtyFromPos, text.length())).getLine();
+    int toLine = snapshot.convertPosition(Math.min(this.dirtyToPos, text.length())).getLine();
+    while ((fromLine > 0) && !isLineBlank(snapshot, fromLine - 1)) fromLine--;
+    while ((toLine < lineCount - 1) && !isLineBlank(snapshot, toLine + 1)) toLine++;
+
+    int fromPos = snapshot.getLineStartPos(fromLine);
+    int toPos = ((toLine < lineCount - 1)
+        ? snapshot.getLineStartPos(toLine + 1) : text.length());
+    if (toPos - fromPos > maxSpellingCheckLength) return null;
+
+    return new Range(snapshot.convertPosition(fromPos), snapshot.convertPosition(toPos));
+  }
+
+  private static boolean isLineBlank(LtexTextDocumentSnapshot snapshot, int line) {
+    String text = snapshot.getText();
+    int fromPos = snapshot.getLineStartPos(line);
+    int toPos = ((line < snapshot.getLineCount() - 1)
+        ? snapshot.getLineStartPos(line + 1) : text.length());
 
-    if (this.caretPosition != null) this.lastCaretChangeInstant = Instant.now();
+    for (int pos = fromPos; pos < toPos; pos++) {
+      if (!Character.isWhitespace(text.charAt(pos))) return false;
+    }
+
+    return true;
   }
 
-  private @Nullable Position guessCaretPositionInIncrementalUpdate(
-        Range changeRange, String changeText, int fromPos, int toPos) {
+  // shifts the matches and fragments of the last check through a change of the code between
+  // fromPos and toPos, so that diagnostics and code actions can be served until the next check
+  // has finished; matches that overlap or touch the change are dropped
+  private static Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>>
+        remapCheckingResult(
+          Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>> checkingResult,
+          int fromPos, int toPos, String changeText) {
+    int delta = changeText.length() - (toPos - fromPos);
+    List<AnnotatedTextFragment> annotatedTextFragments = new ArrayList<>();
+    boolean fragmentDropped = false;
+
+    for (AnnotatedTextFragment annotatedTextFragment : checkingResult.getValue()) {
+      CodeFragment codeFragment = annotatedTextFragment.getCodeFragment();
+      int fragmentFromPos = codeFragment.getFromPos();
+      int fragmentToPos = fragmentFromPos + codeFragment.getCode().length();
+
+      if (fragmentToPos < fromPos) {
+        annotatedTextFragments.add(annotatedTextFragment);
+      } else if (fragmentFromPos > toPos) {
+        annotatedTextFragments.add(annotatedTextFragment.withFromPos(fragmentFromPos + delta));
+      } else if ((fragmentFromPos <= fromPos) && (toPos <= fragmentToPos)) {
+        annotatedTextFragments.add(annotatedTextFragment.withCodeChange(
+            fromPos - fragmentFromPos, toPos - fragmentFromPos, changeText));
+      } else {
+        fragmentDropped = true;
+      }
+    }
+
+    List<LanguageToolRuleMatch> matches = new ArrayList<>();
+
+    for (LanguageToolRuleMatch match : checkingResult.getKey()) {
+      if (match.getToPos() < fromPos) {
+        matches.add(match);
+      } else if (match.getFromPos() > toPos) {
+        LanguageToolRuleMatch newMatch = new LanguageToolRuleMatch(match);
+        newMatch.setFromPos(match.getFromPos() + delta);
+        newMatch.setToPos(match.getToPos() + delta);
+        matches.add(newMatch);
+      }
+    }
+
+    if (fragmentDropped) {
+      CheckingResultIndex checkingResultIndex = new CheckingResultIndex(
+          Pair.of(Collections.emptyList(), annotatedTextFragments));
+      matches.removeIf((LanguageToolRuleMatch match) ->
+          (checkingResultIndex.findAnnotatedTextFragmentWithMatch(match) == -1));
+    }
+
+    return Pair.of(matches, annotatedTextFragments);
+  }
+
+  private static @Nullable Position guessCaretPositionInIncrementalUpdate(
+        LtexTextDocumentSnapshot snapshot, Range changeRange, String changeText,
+        int fromPos, int toPos) {
     @Nullable Position caretPosition = null;
 
     if (fromPos == toPos) {
-      caretPosition = convertPosition(toPos + changeText.length());
+      caretPosition = snapshot.convertPosition(toPos + changeText.length());
     } else if (changeText.isEmpty()) {
       caretPosition = new Position(changeRange.getStart().getLine(),
           changeRange.getStart().getCharacter());
@@ -255,8 +440,9 @@ public class LtexTextDocumentItem extends TextDocumentItem {
     return caretPosition;
   }
 
-  private @Nullable Position guessCaretPositionInFullUpdate(String oldText) {
-    String newText = getText();
+  private static @Nullable Position guessCaretPositionInFullUpdate(
+        LtexTextDocumentSnapshot snapshot, String oldText) {
+    String newText = snapshot.getText();
     int numberOfEqualCharsAtStart = 0;
 
     while ((numberOfEqualCharsAtStart < oldText.length())
@@ -282,90 +468,355 @@ public class LtexTextDocumentItem extends TextDocumentItem {
       return null;
     }
 
-    return convertPosition(newText.length() - numberOfEqualCharsAtEnd);
+    return snapshot.convertPosition(newText.length() - numberOfEqualCharsAtEnd);
   }
 
   public CompletableFuture<Boolean> checkAndPublishDiagnosticsWithCache() {
-    return checkAndPublishDiagnostics(null, true);
+    return checkAndPublishDiagnostics(null, true, false);
   }
 
   public CompletableFuture<Boolean> checkAndPublishDiagnosticsWithCache(@Nullable Range range) {
-    return checkAndPublishDiagnostics(range, true);
+    return checkAndPublishDiagnostics(range, true, false);
   }
 
   public CompletableFuture<Boolean> checkAndPublishDiagnosticsWithoutCache() {
-    return checkAndPublishDiagnostics(null, false);
+    return checkAndPublishDiagnostics(null, false, false);
   }
 
   public CompletableFuture<Boolean> checkAndPublishDiagnosticsWithoutCache(@Nullable Range range) {
-    return checkAndPublishDiagnostics(range, false);
+    return checkAndPublishDiagnostics(range, false, false);
   }
 
-  private CompletableFuture<Boolean> checkAndPublishDiagnostics(
-        @Nullable Range range, boolean useCache) {
+  // for checks that the user is not waiting for (e.g., when opening a document); they are only
+  // started when the BackgroundCheckGovernor permits it
+  public CompletableFuture<Boolean> checkAndPublishDiagnosticsInBackground() {
+    return checkAndPublishDiagnostics(null, false, true);
+  }
+
+  public CompletableFuture<Boolean> checkAndPublishDiagnosticsInBackground(@Nullable Range range) {
+    return checkAndPublishDiagnostics(range, false, true);
+  }
+
+  // first tier of CheckFrequency.TIERED: only checks the spelling of the paragraphs that changed
+  // since the last check, and replaces the unknown words of these paragraphs in the last
+  // checking result, so that other diagnostics are kept until the full check
+  public CompletableFuture<Boolean> checkSpellingAndPublishDiagnostics() {
+    @Nullable LtexLanguageClient languageClient = this.languageServer.getLanguageClient();
+    final LtexTextDocumentSnapshot snapshot;
+    final @Nullable Range range;
+
+    synchronized (this) {
+      snapshot = this.snapshot;
+      range = getDirtyParagraphRange(snapshot);
+      this.dirtyFromPos = -1;
+      this.dirtyToPos = -1;
+    }
+
+    if ((languageClient == null) || (range == null) || (this.checkingResult == null)) {
+      return CompletableFuture.completedFuture(false);
+    }
+
+    final int fromPos = snapshot.convertPosition(range.getStart());
+    final int toPos = snapshot.convertPosition(range.getEnd());
+    SettingsManager settingsManager = this.languageServer.getSettingsManager();
+    @Nullable Settings cachedSettings = settingsManager.getCachedSettings(getUri());
+    CompletableFuture<Settings> settingsFuture = ((cachedSettings != null)
+        ? CompletableFuture.completedFuture(cachedSettings)
+        : requestSettings(languageClient, settingsManager));
+
+    @SuppressWarnings("return.type.incompatible")
+    CompletableFuture<@Nullable Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>>>
+        spellingResultFuture = settingsFuture.thenApplyAsync(
+          (Settings settings) -> this.languageServer.getDocumentChecker().checkSpellingIfIdle(
+            snapshot, settings, range, new CancellationToken()),
+          spellingExecutor);
+
+    return spellingResultFuture.thenCompose(
+        (@Nullable Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>>
+          spellingResult) -> {
+          synchronized (this) {
+            @Nullable Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>>
+                checkingResult = this.checkingResult;
+
+            // the document might have changed in the meantime
+            if (!isSnapshotCurrent(snapshot) || (checkingResult == null)) {
+              return CompletableFuture.completedFuture(false);
+            }
+
+            // LanguageTool was busy, the paragraphs are checked by the next spelling check or
+            // the full check
+            if (spellingResult == null) {
+              this.dirtyFromPos = ((this.dirtyFromPos == -1)
+                  ? fromPos : Math.min(this.dirtyFromPos, fromPos));
+              this.dirtyToPos = Math.max(this.dirtyToPos, toPos);
+              return CompletableFuture.completedFuture(false);
+            }
+
+            this.checkingResult = mergeSpellingResult(checkingResult, spellingResult,
+                fromPos, toPos);
+            this.fragmentMatchesWithHiddenFalsePositives = null;
+            this.diagnostics = null;
+          }
+
+          return checkAndPublishDiagnosticsWithCache();
+        });
+  }
+
+  // replaces the unknown words and the fragments between fromPos and toPos in the checking
+  // result by those of the spelling check of this range; the new fragments come first, so that
+  // code actions for the new unknown words use them instead of the old fragments, which might
+  // have been remapped through the changes of the code (fragments that extend beyond the range
+  // are kept for the other matches)
+  private static Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>>
+        mergeSpellingResult(
+          Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>> checkingResult,
+          Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>> spellingResult,
+          int fromPos, int toPos) {
+    List<LanguageToolRuleMatch> matches = new ArrayList<>();
+
+    for (LanguageToolRuleMatch match : checkingResult.getKey()) {
+      if (!match.isUnknownWordRule() || (match.getFromPos() < fromPos)
+            || (match.getToPos() > toPos)) {
+        matches.add(match);
+      }
+    }
+
+    matches.addAll(spellingResult.getKey());
+    List<AnnotatedTextFragment> annotatedTextFragments = new ArrayList<>();
+
+    // the fragments of the spelling check are relative to the range
+    for (AnnotatedTextFragment annotatedTextFragment : spellingResult.getValue()) {
+      annotatedTextFragments.add(annotatedTextFragment.withFromPos(
+          annotatedTextFragment.getCodeFragment().getFromPos() + fromPos));
+    }
+
+    for (AnnotatedTextFragment annotatedTextFragment : checkingResult.getValue()) {
+      CodeFragment codeFragment = annotatedTextFragment.getCodeFragment();
+      int fragmentFromPos = codeFragment.getFromPos();
+      int fragmentToPos = fragmentFromPos + codeFragment.getCode().length();
+
+      if ((fragmentFromPos < fromPos) || (fragmentToPos > toPos)) {
+        annotatedTextFragments.add(annotatedTextFragment);
+      }
+    }
+
+    return Pair.of(matches, annotatedTextFragments);
+  }
+
+  // second tier of CheckFrequency.TIERED: checks the whole document with all rules if it
+  // doesn't change within the given delay
+  public void checkAndPublishDiagnosticsWhenIdle(int delayMilliseconds) {
+    final int version = this.snapshot.getVersion();
+
+    CompletableFuture.runAsync(() -> {
+      if (this.snapshot.getVersion() == version) checkAndPublishDiagnosticsWithoutCache();
+    }, CompletableFuture.delayedExecutor(delayMilliseconds, TimeUnit.MILLISECONDS));
+  }
+
+  // requests the new settings from the client and only repeats the checking stages that are
+  // affected by the settings change
+  public CompletableFuture<Boolean> checkAndPublishDiagnosticsAfterSettingsChange() {
     @Nullable LtexLanguageClient languageClient = this.languageServer.getLanguageClient();
+    boolean hasCheckingResult;
 
-    return checkAndGetDiagnostics(range, useCache).thenApply((List<Diagnostic> diagnostics) -> {
-      if (languageClient == null) return false;
-      @Nullable List<Diagnostic> diagnosticsNotAtCaret = extractDiagnosticsNotAtCaret();
-      if (diagnosticsNotAtCaret == null) return false;
-      languageClient.publishDiagnostics(new PublishDiagnosticsParams(
-          getUri(), diagnosticsNotAtCaret));
-
-      if (diagnosticsNotAtCaret.size() < diagnostics.size()) {
-        Thread thread = new Thread(new DelayedDiagnosticsPublisherRunnable(
-            languageClient, this));
-        thread.start();
+    synchronized (this) {
+      hasCheckingResult = ((this.checkingSettings != null) && (this.checkingResult != null));
+    }
+
+    if ((languageClient == null) || !hasCheckingResult) {
+      return checkAndPublishDiagnosticsInBackground();
+    }
+
+    SettingsManager settingsManager = this.languageServer.getSettingsManager();
+    @Nullable Settings cachedSettings = settingsManager.getCachedSettings(getUri());
+    CompletableFuture<Settings> settingsFuture = ((cachedSettings != null)
+        ? CompletableFuture.completedFuture(cachedSettings)
+        : requestSettings(languageClient, settingsManager));
+
+    return settingsFuture.thenCompose((Settings settings) -> {
+      @Nullable Settings oldSettings;
+      @Nullable Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>> checkingResult;
+      @Nullable List<List<LanguageToolRuleMatch>> fragmentMatches;
+
+      synchronized (this) {
+        oldSettings = this.checkingSettings;
+        checkingResult = this.checkingResult;
+        fragmentMatches = this.fragmentMatchesWithHiddenFalsePositives;
       }
 
-      return true;
+      // the document might have changed in the meantime
+      if ((oldSettings == null) || (checkingResult == null)) {
+        return checkAndPublishDiagnosticsInBackground();
+      }
+
+      SettingsChangeImpact changeImpact = settings.getChangeImpact(oldSettings);
+      Tools.logger.fine(Tools.i18n("settingsChangeImpact", getUri(), changeImpact.toString()));
+
+      if (changeImpact == SettingsChangeImpact.NONE) {
+        return CompletableFuture.completedFuture(true);
+      } else if (changeImpact == SettingsChangeImpact.DIAGNOSTICS) {
+        settingsManager.setSettings(settings);
+
+        synchronized (this) {
+          // the result of a check that finished in the meantime has its own settings
+          if (this.checkingResult == checkingResult) this.checkingSettings = settings;
+          this.diagnostics = null;
+        }
+
+        return checkAndPublishDiagnosticsWithCache();
+      } else if ((changeImpact == SettingsChangeImpact.HIDDEN_FALSE_POSITIVES)
+            && (fragmentMatches != null)) {
+        settingsManager.setSettings(settings);
+        List<AnnotatedTextFragment> annotatedTextFragments = checkingResult.getValue();
+        Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>> newCheckingResult =
+            Pair.of(this.languageServer.getDocumentChecker().removeHiddenFalsePositives(
+              fragmentMatches, annotatedTextFragments, settings),
+            annotatedTextFragments);
+        boolean checkingResultReplaced = false;
+
+        synchronized (this) {
+          // the document might have changed or might have been checked again in the meantime
+          if (this.checkingResult == checkingResult) {
+            this.checkingResult = newCheckingResult;
+            this.checkingSettings = settings;
+            this.diagnostics = null;
+            checkingResultReplaced = true;
+          }
+        }
+
+        return (checkingResultReplaced ? checkAndPublishDiagnosticsWithCache()
+            : checkAndPublishDiagnosticsInBackground());
+      } else {
+        // changes of the parsing settings don't reinitialize LanguageTool, see SettingsManager
+        return checkAndPublishDiagnosticsInBackground();
+      }
     });
   }
 
+  private CompletableFuture<Boolean> checkAndPublishDiagnostics(
+        @Nullable Range range, boolean useCache, boolean background) {
+    @Nullable LtexLanguageClient languageClient = this.languageServer.getLanguageClient();
+
+    return checkAndGetDiagnostics(range, useCache, background).thenApply(
+        (List<Diagnostic> diagnostics) -> {
+          if (languageClient == null) return false;
+          @Nullable List<Diagnostic> diagnosticsNotAtCaret = extractDiagnosticsNotAtCaret();
+          if (diagnosticsNotAtCaret == null) return false;
+          languageClient.publishDiagnostics(new PublishDiagnosticsParams(
+              getUri(), diagnosticsNotAtCaret));
+
+          if (diagnosticsNotAtCaret.size() < diagnostics.size()) {
+            Thread thread = new Thread(new DelayedDiagnosticsPublisherRunnable(
+                languageClient, this));
+            thread.start();
+          }
+
+          return true;
+        });
+  }
+
   private CompletableFuture<List<Diagnostic>> checkAndGetDiagnostics(
-        @Nullable Range range, boolean useCache) {
-    if (useCache && (this.diagnostics != null)) {
-      return CompletableFuture.completedFuture(this.diagnostics);
+        @Nullable Range range, boolean useCache, boolean background) {
+    @Nullable List<Diagnostic> cachedDiagnostics = this.diagnostics;
+
+    if (useCache && (cachedDiagnostics != null)) {
+      return CompletableFuture.completedFuture(cachedDiagnostics);
     }
 
-    return check(range, useCache).thenApply(
+    final LtexTextDocumentSnapshot snapshot = this.snapshot;
+
+    // the diagnostics are published by checkAndPublishDiagnostics afterwards
+    return check(range, useCache, true, background).thenApply(
         (Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>> checkingResult) -> {
           List<LanguageToolRuleMatch> matches = checkingResult.getKey();
           List<Diagnostic> diagnostics = new ArrayList<>();
 
           for (LanguageToolRuleMatch match : matches) {
             diagnostics.add(this.languageServer.getCodeActionGenerator().createDiagnostic(
-                match, this));
+                match, snapshot));
+          }
+
+          // positions of diagnostics of an outdated snapshot would be wrong, and a newer
+          // checking result might have been stored in the meantime
+          synchronized (this) {
+            if (isSnapshotCurrent(snapshot) && (this.checkingResult == checkingResult)) {
+              this.diagnostics = diagnostics;
+            }
           }
 
-          this.diagnostics = diagnostics;
           return diagnostics;
         });
   }
 
+  // publishes the diagnostics of the last (possibly remapped) checking result without checking
+  public CompletableFuture<Boolean> publishDiagnosticsWithoutCheck() {
+    if (this.checkingResult == null) return CompletableFuture.completedFuture(false);
+    return checkAndPublishDiagnosticsWithCache();
+  }
+
   public @Nullable List<Diagnostic> getDiagnosticsCache() {
     return ((this.diagnostics != null) ? Collections.unmodifiableList(this.diagnostics) : null);
   }
 
   private @Nullable List<Diagnostic> extractDiagnosticsNotAtCaret() {
-    if (this.diagnostics == null) return null;
-    if (this.caretPosition == null) return Collections.unmodifiableList(this.diagnostics);
-    List<Diagnostic> diagnosticsNotAtCaret = new ArrayList<>();
-    int character = this.caretPosition.getCharacter();
-    Position beforeCaretPosition = new Position(this.caretPosition.getLine(),
+    @Nullable List<Diagnostic> diagnostics = this.diagnostics;
+    if (diagnostics == null) return null;
+    return extractDiagnosticsNotAtCaret(diagnostics);
+  }
+
+  public List<Diagnostic> extractDiagnosticsNotAtCaret(List<Diagnostic> diagnostics) {
+    LtexTextDocumentSnapshot snapshot = this.snapshot;
+    @Nullable Position caretPosition = snapshot.getCaretPosition();
+    if (caretPosition == null) return Collections.unmodifiableList(diagnostics);
+    int character = caretPosition.getCharacter();
+    Position beforeCaretPosition = new Position(caretPosition.getLine(),
         ((character >= 1) ? (character - 1) : 0));
-    Range caretRange = new Range(beforeCaretPosition, this.caretPosition);
-    if (this.diagnostics == null) return null;
 
-    for (Diagnostic diagnostic : this.diagnostics) {
-      if (!Tools.areRangesIntersecting(diagnostic.getRange(), caretRange)) {
-        diagnosticsNotAtCaret.add(diagnostic);
-      }
-    }
+    List<Integer> diagnosticIndicesAtCaret = getDiagnosticsIndex(snapshot, diagnostics)
+        .findIntersecting(snapshot.convertPosition(beforeCaretPosition),
+          snapshot.convertPosition(caretPosition));
+    if (diagnosticIndicesAtCaret.isEmpty()) return Collections.unmodifiableList(diagnostics);
 
+    List<Diagnostic> diagnosticsNotAtCaret = new ArrayList<>(diagnostics);
+    Collections.reverse(diagnosticIndicesAtCaret);
+    for (int index : diagnosticIndicesAtCaret) diagnosticsNotAtCaret.remove(index);
     return diagnosticsNotAtCaret;
   }
 
+  private IntervalIndex getDiagnosticsIndex(LtexTextDocumentSnapshot snapshot,
+        List<Diagnostic> diagnostics) {
+    @Nullable Pair<List<Diagnostic>, IntervalIndex> diagnosticsIndex = this.diagnosticsIndex;
+    if ((diagnosticsIndex != null) && (diagnosticsIndex.getKey() == diagnostics)) {
+      return diagnosticsIndex.getValue();
+    }
+
+    int[] fromPositions = new int[diagnostics.size()];
+    int[] toPositions = new int[diagnostics.size()];
+
+    for (int i = 0; i < diagnostics.size(); i++) {
+      Range range = diagnostics.get(i).getRange();
+      fromPositions[i] = snapshot.convertPosition(range.getStart());
+      toPositions[i] = snapshot.convertPosition(range.getEnd());
+    }
+
+    IntervalIndex intervalIndex = new IntervalIndex(fromPositions, toPositions);
+    this.diagnosticsIndex = Pair.of(diagnostics, intervalIndex);
+    return intervalIndex;
+  }
+
+  public CheckingResultIndex getCheckingResultIndex(
+        Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>> checkingResult) {
+    @Nullable CheckingResultIndex checkingResultIndex = this.checkingResultIndex;
+
+    if ((checkingResultIndex == null)
+          || (checkingResultIndex.getCheckingResult() != checkingResult)) {
+      checkingResultIndex = new CheckingResultIndex(checkingResult);
+      this.checkingResultIndex = checkingResultIndex;
+    }
+
+    return checkingResultIndex;
+  }
+
   public CompletableFuture<Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>>>
         checkWithCache() {
     return check(null, true);
@@ -388,8 +839,35 @@ public class LtexTextDocumentItem extends TextDocumentItem {
 
   private CompletableFuture<Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>>> check(
         @Nullable Range range, boolean useCache) {
-    if (useCache && (this.checkingResult != null)) {
-      return CompletableFuture.completedFuture(this.checkingResult);
+    return check(range, useCache, false, false);
+  }
+
+  // if publishPartialDiagnostics is true, diagnostics of the fragments checked so far are
+  // published while the check of a large document is still running; the final diagnostics have
+  // to be published by the caller
+  private CompletableFuture<Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>>> check(
+        @Nullable Range range, boolean useCache, boolean publishPartialDiagnostics,
+        boolean background) {
+    @Nullable Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>>
+        cachedCheckingResult = this.checkingResult;
+
+    if (useCache && (cachedCheckingResult != null)) {
+      return CompletableFuture.completedFuture(cachedCheckingResult);
+    }
+
+    // all stages of the check work on the state of the document when the check was requested
+    final LtexTextDocumentSnapshot snapshot = this.snapshot;
+    // concurrent requests for the same version and range share one check
+    final List<@Nullable Object> checkKey = Arrays.asList(snapshot.getVersion(), range);
+
+    if (useCache) {
+      @Nullable PendingCheck pendingCheck = this.pendingCheckMap.get(checkKey);
+
+      if (pendingCheck != null) {
+        @Nullable CompletableFuture<Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>>>
+            pendingCheckingResult = pendingCheck.join();
+        if (pendingCheckingResult != null) return pendingCheckingResult;
+      }
     }
 
     @Nullable LtexLanguageClient languageClient = this.languageServer.getLanguageClient();
@@ -399,12 +877,14 @@ public class LtexTextDocumentItem extends TextDocumentItem {
           Pair.of(Collections.emptyList(), Collections.emptyList()));
     }
 
-    String uri = getUri();
+    String uri = snapshot.getUri();
     JsonObject progressJsonToken = new JsonObject();
     progressJsonToken.addProperty("uri", uri);
     progressJsonToken.addProperty("operation", "checkDocument");
     progressJsonToken.addProperty("uuid", Tools.getRandomUuid());
     Either<String, Number> progressToken = Either.forLeft(progressJsonToken.toString());
+    CancellationToken cancellationToken = new CancellationToken();
+    this.languageServer.registerProgressCancellationToken(progressToken, cancellationToken);
 
     final CompletableFuture<@Nullable Either<String, Number>> workDoneProgressCreateFuture =
         ((this.languageServer.isClientSupportingWorkDoneProgress())
@@ -414,7 +894,7 @@ public class LtexTextDocumentItem extends TextDocumentItem {
                 WorkDoneProgressBegin workDoneProgressBegin = new WorkDoneProgressBegin();
                 workDoneProgressBegin.setTitle(Tools.i18n("checkingDocument"));
                 workDoneProgressBegin.setMessage(uri);
-                workDoneProgressBegin.setCancellable(false);
+                workDoneProgressBegin.setCancellable(true);
                 languageClient.notifyProgress(new ProgressParams(
                     progressToken, workDoneProgressBegin));
                 return progressToken;
@@ -424,16 +904,180 @@ public class LtexTextDocumentItem extends TextDocumentItem {
             })
           : CompletableFuture.completedFuture(null));
 
+    BackgroundCheckGovernor backgroundCheckGovernor =
+        this.languageServer.getBackgroundCheckGovernor();
+    CompletableFuture<Void> checkStartFuture =
+        backgroundCheckGovernor.startCheck(background, cancellationToken);
+
+    SettingsManager settingsManager = this.languageServer.getSettingsManager();
+    @Nullable Settings cachedSettings = settingsManager.getCachedSettings(uri);
+
+    CompletableFuture<Settings> settingsFuture = workDoneProgressCreateFuture.thenCompose(
+        (@Nullable Either<String, Number> curProgressToken) -> checkStartFuture).thenCompose(
+        (Void voidObject) -> {
+          return ((cachedSettings != null) ? CompletableFuture.completedFuture(cachedSettings)
+              : requestSettings(languageClient, settingsManager));
+        });
+
+    // the permit is held until the first stage of the check has finished, as the continuations
+    // are queued separately; it is released exactly once, however the check ends
+    CompletableFuture<Settings> permitFuture = settingsFuture.thenCompose(
+        (Settings settings) -> acquirePreparedCheckPermit(uri, cancellationToken).thenApply(
+          (Void voidObject) -> settings));
+    AtomicBoolean permitReleased = new AtomicBoolean(false);
+    Runnable releasePermit = () -> {
+      if (!permitReleased.getAndSet(true)) preparedCheckPermits.release();
+    };
+
+    DocumentChecker documentChecker = this.languageServer.getDocumentChecker();
+    CompletableFuture<CheckingContinuation> checkingContinuationFuture =
+        permitFuture.thenApplyAsync((Settings settings) -> {
+          try {
+            cancellationToken.checkCanceled();
+            // the checks themselves only use their own settings, so concurrent checks don't
+            // interfere with each other
+            settingsManager.setSettings(settings);
+            return documentChecker.prepareCheck(snapshot, settings, range,
+                this.previousFullCheckingResult);
+          } catch (RuntimeException e) {
+            releasePermit.run();
+            throw e;
+          }
+        }, preparationExecutor);
+
+    // the preparation thread is free for the next check as soon as a check has been prepared;
+    // LanguageTool blocks the checking thread, so the checks don't run in the common pool
+    CompletableFuture<Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>>>
+        intermediateResult = checkingContinuationFuture.thenComposeAsync(
+          (CheckingContinuation preparedCheckingContinuation) -> {
+            Settings settings = preparedCheckingContinuation.getSettings();
+            @Nullable Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>>
+                previousCheckingResult = this.checkingResult;
+            @Nullable PartialDiagnosticsPublisher partialDiagnosticsPublisher =
+                (publishPartialDiagnostics ? new PartialDiagnosticsPublisher(languageClient,
+                  this, snapshot, (((range == null) && (previousCheckingResult != null))
+                    ? previousCheckingResult.getKey() : Collections.emptyList()))
+                : null);
+            CheckingContinuation checkingContinuation;
+
+            try {
+              checkingContinuation = documentChecker.checkWithTimeBudget(
+                  preparedCheckingContinuation, partialDiagnosticsPublisher, cancellationToken,
+                  checkTimeBudget);
+            } finally {
+              releasePermit.run();
+            }
+
+            return resumeCheck(checkingContinuation, partialDiagnosticsPublisher,
+                cancellationToken).thenApply(
+                (CheckingContinuation finishedCheckingContinuation) -> {
+                  Pair<List<List<LanguageToolRuleMatch>>, List<AnnotatedTextFragment>>
+                      fullCheckingResult = finishedCheckingContinuation.getCheckingResult();
+                  List<AnnotatedTextFragment> annotatedTextFragments =
+                      fullCheckingResult.getValue();
+                  Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>> checkingResult =
+                      Pair.of(documentChecker.removeHiddenFalsePositives(
+                        fullCheckingResult.getKey(), annotatedTextFragments, null),
+                      annotatedTextFragments);
+                  synchronized (this) {
+                    // the document might have changed in the meantime; the previous full
+                    // checking result is matched by plain text, so it can be reused in any case
+                    if (isSnapshotCurrent(snapshot)) {
+                      this.checkingResult = checkingResult;
+                      this.fragmentMatchesWithHiddenFalsePositives =
+                          fullCheckingResult.getKey();
+                      this.checkingSettings = settings;
+                    }
+
+                    // fragments that could not be checked have to be checked again next time
+                    if (range == null) {
+                      this.previousFullCheckingResult =
+                          finishedCheckingContinuation.getReusableCheckingResult();
+                    }
+                  }
+
+                  return checkingResult;
+                });
+          }, backgroundCheckGovernor.getCheckingExecutor());
+
+    PendingCheck pendingCheck = new PendingCheck(intermediateResult, cancellationToken);
+    this.pendingCheckMap.put(checkKey, pendingCheck);
+    this.pendingChecks.add(pendingCheck);
+    intermediateResult.whenComplete(
+        (@Nullable Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>> checkingResult,
+          @Nullable Throwable e) -> {
+          this.pendingCheckMap.remove(checkKey, pendingCheck);
+          this.pendingChecks.remove(pendingCheck);
+          // the permit might be granted only after the check has ended
+          permitFuture.thenRun(releasePermit);
+
+          // the check might have been cancelled before the governor started it
+          checkStartFuture.thenRun(() -> backgroundCheckGovernor.endCheck(background));
+
+          this.languageServer.unregisterProgressCancellationToken(progressToken);
+          @Nullable Either<String, Number> curProgressToken = workDoneProgressCreateFuture.join();
+
+          if (curProgressToken != null) {
+            languageClient.notifyProgress(new ProgressParams(
+                curProgressToken, new WorkDoneProgressEnd()));
+          }
+
+          if ((e instanceof CancellationException)
+                || ((e != null) && (e.getCause() instanceof CancellationException))) {
+            Tools.logger.fine(Tools.i18n("cancelledCheckingDocument", uri));
+          }
+        });
+
+    @Nullable CompletableFuture<Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>>>
+        requestCheckingResult = pendingCheck.join();
+    return ((requestCheckingResult != null) ? requestCheckingResult : intermediateResult);
+  }
+
+  // waits without blocking the preparation thread while too many prepared checks have not
+  // finished their first stage yet
+  private static CompletableFuture<Void> acquirePreparedCheckPermit(String uri,
+        CancelChecker cancelChecker) {
+    CompletableFuture<Void> permitFuture = preparedCheckPermits.acquire(cancelChecker);
+    if (!permitFuture.isDone()) Tools.logger.fine(Tools.i18n("waitingForPreparedChecks", uri));
+    return permitFuture;
+  }
+
+  // checks the fragments that remained when the time budget of the check was exhausted in the
+  // background, so that the worker is free for checks of other documents in the meantime;
+  // completes with the continuation once all fragments have been checked
+  private CompletableFuture<CheckingContinuation> resumeCheck(
+        CheckingContinuation checkingContinuation,
+        @Nullable PartialDiagnosticsPublisher partialDiagnosticsPublisher,
+        CancellationToken cancellationToken) {
+    if (checkingContinuation.isDone()) {
+      return CompletableFuture.completedFuture(checkingContinuation);
+    }
+
+    if (partialDiagnosticsPublisher != null) {
+      partialDiagnosticsPublisher.publish(checkingContinuation.getPartialCheckingResult());
+    }
+
+    DocumentChecker documentChecker = this.languageServer.getDocumentChecker();
+
+    return CompletableFuture.supplyAsync(() -> documentChecker.resumeCheck(
+          checkingContinuation, partialDiagnosticsPublisher, cancellationToken, checkTimeBudget),
+        continuationExecutor).thenCompose(
+          (CheckingContinuation nextCheckingContinuation) -> resumeCheck(
+            nextCheckingContinuation, partialDiagnosticsPublisher, cancellationToken));
+  }
+
+  private CompletableFuture<Settings> requestSettings(LtexLanguageClient languageClient,
+        SettingsManager settingsManager) {
+    String uri = getUri();
+    final int cachedSettingsGeneration = settingsManager.getCachedSettingsGeneration();
     ConfigurationItem configurationItem = new ConfigurationItem();
     configurationItem.setScopeUri(uri);
     configurationItem.setSection("ltex");
     ConfigurationParams configurationParams = new ConfigurationParams(
         Collections.singletonList(configurationItem));
 
-    CompletableFuture<List<Object>> intermediateResult1 = workDoneProgressCreateFuture.thenCompose(
-        (@Nullable Either<String, Number> curProgressToken) -> {
-        return languageClient.configuration(configurationParams);
-      });
+    CompletableFuture<List<Object>> intermediateResult1 =
+        languageClient.configuration(configurationParams);
 
     @SuppressWarnings({"assignment.type.incompatible", "return.type.incompatible"})
     CompletableFuture<Pair<List<Object>, List<@Nullable Object>>> intermediateResult2 =
@@ -447,39 +1091,19 @@ public class LtexTextDocumentItem extends TextDocumentItem {
                   });
           });
 
-    CompletableFuture<Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>>>
-        intermediateResult3 = intermediateResult2.thenApply(
-          (Pair<List<Object>, List<@Nullable Object>> futureArgument) -> {
-            List<Object> configurationResult = futureArgument.getKey();
-            List<@Nullable Object> workspaceSpecificConfigurationResult = futureArgument.getValue();
-
-            try {
-              JsonElement jsonConfiguration = (JsonElement)configurationResult.get(0);
-              @Nullable Object workspaceSpecificConfiguration =
-                  workspaceSpecificConfigurationResult.get(0);
-              @Nullable JsonElement jsonWorkspaceSpecificConfiguration =
-                  ((workspaceSpecificConfiguration != null)
-                    ? (JsonElement)workspaceSpecificConfiguration : null);
-
-              this.languageServer.getSettingsManager().setSettings(
-                  jsonConfiguration, jsonWorkspaceSpecificConfiguration);
-
-              Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>> checkingResult =
-                  this.languageServer.getDocumentChecker().check(this, range);
-              this.checkingResult = checkingResult;
-
-              return checkingResult;
-            } finally {
-              @Nullable Either<String, Number> curProgressToken =
-                  workDoneProgressCreateFuture.join();
-
-              if ((languageClient != null) && (curProgressToken != null)) {
-                languageClient.notifyProgress(new ProgressParams(
-                    curProgressToken, new WorkDoneProgressEnd()));
-              }
-            }
-          });
-
-    return intermediateResult3;
+    return intermediateResult2.thenApply(
+        (Pair<List<Object>, List<@Nullable Object>> futureArgument) -> {
+          List<Object> configurationResult = futureArgument.getKey();
+          List<@Nullable Object> workspaceSpecificConfigurationResult = futureArgument.getValue();
+          JsonElement jsonConfiguration = (JsonElement)configurationResult.get(0);
+          @Nullable Object workspaceSpecificConfiguration =
+              workspaceSpecificConfigurationResult.get(0);
+          @Nullable JsonElement jsonWorkspaceSpecificConfiguration =
+              ((workspaceSpecificConfiguration != null)
+                ? (JsonElement)workspaceSpecificConfiguration : null);
+
+          return settingsManager.cacheSettings(uri, cachedSettingsGeneration,
+              jsonConfiguration, jsonWorkspaceSpecificConfiguration);
+        });
   }
 }
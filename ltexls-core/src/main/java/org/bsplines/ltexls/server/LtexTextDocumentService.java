@@ -8,14 +8,15 @@
 package org.bsplines.ltexls.server;
 
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import org.bsplines.ltexls.languagetool.LanguageToolRuleMatch;
 import org.bsplines.ltexls.parsing.AnnotatedTextFragment;
 import org.bsplines.ltexls.settings.CheckFrequency;
+import org.bsplines.ltexls.settings.Settings;
 import org.bsplines.ltexls.tools.Tools;
 import org.checkerframework.checker.initialization.qual.NotOnlyInitialized;
 import org.checkerframework.checker.initialization.qual.UnknownInitialization;
@@ -63,7 +64,8 @@ public class LtexTextDocumentService implements TextDocumentService {
 
   public LtexTextDocumentService(@UnknownInitialization LtexLanguageServer languageServer) {
     this.languageServer = languageServer;
-    this.documents = new HashMap<>();
+    // checks read the documents concurrently to the notifications that change them
+    this.documents = new ConcurrentHashMap<>();
   }
 
   @Override
@@ -151,14 +153,15 @@ public class LtexTextDocumentService implements TextDocumentService {
     if ((document != null)
           && (this.languageServer.getSettingsManager().getSettings().getCheckFrequency()
             != CheckFrequency.MANUAL)) {
-      document.checkAndPublishDiagnosticsWithoutCache();
+      document.checkAndPublishDiagnosticsInBackground();
     }
   }
 
   @Override
   public void didClose(DidCloseTextDocumentParams params) {
     String uri = params.getTextDocument().getUri();
-    this.documents.remove(uri);
+    @Nullable LtexTextDocumentItem document = this.documents.remove(uri);
+    if (document != null) document.cancelPendingChecks();
 
     if (this.languageServer.getSettingsManager().getSettings()
           .getClearDiagnosticsWhenClosingFile()) {
@@ -199,10 +202,15 @@ public class LtexTextDocumentService implements TextDocumentService {
 
     document.applyTextChangeEvents(params.getContentChanges());
     document.setVersion(params.getTextDocument().getVersion());
+    document.publishDiagnosticsWithoutCheck();
 
-    if (this.languageServer.getSettingsManager().getSettings().getCheckFrequency()
-          == CheckFrequency.EDIT) {
+    Settings settings = this.languageServer.getSettingsManager().getSettings();
+
+    if (settings.getCheckFrequency() == CheckFrequency.EDIT) {
       document.checkAndPublishDiagnosticsWithoutCache();
+    } else if (settings.getCheckFrequency() == CheckFrequency.TIERED) {
+      document.checkSpellingAndPublishDiagnostics();
+      document.checkAndPublishDiagnosticsWhenIdle(settings.getFullCheckDelay());
     }
   }
 
@@ -221,11 +229,21 @@ public class LtexTextDocumentService implements TextDocumentService {
       return CompletableFuture.completedFuture(Collections.emptyList());
     }
 
-    return document.checkWithCache().thenApply(
+    CompletableFuture<Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>>>
+        checkingResultFuture = document.checkWithCache();
+    CompletableFuture<List<Either<Command, CodeAction>>> result = checkingResultFuture.thenApply(
         (Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>> checkingResult) -> {
           return this.languageServer.getCodeActionGenerator().generate(
               params, document, checkingResult);
         });
+
+    // $/cancelRequest cancels result, which doesn't cancel the futures it depends on
+    result.whenComplete(
+        (@Nullable List<Either<Command, CodeAction>> codeActions, @Nullable Throwable e) -> {
+          if (result.isCancelled()) checkingResultFuture.cancel(true);
+        });
+
+    return result;
   }
 
   private @Nullable LtexTextDocumentItem getDocument(String uri) {
@@ -0,0 +1,159 @@
+/* Copyright (C) 2020 Julian Valentin, LTeX Development Community
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package org.bsplines.ltexls.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.eclipse.lsp4j.Position;
+
+// immutable state of a document at one point in time; the document replaces its snapshot on
+// every change, so checks running in other threads always see consistent text and positions
+public class LtexTextDocumentSnapshot {
+  private String uri;
+  private String codeLanguageId;
+  private int version;
+  private String text;
+  private List<Integer> lineStartPosList;
+  private @Nullable Position caretPosition;
+
+  public LtexTextDocumentSnapshot(String uri, String codeLanguageId, int version, String text,
+        @Nullable Position caretPosition) {
+    this.uri = uri;
+    this.codeLanguageId = codeLanguageId;
+    this.version = version;
+    this.text = text;
+    this.lineStartPosList = Collections.unmodifiableList(createLineStartPosList(text));
+    this.caretPosition = copyPosition(caretPosition);
+  }
+
+  private LtexTextDocumentSnapshot(LtexTextDocumentSnapshot obj) {
+    this.uri = obj.uri;
+    this.codeLanguageId = obj.codeLanguageId;
+    this.version = obj.version;
+    this.text = obj.text;
+    this.lineStartPosList = obj.lineStartPosList;
+    this.caretPosition = obj.caretPosition;
+  }
+
+  private static List<Integer> createLineStartPosList(String text) {
+    List<Integer> lineStartPosList = new ArrayList<>();
+    lineStartPosList.add(0);
+
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+
+      if (c == '\r') {
+        if ((i + 1 < text.length()) && (text.charAt(i + 1) == '\n')) i++;
+        lineStartPosList.add(i + 1);
+      } else if (c == '\n') {
+        lineStartPosList.add(i + 1);
+      }
+    }
+
+    return lineStartPosList;
+  }
+
+  private static @Nullable Position copyPosition(@Nullable Position position) {
+    return ((position != null)
+        ? new Position(position.getLine(), position.getCharacter()) : null);
+  }
+
+  public LtexTextDocumentSnapshot withCodeLanguageId(String codeLanguageId) {
+    LtexTextDocumentSnapshot obj = new LtexTextDocumentSnapshot(this);
+    obj.codeLanguageId = codeLanguageId;
+    return obj;
+  }
+
+  public LtexTextDocumentSnapshot withVersion(int version) {
+    LtexTextDocumentSnapshot obj = new LtexTextDocumentSnapshot(this);
+    obj.version = version;
+    return obj;
+  }
+
+  public LtexTextDocumentSnapshot withCaretPosition(@Nullable Position caretPosition) {
+    LtexTextDocumentSnapshot obj = new LtexTextDocumentSnapshot(this);
+    obj.caretPosition = copyPosition(caretPosition);
+    return obj;
+  }
+
+  public String getUri() {
+    return this.uri;
+  }
+
+  public String getCodeLanguageId() {
+    return this.codeLanguageId;
+  }
+
+  public int getVersion() {
+    return this.version;
+  }
+
+  public String getText() {
+    return this.text;
+  }
+
+  public int getLineCount() {
+    return this.lineStartPosList.size();
+  }
+
+  public int getLineStartPos(int line) {
+    return this.lineStartPosList.get(line);
+  }
+
+  public @Nullable Position getCaretPosition() {
+    return copyPosition(this.caretPosition);
+  }
+
+  public int convertPosition(Position position) {
+    int line = position.getLine();
+    int character = position.getCharacter();
+
+    if (line < 0) {
+      return 0;
+    } else if (line >= this.lineStartPosList.size()) {
+      return this.text.length();
+    } else {
+      int lineStart = this.lineStartPosList.get(line);
+      int nextLineStart = ((line < this.lineStartPosList.size() - 1)
+          ? this.lineStartPosList.get(line + 1) : this.text.length());
+      int lineLength = nextLineStart - lineStart;
+
+      if (character < 0) {
+        return lineStart;
+      } else if (character >= lineLength) {
+        int pos = lineStart + lineLength;
+
+        if (pos >= 1) {
+          if (this.text.charAt(pos - 1) == '\r') {
+            pos--;
+          } else if (this.text.charAt(pos - 1) == '\n') {
+            pos--;
+            if ((pos >= 1) && (this.text.charAt(pos - 1) == '\r')) pos--;
+          }
+        }
+
+        return pos;
+      } else {
+        return lineStart + character;
+      }
+    }
+  }
+
+  public Position convertPosition(int pos) {
+    int line = Collections.binarySearch(this.lineStartPosList, pos);
+
+    if (line < 0) {
+      int insertionPoint = -line - 1;
+      line = insertionPoint - 1;
+    }
+
+    return new Position(line, pos - this.lineStartPosList.get(line));
+  }
+}
@@ -7,6 +7,7 @@
 
 package org.bsplines.ltexls.server;
 
+import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.sun.management.OperatingSystemMXBean;
 import java.lang.management.ManagementFactory;
@@ -50,8 +51,10 @@ class LtexWorkspaceService implements WorkspaceService {
 
   @Override
   public void didChangeConfiguration(DidChangeConfigurationParams params) {
+    this.languageServer.getSettingsManager().invalidateCachedSettings();
     this.languageServer.getLtexTextDocumentService().executeFunction(
-        (LtexTextDocumentItem document) -> document.checkAndPublishDiagnosticsWithoutCache());
+        (LtexTextDocumentItem document) ->
+          document.checkAndPublishDiagnosticsAfterSettingsChange());
   }
 
   @Override
@@ -106,6 +109,9 @@ class LtexWorkspaceService implements WorkspaceService {
       }
     }
 
+    // the configuration might have changed without didChangeConfiguration, and an explicit
+    // check should always use the current settings
+    this.languageServer.getSettingsManager().invalidateCachedSettings(uriStr);
     LtexTextDocumentItem document = new LtexTextDocumentItem(
         this.languageServer, uriStr, codeLanguageId, 1, text);
 
@@ -121,11 +127,20 @@ class LtexWorkspaceService implements WorkspaceService {
           new Position(jsonEnd.get("line").getAsInt(), jsonEnd.get("character").getAsInt()));
     }
 
-    return document.checkAndPublishDiagnosticsWithoutCache(range).thenApply((Boolean success) -> {
-      JsonObject jsonObject = new JsonObject();
-      jsonObject.addProperty("success", success);
-      return jsonObject;
+    CompletableFuture<Object> result = document.checkAndPublishDiagnosticsInBackground(range)
+        .thenApply((Boolean success) -> {
+          JsonObject jsonObject = new JsonObject();
+          jsonObject.addProperty("success", success);
+          return jsonObject;
+        });
+
+    // the document only exists for this request, so its checks can be stopped when the request
+    // is cancelled via $/cancelRequest
+    result.whenComplete((@Nullable Object jsonObject, @Nullable Throwable e) -> {
+      if (result.isCancelled()) document.cancelPendingChecks();
     });
+
+    return result;
   }
 
   public CompletableFuture<Object> executeGetServerStatusCommand() {
@@ -158,10 +173,43 @@ class LtexWorkspaceService implements WorkspaceService {
     if (cpuDuration != null) jsonObject.addProperty("cpuDuration", cpuDuration);
     jsonObject.addProperty("usedMemory", usedMemory);
     jsonObject.addProperty("totalMemory", totalMemory);
+    jsonObject.add("backgroundChecks", getBackgroundChecksJsonObject());
+    jsonObject.add("stuckChecks", getStuckChecksJsonArray());
 
     return CompletableFuture.completedFuture(jsonObject);
   }
 
+  private JsonObject getBackgroundChecksJsonObject() {
+    BackgroundCheckGovernor backgroundCheckGovernor =
+        this.languageServer.getBackgroundCheckGovernor();
+    JsonObject jsonObject = new JsonObject();
+    jsonObject.addProperty("running", backgroundCheckGovernor.getRunningBackgroundCheckCount());
+    jsonObject.addProperty("waiting", backgroundCheckGovernor.getWaitingBackgroundCheckCount());
+    jsonObject.addProperty("maxRunning", backgroundCheckGovernor.getMaxBackgroundCheckCount());
+    return jsonObject;
+  }
+
+  private JsonArray getStuckChecksJsonArray() {
+    JsonArray jsonArray = new JsonArray();
+
+    for (CheckingWatchdog.WatchedCheck stuckCheck
+          : this.languageServer.getDocumentChecker().getCheckingWatchdog().getStuckChecks()) {
+      @Nullable Instant endInstant = stuckCheck.getEndInstant();
+      JsonObject jsonObject = new JsonObject();
+      jsonObject.addProperty("uri", stuckCheck.getUri());
+      jsonObject.addProperty("fromPos", stuckCheck.getFromPos());
+      jsonObject.addProperty("toPos", stuckCheck.getToPos());
+      jsonObject.addProperty("startTime", stuckCheck.getStartInstant().toString());
+      jsonObject.addProperty("duration", Duration.between(stuckCheck.getStartInstant(),
+          ((endInstant != null) ? endInstant : Instant.now())).toMillis() / 1000.0);
+      // the check might still be running if the stuck code doesn't react to the abortion
+      jsonObject.addProperty("running", (endInstant == null));
+      jsonArray.add(jsonObject);
+    }
+
+    return jsonArray;
+  }
+
   private static CompletableFuture<Object> failCommand(String errorMessage) {
     JsonObject jsonObject = new JsonObject();
     jsonObject.addProperty("success", false);
@@ -0,0 +1,135 @@
+/* Copyright (C) 2020 Julian Valentin, LTeX Development Community
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package org.bsplines.ltexls.server;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import org.bsplines.ltexls.languagetool.LanguageToolRuleMatch;
+import org.bsplines.ltexls.parsing.AnnotatedTextFragment;
+import org.bsplines.ltexls.parsing.CodeFragment;
+import org.bsplines.ltexls.tools.IntervalIndex;
+import org.bsplines.ltexls.tools.Tools;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.eclipse.lsp4j.Diagnostic;
+import org.eclipse.lsp4j.PublishDiagnosticsParams;
+import org.eclipse.lsp4j.services.LanguageClient;
+import org.eclipse.xtext.xbase.lib.Pair;
+import org.languagetool.JLanguageTool;
+
+public class PartialDiagnosticsPublisher implements Consumer<
+      Pair<List<List<LanguageToolRuleMatch>>, List<AnnotatedTextFragment>>> {
+  private static final Duration minPublishingInterval = Duration.ofMillis(500);
+
+  private LanguageClient languageClient;
+  private LtexTextDocumentItem document;
+  private LtexTextDocumentSnapshot snapshot;
+  private List<LanguageToolRuleMatch> previousMatches;
+  private Instant lastPublishingInstant;
+
+  // snapshot is the state of the document that is checked; previousMatches are the matches of
+  // the last check, which are published for the code that has not been checked again yet
+  public PartialDiagnosticsPublisher(LanguageClient languageClient,
+        LtexTextDocumentItem document, LtexTextDocumentSnapshot snapshot,
+        List<LanguageToolRuleMatch> previousMatches) {
+    this.languageClient = languageClient;
+    this.document = document;
+    this.snapshot = snapshot;
+    this.previousMatches = previousMatches;
+    this.lastPublishingInstant = Instant.now();
+  }
+
+  @Override
+  public void accept(
+        Pair<List<List<LanguageToolRuleMatch>>, List<AnnotatedTextFragment>> checkingResult) {
+    // don't flood the client with diagnostics
+    Instant now = Instant.now();
+    if (Duration.between(this.lastPublishingInstant, now).compareTo(minPublishingInterval) < 0) {
+      return;
+    }
+
+    publish(checkingResult);
+  }
+
+  public void publish(
+        Pair<List<List<LanguageToolRuleMatch>>, List<AnnotatedTextFragment>> checkingResult) {
+    // positions are only valid for the checked version
+    if (this.document.getVersion() != this.snapshot.getVersion()) return;
+
+    LtexLanguageServer languageServer = this.document.getLanguageServer();
+    List<AnnotatedTextFragment> annotatedTextFragments = checkingResult.getValue();
+    List<LanguageToolRuleMatch> matches = languageServer.getDocumentChecker()
+        .removeHiddenFalsePositives(checkingResult.getKey(), annotatedTextFragments, null);
+
+    List<CodeFragment> replacingCodeFragments = getReplacingCodeFragments(annotatedTextFragments);
+    IntervalIndex codeFragmentIndex = createCodeFragmentIndex(replacingCodeFragments);
+
+    for (LanguageToolRuleMatch match : this.previousMatches) {
+      if (!isInCodeFragments(match, replacingCodeFragments, codeFragmentIndex)) {
+        matches.add(match);
+      }
+    }
+
+    List<Diagnostic> diagnostics = new ArrayList<>();
+
+    for (LanguageToolRuleMatch match : matches) {
+      diagnostics.add(languageServer.getCodeActionGenerator().createDiagnostic(
+          match, this.snapshot));
+    }
+
+    Tools.logger.fine(Tools.i18n("publishingPartialDiagnostics",
+        annotatedTextFragments.size(), this.snapshot.getUri()));
+    this.languageClient.publishDiagnostics(new PublishDiagnosticsParams(
+        this.snapshot.getUri(), this.document.extractDiagnosticsNotAtCaret(diagnostics)));
+    this.lastPublishingInstant = Instant.now();
+  }
+
+  // code fragments whose checking results replace the previous matches in them
+  private static List<CodeFragment> getReplacingCodeFragments(
+        List<AnnotatedTextFragment> annotatedTextFragments) {
+    List<CodeFragment> codeFragments = new ArrayList<>();
+
+    for (AnnotatedTextFragment annotatedTextFragment : annotatedTextFragments) {
+      // only the text-level rules are checked for fragments that have been split into chunks,
+      // so the other matches are replaced once the chunks have been checked
+      if (annotatedTextFragment.getParagraphHandling()
+            != JLanguageTool.ParagraphHandling.ONLYPARA) {
+        codeFragments.add(annotatedTextFragment.getCodeFragment());
+      }
+    }
+
+    return codeFragments;
+  }
+
+  private static IntervalIndex createCodeFragmentIndex(List<CodeFragment> codeFragments) {
+    int[] fromPositions = new int[codeFragments.size()];
+    int[] toPositions = new int[codeFragments.size()];
+
+    for (int i = 0; i < codeFragments.size(); i++) {
+      CodeFragment codeFragment = codeFragments.get(i);
+      fromPositions[i] = codeFragment.getFromPos();
+      toPositions[i] = codeFragment.getFromPos() + codeFragment.getCode().length();
+    }
+
+    return new IntervalIndex(fromPositions, toPositions);
+  }
+
+  private static boolean isInCodeFragments(LanguageToolRuleMatch match,
+        List<CodeFragment> codeFragments, IntervalIndex codeFragmentIndex) {
+    // fragments that contain the match also contain its start
+    for (int i : codeFragmentIndex.findIntersecting(match.getFromPos(), match.getFromPos())) {
+      CodeFragment codeFragment = codeFragments.get(i);
+      int toPos = codeFragment.getFromPos() + codeFragment.getCode().length();
+      if (match.getToPos() <= toPos) return true;
+    }
+
+    return false;
+  }
+}
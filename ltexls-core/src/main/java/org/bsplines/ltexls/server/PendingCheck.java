@@ -0,0 +1,63 @@
+/* Copyright (C) 2020 Julian Valentin, LTeX Development Community
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package org.bsplines.ltexls.server;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.bsplines.ltexls.languagetool.LanguageToolRuleMatch;
+import org.bsplines.ltexls.parsing.AnnotatedTextFragment;
+import org.bsplines.ltexls.tools.CancellationToken;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.eclipse.xtext.xbase.lib.Pair;
+
+// check that has not finished yet; it can be joined by concurrent requests, and it is cancelled
+// when it has been superseded or when all requests that joined it have been cancelled
+public class PendingCheck {
+  private CompletableFuture<Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>>>
+      checkingResultFuture;
+  private CancellationToken cancellationToken;
+  private int requestCount;
+
+  public PendingCheck(
+        CompletableFuture<Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>>>
+          checkingResultFuture,
+        CancellationToken cancellationToken) {
+    this.checkingResultFuture = checkingResultFuture;
+    this.cancellationToken = cancellationToken;
+    this.requestCount = 0;
+  }
+
+  // returns a future for the result that can be cancelled by the request without affecting
+  // other requests, or null if the check has already been cancelled
+  public synchronized @Nullable CompletableFuture<
+        Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>>> join() {
+    if (this.cancellationToken.isCanceled()) return null;
+    this.requestCount++;
+
+    CompletableFuture<Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>>>
+        requestFuture = this.checkingResultFuture.thenApply(
+          (Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>> checkingResult) ->
+            checkingResult);
+    requestFuture.whenComplete(
+        (@Nullable Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>> checkingResult,
+          @Nullable Throwable e) -> {
+          if (requestFuture.isCancelled()) leave();
+        });
+
+    return requestFuture;
+  }
+
+  private synchronized void leave() {
+    this.requestCount--;
+    if (this.requestCount == 0) cancel();
+  }
+
+  public void cancel() {
+    this.cancellationToken.cancel();
+  }
+}
@@ -0,0 +1,109 @@
+/* Copyright (C) 2020 Julian Valentin, LTeX Development Community
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package org.bsplines.ltexls.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
+
+// limits the number of checks that have been prepared, but whose first LanguageTool stage has
+// not finished yet, so that the annotated texts of queued checks don't pile up in memory; checks
+// wait for a permit in the order in which they asked for it, without blocking a thread
+public class PreparedCheckPermits {
+  private int availablePermitCount;
+  private Deque<WaitingCheck> waitingChecks;
+
+  public PreparedCheckPermits(int permitCount) {
+    this.availablePermitCount = permitCount;
+    this.waitingChecks = new ArrayDeque<>();
+  }
+
+  // returns a future that completes when the permit has been acquired; it is completed
+  // exceptionally with a CancellationException if the check is cancelled while waiting (which
+  // is noticed the next time a permit is acquired or released), and release has to be called
+  // if and only if it completes normally
+  public CompletableFuture<Void> acquire(CancelChecker cancelChecker) {
+    WaitingCheck waitingCheck = new WaitingCheck(cancelChecker);
+
+    synchronized (this) {
+      this.waitingChecks.addLast(waitingCheck);
+    }
+
+    grantPermits();
+    return waitingCheck.getFuture();
+  }
+
+  public void release() {
+    synchronized (this) {
+      this.availablePermitCount++;
+    }
+
+    grantPermits();
+  }
+
+  public synchronized int getAvailablePermitCount() {
+    return this.availablePermitCount;
+  }
+
+  public synchronized int getWaitingCheckCount() {
+    return this.waitingChecks.size();
+  }
+
+  private void grantPermits() {
+    List<CompletableFuture<Void>> grantedFutures = new ArrayList<>();
+    List<CompletableFuture<Void>> cancelledFutures = new ArrayList<>();
+
+    synchronized (this) {
+      for (Iterator<WaitingCheck> iterator = this.waitingChecks.iterator();
+            iterator.hasNext();) {
+        WaitingCheck waitingCheck = iterator.next();
+
+        if (waitingCheck.isCanceled()) {
+          iterator.remove();
+          cancelledFutures.add(waitingCheck.getFuture());
+        }
+      }
+
+      while ((this.availablePermitCount > 0) && !this.waitingChecks.isEmpty()) {
+        this.availablePermitCount--;
+        grantedFutures.add(this.waitingChecks.removeFirst().getFuture());
+      }
+    }
+
+    // the futures are completed outside of the lock, as their dependent stages might run in
+    // this thread
+    for (CompletableFuture<Void> future : cancelledFutures) {
+      future.completeExceptionally(new CancellationException());
+    }
+
+    for (CompletableFuture<Void> future : grantedFutures) future.complete(null);
+  }
+
+  private static class WaitingCheck {
+    private CancelChecker cancelChecker;
+    private CompletableFuture<Void> future;
+
+    public WaitingCheck(CancelChecker cancelChecker) {
+      this.cancelChecker = cancelChecker;
+      this.future = new CompletableFuture<>();
+    }
+
+    public boolean isCanceled() {
+      return this.cancelChecker.isCanceled();
+    }
+
+    public CompletableFuture<Void> getFuture() {
+      return this.future;
+    }
+  }
+}
@@ -9,6 +9,7 @@ package org.bsplines.ltexls.settings;
 
 public enum CheckFrequency {
   EDIT,
+  TIERED,
   SAVE,
   MANUAL,
 }
@@ -0,0 +1,218 @@
+/* Copyright (C) 2020 Julian Valentin, LTeX Development Community
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package org.bsplines.ltexls.settings;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import org.bsplines.ltexls.tools.BoundedCharSequence;
+import org.bsplines.ltexls.tools.Tools;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+public final class HiddenFalsePositiveIndex {
+  private static final int maxCacheSize = 16;
+  private static final int maxVerdictCacheSize = 1024;
+  // number of characters that a pattern may read while being matched against one sentence
+  // (combined patterns may read this many characters per pattern); patterns that exceed it
+  // (e.g., due to catastrophic backtracking) are disabled
+  private static final long maxRegexStepCount = 1000000;
+
+  // sentence patterns with back references, comments, or quotations can't be combined safely
+  // into one alternation
+  private static final Pattern uncombinablePattern = Pattern.compile(
+      "\\\\[1-9]|\\\\k<|\\\\Q|\\(\\?[a-zA-Z-]*x");
+
+  private static final HiddenFalsePositiveIndex emptyIndex = new HiddenFalsePositiveIndex(
+      Collections.emptySet());
+  private static final Map<Set<HiddenFalsePositive>, HiddenFalsePositiveIndex> cache =
+      new ConcurrentHashMap<>();
+
+  private final Map<String, RuleEntry> ruleEntryMap;
+
+  private static class RuleEntry {
+    // replaced as a whole when a pattern is disabled
+    private volatile List<PatternEntry> patternEntries;
+    private final Map<String, Boolean> verdictCache;
+
+    RuleEntry(List<HiddenFalsePositive> hiddenFalsePositives) {
+      this.patternEntries = combineSentencePatterns(hiddenFalsePositives);
+      this.verdictCache = new ConcurrentHashMap<>();
+    }
+
+    boolean isMatchingSentence(String sentence) {
+      @Nullable Boolean verdict = this.verdictCache.get(sentence);
+      if (verdict != null) return verdict;
+      verdict = false;
+
+      for (PatternEntry patternEntry : this.patternEntries) {
+        if (isMatchingSentence(patternEntry, sentence)) {
+          verdict = true;
+          break;
+        }
+      }
+
+      if (this.verdictCache.size() >= maxVerdictCacheSize) this.verdictCache.clear();
+      this.verdictCache.put(sentence, verdict);
+      return verdict;
+    }
+
+    private boolean isMatchingSentence(PatternEntry patternEntry, String sentence) {
+      try {
+        return patternEntry.isMatchingSentence(sentence);
+      } catch (BoundedCharSequence.StepBudgetExhaustedException e) {
+        // a combined pattern might only be slow for this sentence, so the patterns are tried one
+        // by one for it, but the combination is kept for other sentences unless one of its
+        // patterns is the culprit
+        List<HiddenFalsePositive> hiddenFalsePositives = patternEntry.hiddenFalsePositives;
+        List<HiddenFalsePositive> disabledHiddenFalsePositives = new ArrayList<>();
+        boolean matching = false;
+
+        if (hiddenFalsePositives.size() == 1) {
+          disabledHiddenFalsePositives.add(hiddenFalsePositives.get(0));
+        } else {
+          for (HiddenFalsePositive hiddenFalsePositive : hiddenFalsePositives) {
+            try {
+              if ((new PatternEntry(hiddenFalsePositive)).isMatchingSentence(sentence)) {
+                matching = true;
+                break;
+              }
+            } catch (BoundedCharSequence.StepBudgetExhaustedException e2) {
+              disabledHiddenFalsePositives.add(hiddenFalsePositive);
+            }
+          }
+        }
+
+        if (!disabledHiddenFalsePositives.isEmpty()) {
+          for (HiddenFalsePositive hiddenFalsePositive : disabledHiddenFalsePositives) {
+            Tools.logger.warning(Tools.i18n("disablingHiddenFalsePositive",
+                hiddenFalsePositive.getSentenceString(), hiddenFalsePositive.getRuleId(),
+                sentence));
+          }
+
+          List<HiddenFalsePositive> remainingHiddenFalsePositives =
+              new ArrayList<>(hiddenFalsePositives);
+          remainingHiddenFalsePositives.removeAll(disabledHiddenFalsePositives);
+          replacePatternEntry(patternEntry,
+              combineSentencePatterns(remainingHiddenFalsePositives));
+        }
+
+        return matching;
+      }
+    }
+
+    private synchronized void replacePatternEntry(PatternEntry patternEntry,
+          List<PatternEntry> replacementEntries) {
+      List<PatternEntry> patternEntries = new ArrayList<>(this.patternEntries);
+      int index = patternEntries.indexOf(patternEntry);
+      // another thread might have replaced the entry already
+      if (index == -1) return;
+      patternEntries.remove(index);
+      patternEntries.addAll(index, replacementEntries);
+      this.patternEntries = Collections.unmodifiableList(patternEntries);
+    }
+  }
+
+  // compiled pattern together with the hidden false positives it has been combined from
+  private static class PatternEntry {
+    private final Pattern sentencePattern;
+    private final List<HiddenFalsePositive> hiddenFalsePositives;
+
+    PatternEntry(HiddenFalsePositive hiddenFalsePositive) {
+      this(hiddenFalsePositive.getSentencePattern(),
+          Collections.singletonList(hiddenFalsePositive));
+    }
+
+    PatternEntry(Pattern sentencePattern, List<HiddenFalsePositive> hiddenFalsePositives) {
+      this.sentencePattern = sentencePattern;
+      this.hiddenFalsePositives = hiddenFalsePositives;
+    }
+
+    // each of the combined patterns is tried at every position of the sentence, so the budget
+    // grows with their number
+    boolean isMatchingSentence(String sentence) {
+      return this.sentencePattern.matcher(new BoundedCharSequence(sentence,
+          maxRegexStepCount * this.hiddenFalsePositives.size())).find();
+    }
+  }
+
+  private HiddenFalsePositiveIndex(Set<HiddenFalsePositive> hiddenFalsePositives) {
+    Map<String, List<HiddenFalsePositive>> ruleIdMap = new HashMap<>();
+
+    for (HiddenFalsePositive hiddenFalsePositive : hiddenFalsePositives) {
+      ruleIdMap.computeIfAbsent(hiddenFalsePositive.getRuleId(),
+          (String ruleId) -> new ArrayList<>()).add(hiddenFalsePositive);
+    }
+
+    Map<String, RuleEntry> ruleEntryMap = new HashMap<>();
+
+    for (Map.Entry<String, List<HiddenFalsePositive>> entry : ruleIdMap.entrySet()) {
+      ruleEntryMap.put(entry.getKey(), new RuleEntry(entry.getValue()));
+    }
+
+    this.ruleEntryMap = Collections.unmodifiableMap(ruleEntryMap);
+  }
+
+  private static List<PatternEntry> combineSentencePatterns(
+        List<HiddenFalsePositive> hiddenFalsePositives) {
+    List<PatternEntry> patternEntries = new ArrayList<>();
+    StringBuilder combinedPatternStringBuilder = new StringBuilder();
+    List<HiddenFalsePositive> combinableHiddenFalsePositives = new ArrayList<>();
+
+    for (HiddenFalsePositive hiddenFalsePositive : hiddenFalsePositives) {
+      String sentenceString = hiddenFalsePositive.getSentenceString();
+
+      if (uncombinablePattern.matcher(sentenceString).find()) {
+        patternEntries.add(new PatternEntry(hiddenFalsePositive));
+        continue;
+      }
+
+      if (combinedPatternStringBuilder.length() > 0) combinedPatternStringBuilder.append("|");
+      combinedPatternStringBuilder.append("(?:").append(sentenceString).append(")");
+      combinableHiddenFalsePositives.add(hiddenFalsePositive);
+    }
+
+    if (combinableHiddenFalsePositives.size() == 1) {
+      patternEntries.add(new PatternEntry(combinableHiddenFalsePositives.get(0)));
+    } else if (combinableHiddenFalsePositives.size() > 1) {
+      try {
+        patternEntries.add(new PatternEntry(
+            Pattern.compile(combinedPatternStringBuilder.toString()),
+            combinableHiddenFalsePositives));
+      } catch (PatternSyntaxException e) {
+        for (HiddenFalsePositive hiddenFalsePositive : combinableHiddenFalsePositives) {
+          patternEntries.add(new PatternEntry(hiddenFalsePositive));
+        }
+      }
+    }
+
+    return Collections.unmodifiableList(patternEntries);
+  }
+
+  public static HiddenFalsePositiveIndex get(Set<HiddenFalsePositive> hiddenFalsePositives) {
+    if (hiddenFalsePositives.isEmpty()) return emptyIndex;
+    @Nullable HiddenFalsePositiveIndex index = cache.get(hiddenFalsePositives);
+    if (index != null) return index;
+
+    // settings rarely change, so simply start over instead of tracking usage
+    if (cache.size() >= maxCacheSize) cache.clear();
+    return cache.computeIfAbsent(new HashSet<>(hiddenFalsePositives),
+        (Set<HiddenFalsePositive> key) -> new HiddenFalsePositiveIndex(key));
+  }
+
+  public boolean isHiddenFalsePositive(String ruleId, String sentence) {
+    @Nullable RuleEntry ruleEntry = this.ruleEntryMap.get(ruleId);
+    return ((ruleEntry != null) && ruleEntry.isMatchingSentence(sentence));
+  }
+}
@@ -48,8 +48,14 @@ public class Settings {
   private @Nullable Integer sentenceCacheSize;
   private @Nullable DiagnosticSeverity diagnosticSeverity;
   private @Nullable CheckFrequency checkFrequency;
+  private @Nullable Integer fullCheckDelay;
+  private @Nullable Double backgroundCheckCpuShare;
   private @Nullable Boolean clearDiagnosticsWhenClosingFile;
 
+  // settings objects are never modified after construction, so the hash code can be cached
+  // (zero means not computed yet, as in String)
+  private int hashCode;
+
   public Settings() {
     this.enabled = null;
     this.languageShortCode = null;
@@ -71,25 +77,24 @@ public class Settings {
     this.sentenceCacheSize = null;
     this.diagnosticSeverity = null;
     this.checkFrequency = null;
+    this.fullCheckDelay = null;
+    this.backgroundCheckCpuShare = null;
     this.clearDiagnosticsWhenClosingFile = null;
   }
 
   public Settings(Settings obj) {
+    // collections are never modified after construction, so they can be shared instead of
+    // copied; the withX methods replace the collections they change
     this.enabled = obj.enabled;
     this.languageShortCode = obj.languageShortCode;
-    this.dictionary = ((obj.dictionary == null) ? null : copyMapOfSets(obj.dictionary));
-    this.disabledRules = ((obj.disabledRules == null) ? null : copyMapOfSets(obj.disabledRules));
-    this.enabledRules = ((obj.enabledRules == null) ? null : copyMapOfSets(obj.enabledRules));
-    this.bibtexFields = ((obj.bibtexFields == null) ? null
-        : new HashMap<>(obj.bibtexFields));
-    this.latexCommands = ((obj.latexCommands == null) ? null
-        : new HashMap<>(obj.latexCommands));
-    this.latexEnvironments = ((obj.latexEnvironments == null) ? null
-        : new HashMap<>(obj.latexEnvironments));
-    this.markdownNodes = ((obj.markdownNodes == null) ? null
-        : new HashMap<>(obj.markdownNodes));
-    this.hiddenFalsePositives = ((obj.hiddenFalsePositives == null) ? null
-        : new HashMap<>(obj.hiddenFalsePositives));
+    this.dictionary = obj.dictionary;
+    this.disabledRules = obj.disabledRules;
+    this.enabledRules = obj.enabledRules;
+    this.bibtexFields = obj.bibtexFields;
+    this.latexCommands = obj.latexCommands;
+    this.latexEnvironments = obj.latexEnvironments;
+    this.markdownNodes = obj.markdownNodes;
+    this.hiddenFalsePositives = obj.hiddenFalsePositives;
     this.enablePickyRules = obj.enablePickyRules;
     this.motherTongueShortCode = obj.motherTongueShortCode;
     this.languageModelRulesDirectory = obj.languageModelRulesDirectory;
@@ -98,23 +103,22 @@ public class Settings {
     this.languageToolHttpServerUri = obj.languageToolHttpServerUri;
     this.logLevel = obj.logLevel;
     this.sentenceCacheSize = obj.sentenceCacheSize;
-    this.diagnosticSeverity = ((obj.diagnosticSeverity == null) ? null : obj.diagnosticSeverity);
-    this.checkFrequency = ((obj.checkFrequency == null) ? null : obj.checkFrequency);
-    this.clearDiagnosticsWhenClosingFile = ((obj.clearDiagnosticsWhenClosingFile == null) ? null
-        : obj.clearDiagnosticsWhenClosingFile);
+    this.diagnosticSeverity = obj.diagnosticSeverity;
+    this.checkFrequency = obj.checkFrequency;
+    this.fullCheckDelay = obj.fullCheckDelay;
+    this.backgroundCheckCpuShare = obj.backgroundCheckCpuShare;
+    this.clearDiagnosticsWhenClosingFile = obj.clearDiagnosticsWhenClosingFile;
   }
 
   public Settings(JsonElement jsonSettings, @Nullable JsonElement jsonWorkspaceSpecificSettings) {
     setSettings(jsonSettings, jsonWorkspaceSpecificSettings);
   }
 
-  private static Map<String, Set<String>> copyMapOfSets(Map<String, Set<String>> map) {
-    Map<String, Set<String>> mapCopy = new HashMap<>();
-
-    for (Map.Entry<String, Set<String>> entry : map.entrySet()) {
-      mapCopy.put(entry.getKey(), new HashSet<>(entry.getValue()));
-    }
-
+  private static <T> Map<String, Set<T>> copyMapOfSetsWithEntry(
+        @Nullable Map<String, Set<T>> map, String key, Set<T> value) {
+    // only the outer map is copied, the sets of the other keys are shared
+    Map<String, Set<T>> mapCopy = ((map != null) ? new HashMap<>(map) : new HashMap<>());
+    mapCopy.put(key, new HashSet<>(value));
     return mapCopy;
   }
 
@@ -188,17 +192,23 @@ public class Settings {
 
   private static <T> boolean mapOfSetsEqual(@Nullable Map<String, Set<T>> map1,
         @Nullable Map<String, Set<T>> map2, @Nullable String key) {
-    if (key == null) return true;
+    if ((key == null) || (map1 == map2)) return true;
 
     if ((map1 != null) && (map2 != null)) {
       @Nullable Set<T> set1 = map1.get(key);
       @Nullable Set<T> set2 = map2.get(key);
+      if (set1 == set2) return true;
       return ((set1 != null) ? set1.equals(set2) : (set2 == null));
     } else {
       return ((map1 != null) ? (map2 != null) : (map2 == null));
     }
   }
 
+  private static <T> @Nullable Set<T> getMapOfSetsEntry(
+        @Nullable Map<String, Set<T>> map, String key) {
+    return ((map != null) ? map.get(key) : null);
+  }
+
   private static <T> int mapOfSetsHashCode(
         @Nullable Map<String, Set<T>> map, @Nullable String key) {
     return (((map != null) && (key != null) && map.containsKey(key)) ? map.get(key).hashCode() : 0);
@@ -307,6 +317,8 @@ public class Settings {
       // setting not set
     }
 
+    this.latexCommands = Collections.unmodifiableMap(latexCommands);
+
     this.latexEnvironments = new HashMap<>();
 
     // fixes false-positive argument.type.incompatible warnings
@@ -319,6 +331,8 @@ public class Settings {
       // setting not set
     }
 
+    this.latexEnvironments = Collections.unmodifiableMap(latexEnvironments);
+
     this.markdownNodes = new HashMap<>();
 
     // fixes false-positive argument.type.incompatible warnings
@@ -412,6 +426,8 @@ public class Settings {
 
       if (checkFrequencyString.equals("edit")) {
         this.checkFrequency = CheckFrequency.EDIT;
+      } else if (checkFrequencyString.equals("tiered")) {
+        this.checkFrequency = CheckFrequency.TIERED;
       } else if (checkFrequencyString.equals("save")) {
         this.checkFrequency = CheckFrequency.SAVE;
       } else if (checkFrequencyString.equals("manual")) {
@@ -423,6 +439,19 @@ public class Settings {
       this.checkFrequency = null;
     }
 
+    try {
+      this.fullCheckDelay = getSettingFromJson(jsonSettings, "fullCheckDelay").getAsInt();
+    } catch (NullPointerException | UnsupportedOperationException | IllegalStateException e) {
+      this.fullCheckDelay = null;
+    }
+
+    try {
+      this.backgroundCheckCpuShare = getSettingFromJson(
+          jsonSettings, "backgroundCheckCpuShare").getAsDouble();
+    } catch (NullPointerException | UnsupportedOperationException | IllegalStateException e) {
+      this.backgroundCheckCpuShare = null;
+    }
+
     try {
       this.clearDiagnosticsWhenClosingFile = getSettingFromJson(
           jsonSettings, "clearDiagnosticsWhenClosingFile").getAsBoolean();
@@ -433,8 +462,10 @@ public class Settings {
 
   @Override
   public boolean equals(@Nullable Object obj) {
+    if (obj == this) return true;
     if ((obj == null) || !Settings.class.isAssignableFrom(obj.getClass())) return false;
     Settings other = (Settings)obj;
+    if (hashCode() != other.hashCode()) return false;
 
     if (!Tools.equals(this.enabled, other.enabled)) return false;
     if (!Tools.equals(this.languageShortCode, other.languageShortCode)) return false;
@@ -484,6 +515,8 @@ public class Settings {
     if (!Tools.equals(this.sentenceCacheSize, other.sentenceCacheSize)) return false;
     if (!Tools.equals(this.diagnosticSeverity, other.diagnosticSeverity)) return false;
     if (!Tools.equals(this.checkFrequency, other.checkFrequency)) return false;
+    if (!Tools.equals(this.fullCheckDelay, other.fullCheckDelay)) return false;
+    if (!Tools.equals(this.backgroundCheckCpuShare, other.backgroundCheckCpuShare)) return false;
 
     if (!Tools.equals(this.clearDiagnosticsWhenClosingFile,
           other.clearDiagnosticsWhenClosingFile)) {
@@ -499,6 +532,8 @@ public class Settings {
     if (other == null) {
       differences.add(new SettingsDifference("settings", "non-null", "null"));
       return differences;
+    } else if (other == this) {
+      return differences;
     }
 
     if (!mapOfSetsEqual(this.dictionary, other.dictionary, this.languageShortCode)) {
@@ -550,8 +585,68 @@ public class Settings {
     return differences;
   }
 
+  // settings with the same key have no differences relevant for LanguageTool (see
+  // getDifferencesRelevantForLanguageTool), so they can share LanguageTool instances
+  public List<@Nullable Object> getLanguageToolKey() {
+    String languageShortCode = getLanguageShortCode();
+    return Arrays.asList(languageShortCode,
+        getMapOfSetsEntry(this.dictionary, languageShortCode),
+        getMapOfSetsEntry(this.disabledRules, languageShortCode),
+        getMapOfSetsEntry(this.enabledRules, languageShortCode),
+        this.motherTongueShortCode, this.languageModelRulesDirectory,
+        this.neuralNetworkModelRulesDirectory, this.word2VecModelRulesDirectory,
+        this.languageToolHttpServerUri, this.sentenceCacheSize);
+  }
+
+  public SettingsChangeImpact getChangeImpact(@Nullable Settings other) {
+    if (other == null) return SettingsChangeImpact.LANGUAGE_TOOL;
+    if (other == this) return SettingsChangeImpact.NONE;
+
+    // compare the maps for all languages, as magic comments may switch the language of parts
+    // of the document
+    if (!Tools.equals(this.enabled, other.enabled)
+          || !Tools.equals(this.languageShortCode, other.languageShortCode)
+          || !Tools.equals(this.dictionary, other.dictionary)
+          || !Tools.equals(this.disabledRules, other.disabledRules)
+          || !Tools.equals(this.enabledRules, other.enabledRules)
+          || !Tools.equals(this.enablePickyRules, other.enablePickyRules)
+          || !Tools.equals(this.motherTongueShortCode, other.motherTongueShortCode)
+          || !Tools.equals(this.languageModelRulesDirectory, other.languageModelRulesDirectory)
+          || !Tools.equals(this.neuralNetworkModelRulesDirectory,
+            other.neuralNetworkModelRulesDirectory)
+          || !Tools.equals(this.word2VecModelRulesDirectory, other.word2VecModelRulesDirectory)
+          || !Tools.equals(this.languageToolHttpServerUri, other.languageToolHttpServerUri)
+          || !Tools.equals(this.sentenceCacheSize, other.sentenceCacheSize)) {
+      return SettingsChangeImpact.LANGUAGE_TOOL;
+    }
+
+    if (!Tools.equals(this.bibtexFields, other.bibtexFields)
+          || !Tools.equals(this.latexCommands, other.latexCommands)
+          || !Tools.equals(this.latexEnvironments, other.latexEnvironments)
+          || !Tools.equals(this.markdownNodes, other.markdownNodes)) {
+      return SettingsChangeImpact.ANNOTATED_TEXT;
+    }
+
+    if (!Tools.equals(this.hiddenFalsePositives, other.hiddenFalsePositives)) {
+      return SettingsChangeImpact.HIDDEN_FALSE_POSITIVES;
+    }
+
+    if (!Tools.equals(this.logLevel, other.logLevel)
+          || !Tools.equals(this.diagnosticSeverity, other.diagnosticSeverity)
+          || !Tools.equals(this.checkFrequency, other.checkFrequency)
+          || !Tools.equals(this.fullCheckDelay, other.fullCheckDelay)
+          || !Tools.equals(this.backgroundCheckCpuShare, other.backgroundCheckCpuShare)
+          || !Tools.equals(this.clearDiagnosticsWhenClosingFile,
+            other.clearDiagnosticsWhenClosingFile)) {
+      return SettingsChangeImpact.DIAGNOSTICS;
+    }
+
+    return SettingsChangeImpact.NONE;
+  }
+
   @Override
   public int hashCode() {
+    if (this.hashCode != 0) return this.hashCode;
     int hash = 3;
 
     hash = 53 * hash + ((this.enabled != null) ? this.enabled.hashCode() : 0);
@@ -580,9 +675,13 @@ public class Settings {
         ? this.sentenceCacheSize.hashCode() : 0);
     hash = 53 * hash + ((this.diagnosticSeverity != null) ? this.diagnosticSeverity.hashCode() : 0);
     hash = 53 * hash + ((this.checkFrequency != null) ? this.checkFrequency.hashCode() : 0);
+    hash = 53 * hash + ((this.fullCheckDelay != null) ? this.fullCheckDelay.hashCode() : 0);
+    hash = 53 * hash + ((this.backgroundCheckCpuShare != null)
+        ? this.backgroundCheckCpuShare.hashCode() : 0);
     hash = 53 * hash + ((this.clearDiagnosticsWhenClosingFile != null)
         ? this.clearDiagnosticsWhenClosingFile.hashCode() : 0);
 
+    this.hashCode = hash;
     return hash;
   }
 
@@ -628,14 +727,14 @@ public class Settings {
         getDefault(this.bibtexFields, Collections.emptyMap()));
   }
 
+  // the maps are unmodifiable and shared between copies of the settings, so their identity can be
+  // used as a cache key (see LatexGrammar)
   public Map<String, String> getLatexCommands() {
-    return Collections.unmodifiableMap(
-        getDefault(this.latexCommands, Collections.emptyMap()));
+    return getDefault(this.latexCommands, Collections.emptyMap());
   }
 
   public Map<String, String> getLatexEnvironments() {
-    return Collections.unmodifiableMap(
-        getDefault(this.latexEnvironments, Collections.emptyMap()));
+    return getDefault(this.latexEnvironments, Collections.emptyMap());
   }
 
   public Map<String, String> getMarkdownNodes() {
@@ -683,6 +782,16 @@ public class Settings {
     return getDefault(this.checkFrequency, CheckFrequency.EDIT);
   }
 
+  public Integer getFullCheckDelay() {
+    return getDefault(this.fullCheckDelay, 1000);
+  }
+
+  // fraction of all processors that checks started in the background (when opening documents,
+  // after settings changes, or via ltex.checkDocument) may use
+  public Double getBackgroundCheckCpuShare() {
+    return getDefault(this.backgroundCheckCpuShare, 0.5);
+  }
+
   public Boolean getClearDiagnosticsWhenClosingFile() {
     return getDefault(this.clearDiagnosticsWhenClosingFile, true);
   }
@@ -705,29 +814,28 @@ public class Settings {
 
   public Settings withDictionary(Set<String> dictionary) {
     Settings obj = new Settings(this);
-    if (obj.dictionary == null) obj.dictionary = new HashMap<>();
-    obj.dictionary.put(getLanguageShortCode(), new HashSet<>(dictionary));
+    obj.dictionary = copyMapOfSetsWithEntry(this.dictionary, getLanguageShortCode(), dictionary);
     return obj;
   }
 
   public Settings withDisabledRules(Set<String> disabledRules) {
     Settings obj = new Settings(this);
-    if (obj.disabledRules == null) obj.disabledRules = new HashMap<>();
-    obj.disabledRules.put(getLanguageShortCode(), new HashSet<>(disabledRules));
+    obj.disabledRules = copyMapOfSetsWithEntry(
+        this.disabledRules, getLanguageShortCode(), disabledRules);
     return obj;
   }
 
   public Settings withEnabledRules(Set<String> enabledRules) {
     Settings obj = new Settings(this);
-    if (obj.enabledRules == null) obj.enabledRules = new HashMap<>();
-    obj.enabledRules.put(getLanguageShortCode(), new HashSet<>(enabledRules));
+    obj.enabledRules = copyMapOfSetsWithEntry(
+        this.enabledRules, getLanguageShortCode(), enabledRules);
     return obj;
   }
 
   public Settings withHiddenFalsePositives(Set<HiddenFalsePositive> hiddenFalsePositives) {
     Settings obj = new Settings(this);
-    if (obj.hiddenFalsePositives == null) obj.hiddenFalsePositives = new HashMap<>();
-    obj.hiddenFalsePositives.put(getLanguageShortCode(), new HashSet<>(hiddenFalsePositives));
+    obj.hiddenFalsePositives = copyMapOfSetsWithEntry(
+        this.hiddenFalsePositives, getLanguageShortCode(), hiddenFalsePositives);
     return obj;
   }
 
@@ -739,13 +847,13 @@ public class Settings {
 
   public Settings withLatexCommands(Map<String, String> latexCommands) {
     Settings obj = new Settings(this);
-    obj.latexCommands = new HashMap<>(latexCommands);
+    obj.latexCommands = Collections.unmodifiableMap(new HashMap<>(latexCommands));
     return obj;
   }
 
   public Settings withLatexEnvironments(Map<String, String> latexEnvironments) {
     Settings obj = new Settings(this);
-    obj.latexEnvironments = new HashMap<>(latexEnvironments);
+    obj.latexEnvironments = Collections.unmodifiableMap(new HashMap<>(latexEnvironments));
     return obj;
   }
 
@@ -815,6 +923,18 @@ public class Settings {
     return obj;
   }
 
+  public Settings withFullCheckDelay(Integer fullCheckDelay) {
+    Settings obj = new Settings(this);
+    obj.fullCheckDelay = fullCheckDelay;
+    return obj;
+  }
+
+  public Settings withBackgroundCheckCpuShare(Double backgroundCheckCpuShare) {
+    Settings obj = new Settings(this);
+    obj.backgroundCheckCpuShare = backgroundCheckCpuShare;
+    return obj;
+  }
+
   public Settings withClearDiagnosticsWhenClosingFile(Boolean clearDiagnosticsWhenClosingFile) {
     Settings obj = new Settings(this);
     obj.clearDiagnosticsWhenClosingFile = clearDiagnosticsWhenClosingFile;
@@ -0,0 +1,17 @@
+/* Copyright (C) 2020 Julian Valentin, LTeX Development Community
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package org.bsplines.ltexls.settings;
+
+// ordered by checking stage, a settings change invalidates its stage and all following stages
+public enum SettingsChangeImpact {
+  NONE,
+  DIAGNOSTICS,
+  HIDDEN_FALSE_POSITIVES,
+  ANNOTATED_TEXT,
+  LANGUAGE_TOOL,
+}
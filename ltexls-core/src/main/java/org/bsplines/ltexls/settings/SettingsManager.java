@@ -8,24 +8,52 @@
 package org.bsplines.ltexls.settings;
 
 import com.google.gson.JsonElement;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import org.bsplines.ltexls.languagetool.LanguageToolHttpInterface;
 import org.bsplines.ltexls.languagetool.LanguageToolInterface;
 import org.bsplines.ltexls.languagetool.LanguageToolJavaInterface;
 import org.bsplines.ltexls.tools.Tools;
-import org.checkerframework.checker.initialization.qual.UnknownInitialization;
 import org.checkerframework.checker.nullness.qual.Nullable;
-import org.checkerframework.checker.nullness.qual.RequiresNonNull;
 
 public class SettingsManager {
+  private static final int maxCachedSettingsSize = 128;
+  private static final int maxLanguageToolInterfaceSetCount = 8;
+
+  // LanguageTool interfaces per language and settings relevant for LanguageTool (see
+  // Settings.getLanguageToolKey), so that concurrent checks of documents with different settings
+  // don't reinitialize each other's interfaces; in access order, so that the least recently used
+  // set can be dropped
+  private LinkedHashMap<List<@Nullable Object>, LanguageToolInterfaceSet>
+      languageToolInterfaceSetMap;
+  // settings of the last interface that has been created per language, to log the differences
+  // when the next one is created
   private HashMap<String, Settings> settingsMap;
-  private HashMap<String, @Nullable LanguageToolInterface> languageToolInterfaceMap;
 
-  private Settings settings;
-  private @Nullable LanguageToolInterface languageToolInterface;
+  // resolved settings per scope URI, so that checks don't have to ask the client for the
+  // configuration every time; cleared when the client reports a configuration change; guarded
+  // by its own lock (not by this), as it is accessed from the LSP thread, which must not wait
+  // for a reinitialization of LanguageTool
+  private Map<String, Settings> cachedSettingsMap;
+  // identical JSON configurations are mapped to the same Settings object, which lets
+  // setSettings skip parsing and diffing (if two threads parse the same configuration at the
+  // same time, one of the results is simply dropped)
+  private Map<List<@Nullable JsonElement>, Settings> jsonSettingsMap;
+  private int cachedSettingsGeneration;
+
+  // settings of the last document that has been checked (used for settings that don't depend on
+  // the document, e.g., the check frequency)
+  private volatile Settings settings;
 
   public SettingsManager() {
     this(new Settings());
@@ -33,58 +61,66 @@ public class SettingsManager {
 
   public SettingsManager(Settings settings) {
     this.settings = settings;
-    reinitializeLanguageToolInterface();
-    String language = this.settings.getLanguageShortCode();
+    this.languageToolInterfaceSetMap = new LinkedHashMap<>(16, 0.75f, true);
     this.settingsMap = new HashMap<>();
-    this.settingsMap.put(language, this.settings);
-    this.languageToolInterfaceMap = new HashMap<>();
-    this.languageToolInterfaceMap.put(language, this.languageToolInterface);
+    this.cachedSettingsMap = new HashMap<>();
+    this.jsonSettingsMap = new ConcurrentHashMap<>();
+    this.cachedSettingsGeneration = 0;
     Tools.setLogLevel(settings.getLogLevel());
+    getLanguageToolInterface(settings, 0);
   }
 
-  @RequiresNonNull({"settings"})
-  private void reinitializeLanguageToolInterface(
-        @UnknownInitialization(Object.class) SettingsManager this) {
-    if (this.settings.getLanguageToolHttpServerUri().isEmpty()) {
-      this.languageToolInterface = new LanguageToolJavaInterface(
-          this.settings.getLanguageShortCode(),
-          this.settings.getMotherTongueShortCode(), this.settings.getSentenceCacheSize(),
-          this.settings.getDictionary());
-    } else {
-      this.languageToolInterface = new LanguageToolHttpInterface(
-          this.settings.getLanguageToolHttpServerUri(), this.settings.getLanguageShortCode(),
-          this.settings.getMotherTongueShortCode());
+  // LanguageTool interfaces with the same settings; the first one is used by all checks, and the
+  // others are only created when chunks of long fragments are checked concurrently
+  private static class LanguageToolInterfaceSet {
+    // null for interfaces that haven't been requested yet; the future of an interface is
+    // completed by the thread that has requested it first, outside of the lock of the manager
+    private List<@Nullable CompletableFuture<@Nullable LanguageToolInterface>> interfaceFutures;
+
+    LanguageToolInterfaceSet() {
+      this.interfaceFutures = new ArrayList<>();
     }
+  }
 
-    if (!this.languageToolInterface.isReady()) {
-      this.languageToolInterface = null;
-      return;
+  private static @Nullable LanguageToolInterface createLanguageToolInterface(
+        Settings settings) {
+    LanguageToolInterface languageToolInterface;
+
+    if (settings.getLanguageToolHttpServerUri().isEmpty()) {
+      languageToolInterface = new LanguageToolJavaInterface(
+          settings.getLanguageShortCode(),
+          settings.getMotherTongueShortCode(), settings.getSentenceCacheSize(),
+          settings.getDictionary());
+    } else {
+      languageToolInterface = new LanguageToolHttpInterface(
+          settings.getLanguageToolHttpServerUri(), settings.getLanguageShortCode(),
+          settings.getMotherTongueShortCode());
     }
 
-    // fixes false-positive dereference.of.nullable warnings
-    LanguageToolInterface languageToolInterface = this.languageToolInterface;
+    if (!languageToolInterface.isReady()) return null;
 
-    if (!this.settings.getLanguageModelRulesDirectory().isEmpty()) {
+    if (!settings.getLanguageModelRulesDirectory().isEmpty()) {
       languageToolInterface.activateLanguageModelRules(
-          this.settings.getLanguageModelRulesDirectory());
+          settings.getLanguageModelRulesDirectory());
     } else {
-      if (!this.settings.getMotherTongueShortCode().isEmpty()) {
+      if (!settings.getMotherTongueShortCode().isEmpty()) {
         languageToolInterface.activateDefaultFalseFriendRules();
       }
     }
 
-    if (!this.settings.getNeuralNetworkModelRulesDirectory().isEmpty()) {
+    if (!settings.getNeuralNetworkModelRulesDirectory().isEmpty()) {
       languageToolInterface.activateNeuralNetworkRules(
-          this.settings.getNeuralNetworkModelRulesDirectory());
+          settings.getNeuralNetworkModelRulesDirectory());
     }
 
-    if (!this.settings.getWord2VecModelRulesDirectory().isEmpty()) {
+    if (!settings.getWord2VecModelRulesDirectory().isEmpty()) {
       languageToolInterface.activateWord2VecModelRules(
-          this.settings.getWord2VecModelRulesDirectory());
+          settings.getWord2VecModelRulesDirectory());
     }
 
-    languageToolInterface.enableRules(this.settings.getEnabledRules());
-    languageToolInterface.disableRules(this.settings.getDisabledRules());
+    languageToolInterface.enableRules(settings.getEnabledRules());
+    languageToolInterface.disableRules(settings.getDisabledRules());
+    return languageToolInterface;
   }
 
   public Settings getSettings() {
@@ -92,41 +128,188 @@ public class SettingsManager {
   }
 
   public @Nullable LanguageToolInterface getLanguageToolInterface() {
-    return this.languageToolInterface;
+    return getLanguageToolInterface(this.settings);
   }
 
   public void setSettings(JsonElement newJsonSettings,
         @Nullable JsonElement newJsonWorkspaceSpecificSettings) {
-    Settings newSettings = new Settings(newJsonSettings, newJsonWorkspaceSpecificSettings);
-    setSettings(newSettings);
+    setSettings(convertJsonSettings(newJsonSettings, newJsonWorkspaceSpecificSettings));
   }
 
-  public void setSettings(Settings newSettings) {
+  private Settings convertJsonSettings(JsonElement jsonSettings,
+        @Nullable JsonElement jsonWorkspaceSpecificSettings) {
+    List<@Nullable JsonElement> key = Arrays.asList(jsonSettings, jsonWorkspaceSpecificSettings);
+    @Nullable Settings settings = this.jsonSettingsMap.get(key);
+    if (settings != null) return settings;
+
+    settings = new Settings(jsonSettings, jsonWorkspaceSpecificSettings);
+    if (this.jsonSettingsMap.size() >= maxCachedSettingsSize) this.jsonSettingsMap.clear();
+    this.jsonSettingsMap.put(key, settings);
+    return settings;
+  }
+
+  public @Nullable Settings getCachedSettings(String scopeUri) {
+    synchronized (this.cachedSettingsMap) {
+      return this.cachedSettingsMap.get(scopeUri);
+    }
+  }
+
+  public int getCachedSettingsGeneration() {
+    synchronized (this.cachedSettingsMap) {
+      return this.cachedSettingsGeneration;
+    }
+  }
+
+  public Settings cacheSettings(String scopeUri, int cachedSettingsGeneration,
+        JsonElement jsonSettings, @Nullable JsonElement jsonWorkspaceSpecificSettings) {
+    Settings settings = convertJsonSettings(jsonSettings, jsonWorkspaceSpecificSettings);
+
+    synchronized (this.cachedSettingsMap) {
+      // don't cache settings that were requested before the last configuration change
+      if (cachedSettingsGeneration == this.cachedSettingsGeneration) {
+        if (this.cachedSettingsMap.size() >= maxCachedSettingsSize) {
+          this.cachedSettingsMap.clear();
+        }
+
+        this.cachedSettingsMap.put(scopeUri, settings);
+      }
+    }
+
+    return settings;
+  }
+
+  public void invalidateCachedSettings() {
+    synchronized (this.cachedSettingsMap) {
+      this.cachedSettingsMap.clear();
+      this.cachedSettingsGeneration++;
+    }
+  }
+
+  // settings requested before the invalidation are not cached afterwards, even for other scopes,
+  // as a request doesn't know which invalidations it has missed
+  public void invalidateCachedSettings(String scopeUri) {
+    synchronized (this.cachedSettingsMap) {
+      this.cachedSettingsMap.remove(scopeUri);
+      this.cachedSettingsGeneration++;
+    }
+  }
+
+  public @Nullable LanguageToolInterface getLanguageToolInterface(Settings newSettings) {
+    return getLanguageToolInterface(newSettings, 0);
+  }
+
+  // returns the LanguageTool interface for the settings, which is created if there is none for
+  // the same language and settings relevant for LanguageTool; indices other than 0 return
+  // additional interfaces with the same settings, which can check at the same time as the first
+  // one; doesn't change the current settings
+  public @Nullable LanguageToolInterface getLanguageToolInterface(
+        Settings newSettings, int index) {
+    CompletableFuture<@Nullable LanguageToolInterface> interfaceFuture;
+    boolean creatingInterface = false;
+
+    synchronized (this) {
+      List<@Nullable Object> key = newSettings.getLanguageToolKey();
+      @Nullable LanguageToolInterfaceSet interfaceSet = this.languageToolInterfaceSetMap.get(key);
+
+      if (interfaceSet == null) {
+        interfaceSet = new LanguageToolInterfaceSet();
+        this.languageToolInterfaceSetMap.put(key, interfaceSet);
+
+        if (this.languageToolInterfaceSetMap.size() > maxLanguageToolInterfaceSetCount) {
+          Iterator<List<@Nullable Object>> iterator =
+              this.languageToolInterfaceSetMap.keySet().iterator();
+          iterator.next();
+          iterator.remove();
+        }
+      }
+
+      List<@Nullable CompletableFuture<@Nullable LanguageToolInterface>> interfaceFutures =
+          interfaceSet.interfaceFutures;
+      while (interfaceFutures.size() <= index) interfaceFutures.add(null);
+      @Nullable CompletableFuture<@Nullable LanguageToolInterface> existingInterfaceFuture =
+          interfaceFutures.get(index);
+
+      if (existingInterfaceFuture != null) {
+        interfaceFuture = existingInterfaceFuture;
+      } else {
+        interfaceFuture = new CompletableFuture<>();
+        interfaceFutures.set(index, interfaceFuture);
+        creatingInterface = true;
+        logCreatingLanguageToolInterface(newSettings, index);
+      }
+    }
+
+    if (creatingInterface) {
+      try {
+        interfaceFuture.complete(createLanguageToolInterface(newSettings));
+      } catch (RuntimeException e) {
+        // the next request tries again
+        removeLanguageToolInterfaceFuture(newSettings, index, interfaceFuture);
+        interfaceFuture.completeExceptionally(e);
+        throw e;
+      }
+    }
+
+    return interfaceFuture.join();
+  }
+
+  private void logCreatingLanguageToolInterface(Settings newSettings, int index) {
     String newLanguage = newSettings.getLanguageShortCode();
 
-    final @Nullable Settings oldSettings = this.settingsMap.get(newLanguage);
+    if (index > 0) {
+      Tools.logger.fine(Tools.i18n("initializingAdditionalLanguageToolInstance", newLanguage));
+      return;
+    }
 
-    setSettings(newLanguage, newSettings);
+    @Nullable Settings oldSettings = this.settingsMap.get(newLanguage);
+    this.settingsMap.put(newLanguage, newSettings);
 
+    if ((oldSettings == null) || !Tools.logger.isLoggable(Level.FINE)) return;
     Set<SettingsDifference> settingsDifferencesRelevantForLanguageTool =
         newSettings.getDifferencesRelevantForLanguageTool(oldSettings);
 
-    if (settingsDifferencesRelevantForLanguageTool.isEmpty()) {
-      this.languageToolInterface = this.languageToolInterfaceMap.get(newLanguage);
-    } else {
-      if (Tools.logger.isLoggable(Level.FINE)) {
-        logDifferentSettings(newLanguage, settingsDifferencesRelevantForLanguageTool);
+    if (!settingsDifferencesRelevantForLanguageTool.isEmpty()) {
+      logDifferentSettings(newLanguage, settingsDifferencesRelevantForLanguageTool);
+    }
+  }
+
+  // drops the interface (e.g., if it is stuck in a check that could not be aborted), so that the
+  // next request for it creates a new one
+  public synchronized void retireLanguageToolInterface(
+        LanguageToolInterface languageToolInterface) {
+    for (LanguageToolInterfaceSet interfaceSet : this.languageToolInterfaceSetMap.values()) {
+      List<@Nullable CompletableFuture<@Nullable LanguageToolInterface>> interfaceFutures =
+          interfaceSet.interfaceFutures;
+
+      for (int i = 0; i < interfaceFutures.size(); i++) {
+        @Nullable CompletableFuture<@Nullable LanguageToolInterface> interfaceFuture =
+            interfaceFutures.get(i);
+
+        if ((interfaceFuture != null) && interfaceFuture.isDone()
+              && !interfaceFuture.isCompletedExceptionally()
+              && (interfaceFuture.join() == languageToolInterface)) {
+          interfaceFutures.set(i, null);
+          return;
+        }
       }
+    }
+  }
+
+  private synchronized void removeLanguageToolInterfaceFuture(Settings settings, int index,
+        CompletableFuture<@Nullable LanguageToolInterface> interfaceFuture) {
+    @Nullable LanguageToolInterfaceSet interfaceSet =
+        this.languageToolInterfaceSetMap.get(settings.getLanguageToolKey());
 
-      reinitializeLanguageToolInterface();
-      this.languageToolInterfaceMap.put(newLanguage, this.languageToolInterface);
+    if ((interfaceSet != null) && (interfaceSet.interfaceFutures.get(index) == interfaceFuture)) {
+      interfaceSet.interfaceFutures.set(index, null);
     }
   }
 
-  private void setSettings(String newLanguage, Settings newSettings) {
+  // only replaces the current settings; the LanguageTool interface for them is (re)initialized
+  // when it is requested
+  public void setSettings(Settings newSettings) {
     this.settings = newSettings;
-    this.settingsMap.put(newLanguage, this.settings);
-    Tools.setLogLevel(this.settings.getLogLevel());
+    Tools.setLogLevel(newSettings.getLogLevel());
   }
 
   private static void logDifferentSettings(String newLanguage,
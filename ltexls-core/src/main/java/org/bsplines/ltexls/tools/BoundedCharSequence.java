@@ -0,0 +1,58 @@
+/* Copyright (C) 2020 Julian Valentin, LTeX Development Community
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package org.bsplines.ltexls.tools;
+
+// character sequence that throws a StepBudgetExhaustedException after a given number of
+// character accesses; matching a regular expression against it therefore stops even if the
+// regular expression backtracks catastrophically (java.util.regex reads every character it
+// examines via charAt)
+public class BoundedCharSequence implements CharSequence {
+  private CharSequence charSequence;
+  private long[] remainingStepCount;
+
+  public BoundedCharSequence(CharSequence charSequence, long maxStepCount) {
+    this(charSequence, new long[] {maxStepCount});
+  }
+
+  // subsequences share the budget of the sequence they have been created from
+  private BoundedCharSequence(CharSequence charSequence, long[] remainingStepCount) {
+    this.charSequence = charSequence;
+    this.remainingStepCount = remainingStepCount;
+  }
+
+  @Override
+  public char charAt(int index) {
+    if (--this.remainingStepCount[0] < 0) throw new StepBudgetExhaustedException();
+    return this.charSequence.charAt(index);
+  }
+
+  @Override
+  public int length() {
+    return this.charSequence.length();
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    return new BoundedCharSequence(this.charSequence.subSequence(start, end),
+        this.remainingStepCount);
+  }
+
+  @Override
+  public String toString() {
+    return this.charSequence.toString();
+  }
+
+  public static class StepBudgetExhaustedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public StepBudgetExhaustedException() {
+      // the stack trace would be deep and is never needed
+      super(null, null, false, false);
+    }
+  }
+}
@@ -0,0 +1,35 @@
+/* Copyright (C) 2020 Julian Valentin, LTeX Development Community
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package org.bsplines.ltexls.tools;
+
+import java.util.concurrent.CancellationException;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
+
+// flag that is set once a check has been cancelled; long-running operations poll it and throw a
+// CancellationException, so that no more work is done for results that would be discarded
+public class CancellationToken implements CancelChecker {
+  private volatile boolean canceled;
+
+  public CancellationToken() {
+    this.canceled = false;
+  }
+
+  public void cancel() {
+    this.canceled = true;
+  }
+
+  @Override
+  public void checkCanceled() {
+    if (this.canceled) throw new CancellationException();
+  }
+
+  @Override
+  public boolean isCanceled() {
+    return this.canceled;
+  }
+}
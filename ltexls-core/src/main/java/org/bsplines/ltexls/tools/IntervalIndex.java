@@ -0,0 +1,78 @@
+/* Copyright (C) 2020 Julian Valentin, LTeX Development Community
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package org.bsplines.ltexls.tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// static index over closed intervals [fromPos, toPos], stored as an implicit balanced search tree
+// (sorted by fromPos) in which every node knows the maximum toPos of its subtree
+public final class IntervalIndex {
+  private final int[] indices;
+  private final int[] fromPositions;
+  private final int[] toPositions;
+  private final int[] maxToPositions;
+
+  public IntervalIndex(int[] fromPositions, int[] toPositions) {
+    int n = fromPositions.length;
+    long[] sortKeys = new long[n];
+
+    for (int i = 0; i < n; i++) {
+      sortKeys[i] = ((long)fromPositions[i] << 32) | i;
+    }
+
+    Arrays.sort(sortKeys);
+    this.indices = new int[n];
+    this.fromPositions = new int[n];
+    this.toPositions = new int[n];
+    this.maxToPositions = new int[n];
+
+    for (int i = 0; i < n; i++) {
+      int index = (int)sortKeys[i];
+      this.indices[i] = index;
+      this.fromPositions[i] = fromPositions[index];
+      this.toPositions[i] = toPositions[index];
+    }
+
+    initializeMaxToPositions(0, n);
+  }
+
+  private int initializeMaxToPositions(int lo, int hi) {
+    if (lo >= hi) return Integer.MIN_VALUE;
+    int mid = (lo + hi) >>> 1;
+    int maxToPosition = Math.max(this.toPositions[mid], Math.max(
+        initializeMaxToPositions(lo, mid), initializeMaxToPositions(mid + 1, hi)));
+    this.maxToPositions[mid] = maxToPosition;
+    return maxToPosition;
+  }
+
+  public int size() {
+    return this.indices.length;
+  }
+
+  // returns the indices of all intervals that intersect [fromPos, toPos] in ascending order
+  public List<Integer> findIntersecting(int fromPos, int toPos) {
+    List<Integer> result = new ArrayList<>();
+    findIntersecting(0, this.indices.length, fromPos, toPos, result);
+    if (result.size() > 1) Collections.sort(result);
+    return result;
+  }
+
+  private void findIntersecting(int lo, int hi, int fromPos, int toPos, List<Integer> result) {
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (this.maxToPositions[mid] < fromPos) return;
+      findIntersecting(lo, mid, fromPos, toPos, result);
+      if (this.fromPositions[mid] > toPos) return;
+      if (this.toPositions[mid] >= fromPos) result.add(this.indices[mid]);
+      lo = mid + 1;
+    }
+  }
+}
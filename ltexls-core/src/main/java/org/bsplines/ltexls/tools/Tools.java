@@ -25,8 +25,6 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
-import org.eclipse.lsp4j.Position;
-import org.eclipse.lsp4j.Range;
 
 public class Tools {
   private static @MonotonicNonNull ResourceBundle messages = null;
@@ -119,17 +117,6 @@ public class Tools {
     Tools.messages = ResourceBundle.getBundle("MessagesBundle", locale);
   }
 
-  public static boolean areRangesIntersecting(Range range1, Range range2) {
-    return !(positionLower(range2.getEnd(), range1.getStart())
-        || positionLower(range1.getEnd(), range2.getStart()));
-  }
-
-  private static boolean positionLower(Position position1, Position position2) {
-    return ((position1.getLine() < position2.getLine())
-        || ((position1.getLine() == position2.getLine())
-        && (position1.getCharacter() < position2.getCharacter())));
-  }
-
   public static boolean equals(@Nullable Object object1, @Nullable Object object2) {
     return ((object1 == null) ? (object2 == null) : ((object2 != null) && object1.equals(object2)));
   }
@@ -81,6 +81,24 @@ public class LanguageToolJavaInterfaceTest {
     Assertions.assertEquals(3, checkingResult.getKey().size());
   }
 
+  @Test
+  public void testCheckSpelling() {
+    SettingsManager settingsManager = new SettingsManager();
+    DocumentChecker documentChecker = new DocumentChecker(settingsManager);
+    LtexTextDocumentItem document = DocumentCheckerTest.createDocument("latex",
+        "This is an \\textbf{qwertyzuiopa}.\n");
+    List<LanguageToolRuleMatch> matches = documentChecker.checkSpelling(document, null).getKey();
+    Assertions.assertEquals(1, matches.size());
+    Assertions.assertEquals("MORFOLOGIK_RULE_EN_US",
+        NullnessUtil.castNonNull(matches.get(0).getRuleId()));
+    Assertions.assertEquals(19, matches.get(0).getFromPos());
+    Assertions.assertEquals(31, matches.get(0).getToPos());
+
+    document = DocumentCheckerTest.createDocument("latex", "This is an test.\n");
+    matches = documentChecker.checkSpelling(document, null).getKey();
+    Assertions.assertEquals(0, matches.size());
+  }
+
   @Test
   public void testOtherMethods() {
     SettingsManager settingsManager = new SettingsManager();
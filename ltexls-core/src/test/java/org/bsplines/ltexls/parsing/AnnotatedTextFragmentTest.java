@@ -0,0 +1,74 @@
+/* Copyright (C) 2020 Julian Valentin, LTeX Development Community
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package org.bsplines.ltexls.parsing;
+
+import java.util.List;
+import org.bsplines.ltexls.settings.Settings;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.languagetool.JLanguageTool;
+import org.languagetool.markup.AnnotatedText;
+import org.languagetool.markup.AnnotatedTextBuilder;
+
+public class AnnotatedTextFragmentTest {
+  @Test
+  public void testWithCodeChange() {
+    String code = "\\textbf{Foo} bar baz.";
+    AnnotatedText annotatedText = (new AnnotatedTextBuilder()).addMarkup("\\textbf{")
+        .addText("Foo").addMarkup("}").addText(" bar baz.").build();
+    AnnotatedTextFragment annotatedTextFragment = new AnnotatedTextFragment(annotatedText,
+        new CodeFragment("latex", code, 10, new Settings()));
+    Assertions.assertEquals("baz", annotatedTextFragment.getSubstringOfPlainText(17, 20));
+
+    AnnotatedTextFragment changedFragment = annotatedTextFragment.withCodeChange(13, 16, "quux");
+    Assertions.assertEquals("\\textbf{Foo} quux baz.", changedFragment.getCodeFragment().getCode());
+    Assertions.assertEquals(10, changedFragment.getCodeFragment().getFromPos());
+    Assertions.assertEquals("Foo", changedFragment.getSubstringOfPlainText(8, 11));
+    Assertions.assertEquals("baz", changedFragment.getSubstringOfPlainText(18, 21));
+
+    changedFragment = changedFragment.withCodeChange(0, 0, "x").withFromPos(5);
+    Assertions.assertEquals(5, changedFragment.getCodeFragment().getFromPos());
+    Assertions.assertEquals("Foo", changedFragment.getSubstringOfPlainText(9, 12));
+    Assertions.assertEquals("baz", changedFragment.getSubstringOfPlainText(19, 22));
+    Assertions.assertEquals("baz", annotatedTextFragment.getSubstringOfPlainText(17, 20));
+  }
+
+  @Test
+  public void testSplitIntoChunks() {
+    String code = "Foo bar.\n\nBaz\\textbf{qux}\n\n$x$ end.";
+    AnnotatedText annotatedText = (new AnnotatedTextBuilder()).addText("Foo bar.\n\nBaz")
+        .addMarkup("\\textbf{").addText("qux").addMarkup("}").addMarkup("\n\n", "\n\n")
+        .addMarkup("$x$", "Dummy0").addText(" end.").build();
+    AnnotatedTextFragment annotatedTextFragment = new AnnotatedTextFragment(annotatedText,
+        new CodeFragment("latex", code, 10, new Settings()));
+
+    List<AnnotatedTextFragment> chunks = annotatedTextFragment.splitIntoChunks(5);
+    Assertions.assertEquals(3, chunks.size());
+    Assertions.assertEquals("Foo bar.\n\n", chunks.get(0).getCodeFragment().getCode());
+    Assertions.assertEquals(10, chunks.get(0).getCodeFragment().getFromPos());
+    Assertions.assertEquals("Foo bar.\n\n", chunks.get(0).getAnnotatedText().getPlainText());
+    Assertions.assertEquals("Baz\\textbf{qux}\n\n", chunks.get(1).getCodeFragment().getCode());
+    Assertions.assertEquals(20, chunks.get(1).getCodeFragment().getFromPos());
+    Assertions.assertEquals("Bazqux\n\n", chunks.get(1).getAnnotatedText().getPlainText());
+    Assertions.assertEquals("qux", chunks.get(1).getSubstringOfPlainText(11, 14));
+    Assertions.assertEquals("$x$ end.", chunks.get(2).getCodeFragment().getCode());
+    Assertions.assertEquals(37, chunks.get(2).getCodeFragment().getFromPos());
+    Assertions.assertEquals("Dummy0 end.", chunks.get(2).getAnnotatedText().getPlainText());
+
+    for (AnnotatedTextFragment chunk : chunks) {
+      Assertions.assertEquals(JLanguageTool.ParagraphHandling.ONLYNONPARA,
+          chunk.getParagraphHandling());
+    }
+
+    chunks = annotatedTextFragment.splitIntoChunks(100);
+    Assertions.assertEquals(1, chunks.size());
+    Assertions.assertEquals(code, chunks.get(0).getCodeFragment().getCode());
+    Assertions.assertEquals(annotatedText.getPlainText(),
+        chunks.get(0).getAnnotatedText().getPlainText());
+  }
+}
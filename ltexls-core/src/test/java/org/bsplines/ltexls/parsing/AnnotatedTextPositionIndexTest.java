@@ -0,0 +1,43 @@
+/* Copyright (C) 2020 Julian Valentin, LTeX Development Community
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package org.bsplines.ltexls.parsing;
+
+import org.bsplines.ltexls.settings.Settings;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.languagetool.markup.AnnotatedText;
+import org.languagetool.markup.AnnotatedTextBuilder;
+
+public class AnnotatedTextPositionIndexTest {
+  @Test
+  public void testPositions() {
+    AnnotatedText annotatedText = (new AnnotatedTextBuilder()).addText("This is ")
+        .addMarkup("\\textbf{").addText("bold").addMarkup("}").addText(" and ")
+        .addMarkup("$x$", "Dummy0").addText(".").build();
+    Assertions.assertEquals("This is bold and Dummy0.", annotatedText.getPlainText());
+    AnnotatedTextPositionIndex positionIndex = new AnnotatedTextPositionIndex(annotatedText);
+
+    Assertions.assertEquals(0, positionIndex.getOriginalTextPosition(0));
+    Assertions.assertEquals(16, positionIndex.getOriginalTextPosition(8));
+    Assertions.assertEquals(18, positionIndex.getOriginalTextPosition(10));
+    Assertions.assertEquals(21, positionIndex.getOriginalTextPosition(12));
+    Assertions.assertEquals(29, positionIndex.getOriginalTextPosition(17));
+    Assertions.assertEquals(29, positionIndex.getOriginalTextPosition(23));
+
+    Assertions.assertEquals(0, positionIndex.getPlainTextPosition(0));
+    Assertions.assertEquals(8, positionIndex.getPlainTextPosition(16));
+    Assertions.assertEquals(12, positionIndex.getPlainTextPosition(20));
+    Assertions.assertEquals(23, positionIndex.getPlainTextPosition(29));
+    Assertions.assertEquals(24, positionIndex.getPlainTextPosition(30));
+
+    AnnotatedTextFragment annotatedTextFragment = new AnnotatedTextFragment(annotatedText,
+        new CodeFragment("latex", "", 0, new Settings()));
+    Assertions.assertEquals("bold", annotatedTextFragment.getSubstringOfPlainText(16, 20));
+    Assertions.assertEquals("Dummy0", annotatedTextFragment.getSubstringOfPlainText(26, 29));
+  }
+}
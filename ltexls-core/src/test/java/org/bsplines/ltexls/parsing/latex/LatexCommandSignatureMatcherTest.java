@@ -0,0 +1,65 @@
+/* Copyright (C) 2020 Julian Valentin, LTeX Development Community
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package org.bsplines.ltexls.parsing.latex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.bsplines.ltexls.parsing.DummyGenerator;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class LatexCommandSignatureMatcherTest {
+  private static List<String> findAllMatches(LatexCommandSignatureMatcher matcher, String code) {
+    List<String> matches = new ArrayList<>();
+    matcher.startMatching(code, Collections.emptySet());
+    @Nullable LatexCommandSignatureMatch match;
+
+    while ((match = matcher.findNextMatch()) != null) {
+      matches.add(match.getCommandSignature().getCommandPrototype() + "@" + match.getFromPos());
+    }
+
+    return matches;
+  }
+
+  @Test
+  public void testFindNextMatch() {
+    LatexCommandSignatureMatcher matcher = new LatexCommandSignatureMatcher(Arrays.asList(
+        new LatexCommandSignature("\\foo{}"),
+        new LatexCommandSignature("\\foo{}{}"),
+        new LatexCommandSignature("\\foobar{}"),
+        new LatexCommandSignature("\\bar[]{}")));
+
+    Assertions.assertEquals(Arrays.asList("\\foo{}{}@0", "\\foo{}@10", "\\foobar{}@17"),
+        findAllMatches(matcher, "\\foo{a}{b}\\foo{c}\\foobar{d}\\foob"));
+    Assertions.assertEquals(Arrays.asList("\\foo{}@0", "\\bar[]{}@5"),
+        findAllMatches(matcher, "\\foo{\\bar[x]{y}}"));
+    Assertions.assertEquals(Arrays.asList("\\foo{}@8", "\\foo{}@28"),
+        findAllMatches(matcher, "\\%\\\\\\%x \\foo{a} % \\foo{b}\n\\\\\\foo{c}\\\\% \\foo{d}"));
+    Assertions.assertEquals(Collections.emptyList(), findAllMatches(matcher, "\\bar{x}"));
+
+    matcher.startMatching("\\foo{a}\\foobar{b}", Collections.singleton("\\foo{}"));
+    @Nullable LatexCommandSignatureMatch match = matcher.findNextMatch();
+    Assertions.assertNotNull(match);
+    if (match == null) return;
+    Assertions.assertEquals("\\foobar{}", match.getCommandSignature().getCommandPrototype());
+    Assertions.assertEquals("b", match.getArgumentContents(0));
+    Assertions.assertNull(matcher.findNextMatch());
+  }
+
+  @Test
+  public void testUnescapedPrefixes() {
+    LatexCommandSignatureMatcher matcher = new LatexCommandSignatureMatcher(
+        new LatexCommandSignature("@[A-Za-z]+{}", LatexCommandSignature.Action.IGNORE,
+          DummyGenerator.getDefault(), false), false);
+    Assertions.assertEquals(Arrays.asList("@[A-Za-z]+{}@0", "@[A-Za-z]+{}@23"),
+        findAllMatches(matcher, "@article{a}\n% @book{b}\n@book{c}"));
+  }
+}
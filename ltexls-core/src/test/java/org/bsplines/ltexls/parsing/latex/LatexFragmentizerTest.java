@@ -7,8 +7,13 @@
 
 package org.bsplines.ltexls.parsing.latex;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.bsplines.ltexls.parsing.CodeFragment;
 import org.bsplines.ltexls.parsing.CodeFragmentizer;
 import org.bsplines.ltexls.settings.Settings;
@@ -188,4 +193,23 @@ public class LatexFragmentizerTest {
     Assertions.assertEquals(1, codeFragments.size());
     Assertions.assertEquals(31, codeFragments.get(0).getCode().length());
   }
+
+  @Test
+  public void testConcurrentFragmentization() throws InterruptedException, ExecutionException {
+    ExecutorService executorService = Executors.newFixedThreadPool(4);
+
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+
+      for (int i = 0; i < 16; i++) {
+        futures.add(executorService.submit(() -> {
+          for (int j = 0; j < 10; j++) testCodeLanguage("latex");
+        }));
+      }
+
+      for (Future<?> future : futures) future.get();
+    } finally {
+      executorService.shutdown();
+    }
+  }
 }
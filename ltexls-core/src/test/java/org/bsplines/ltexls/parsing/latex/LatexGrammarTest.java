@@ -0,0 +1,50 @@
+/* Copyright (C) 2020 Julian Valentin, LTeX Development Community
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package org.bsplines.ltexls.parsing.latex;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.bsplines.ltexls.settings.Settings;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class LatexGrammarTest {
+  @Test
+  public void testGet() {
+    Assertions.assertSame(LatexGrammar.getDefault(), LatexGrammar.get(new Settings()));
+
+    Map<String, String> latexCommands = new HashMap<>();
+    latexCommands.put("\\foobar{}", "ignore");
+    latexCommands.put("\\foobar[]{}", "dummy");
+    latexCommands.put("\\barfoo{}", "invalid");
+    Settings settings = (new Settings()).withLatexCommands(latexCommands);
+
+    LatexGrammar grammar = LatexGrammar.get(settings);
+    Assertions.assertSame(grammar, LatexGrammar.get(new Settings(settings)));
+    Assertions.assertSame(grammar, LatexGrammar.get(settings.withLanguageShortCode("de-DE")));
+    Assertions.assertSame(grammar, LatexGrammar.get((new Settings()).withLatexCommands(
+        latexCommands)));
+    Assertions.assertSame(grammar, LatexGrammar.get(settings.withLatexEnvironments(
+        Collections.emptyMap())));
+    Assertions.assertNotSame(grammar, LatexGrammar.get(settings.withLatexEnvironments(
+        Collections.singletonMap("foobar", "ignore"))));
+
+    Assertions.assertEquals(Collections.singleton("\\foobar{}"),
+        grammar.getIgnoreCommandPrototypes());
+    @Nullable List<LatexCommandSignature> commandSignatures =
+        grammar.getCommandSignatures("\\foobar");
+    Assertions.assertNotNull(commandSignatures);
+    if (commandSignatures == null) return;
+    Assertions.assertEquals(2, commandSignatures.size());
+    Assertions.assertNull(grammar.getCommandSignatures("\\barfoo"));
+    Assertions.assertNull(LatexGrammar.getDefault().getCommandSignatures("\\foobar"));
+  }
+}
@@ -0,0 +1,94 @@
+/* Copyright (C) 2020 Julian Valentin, LTeX Development Community
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package org.bsplines.ltexls.server;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import org.bsplines.ltexls.settings.Settings;
+import org.bsplines.ltexls.settings.SettingsManager;
+import org.bsplines.ltexls.tools.CancellationToken;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class BackgroundCheckGovernorTest {
+  private static SettingsManager createSettingsManager(double backgroundCheckCpuShare) {
+    return new SettingsManager((new Settings()).withBackgroundCheckCpuShare(
+        backgroundCheckCpuShare));
+  }
+
+  @Test
+  public void testCpuShare() {
+    BackgroundCheckGovernor governor = new BackgroundCheckGovernor(
+        createSettingsManager(0.5), 4, () -> 0);
+    Assertions.assertEquals(2, governor.getMaxBackgroundCheckCount());
+
+    CompletableFuture<Void> future1 = governor.startCheck(true, new CancellationToken());
+    CompletableFuture<Void> future2 = governor.startCheck(true, new CancellationToken());
+    CompletableFuture<Void> future3 = governor.startCheck(true, new CancellationToken());
+    Assertions.assertTrue(future1.isDone());
+    Assertions.assertTrue(future2.isDone());
+    Assertions.assertFalse(future3.isDone());
+    Assertions.assertEquals(2, governor.getRunningBackgroundCheckCount());
+    Assertions.assertEquals(1, governor.getWaitingBackgroundCheckCount());
+
+    governor.endCheck(true);
+    Assertions.assertTrue(future3.isDone());
+    Assertions.assertEquals(0, governor.getWaitingBackgroundCheckCount());
+    governor.endCheck(true);
+    governor.endCheck(true);
+    Assertions.assertEquals(0, governor.getRunningBackgroundCheckCount());
+  }
+
+  @Test
+  public void testInteractiveChecks() {
+    BackgroundCheckGovernor governor = new BackgroundCheckGovernor(
+        createSettingsManager(0.25), 4, () -> 0);
+    Assertions.assertTrue(governor.startCheck(false, new CancellationToken()).isDone());
+    Assertions.assertEquals(0, governor.getMaxBackgroundCheckCount());
+
+    CompletableFuture<Void> future = governor.startCheck(true, new CancellationToken());
+    Assertions.assertFalse(future.isDone());
+    Assertions.assertTrue(governor.startCheck(false, new CancellationToken()).isDone());
+
+    governor.endCheck(false);
+    Assertions.assertFalse(future.isDone());
+    governor.endCheck(false);
+    Assertions.assertTrue(future.isDone());
+    governor.endCheck(true);
+  }
+
+  @Test
+  public void testSystemLoad() throws InterruptedException {
+    double[] otherProcessesLoad = {1.0};
+    BackgroundCheckGovernor governor = new BackgroundCheckGovernor(
+        createSettingsManager(1.0), 4, () -> otherProcessesLoad[0]);
+    CompletableFuture<Void> future = governor.startCheck(true, new CancellationToken());
+    Assertions.assertFalse(future.isDone());
+
+    otherProcessesLoad[0] = 0;
+    for (int i = 0; (i < 100) && !future.isDone(); i++) Thread.sleep(100);
+    Assertions.assertTrue(future.isDone());
+    governor.endCheck(true);
+  }
+
+  @Test
+  public void testCancel() throws InterruptedException {
+    BackgroundCheckGovernor governor = new BackgroundCheckGovernor(
+        createSettingsManager(0.0), 4, () -> 0);
+    CancellationToken cancellationToken = new CancellationToken();
+    CompletableFuture<Void> future = governor.startCheck(true, cancellationToken);
+    Assertions.assertFalse(future.isDone());
+
+    cancellationToken.cancel();
+    for (int i = 0; (i < 100) && !future.isDone(); i++) Thread.sleep(100);
+    Assertions.assertTrue(future.isCompletedExceptionally());
+    Assertions.assertThrows(CancellationException.class, () -> future.join());
+    Assertions.assertEquals(0, governor.getWaitingBackgroundCheckCount());
+    Assertions.assertEquals(0, governor.getRunningBackgroundCheckCount());
+  }
+}
@@ -0,0 +1,59 @@
+/* Copyright (C) 2020 Julian Valentin, LTeX Development Community
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package org.bsplines.ltexls.server;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.bsplines.ltexls.languagetool.LanguageToolRuleMatch;
+import org.bsplines.ltexls.parsing.AnnotatedTextFragment;
+import org.bsplines.ltexls.parsing.CodeFragment;
+import org.bsplines.ltexls.settings.Settings;
+import org.eclipse.xtext.xbase.lib.Pair;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.languagetool.markup.AnnotatedTextBuilder;
+
+public class CheckingContinuationTest {
+  private static AnnotatedTextFragment createFragment(String code, int fromPos) {
+    return new AnnotatedTextFragment((new AnnotatedTextBuilder()).addText(code).build(),
+        new CodeFragment("plaintext", code, fromPos, new Settings()));
+  }
+
+  @Test
+  public void testReusableCheckingResult() {
+    String text = "This is a test.\n\nThis is another test.\n\nThis is a third test.";
+    List<AnnotatedTextFragment> fragments = Arrays.asList(
+        createFragment("This is a test.", 0),
+        createFragment("This is another test.", 17),
+        createFragment("This is a third test.", 40));
+    CheckingContinuation continuation = new CheckingContinuation(
+        new LtexTextDocumentSnapshot("untitled:test.txt", "plaintext", 1, text, null),
+        new Settings(), fragments, Arrays.asList(0, 1, 2), 0, null);
+    LanguageToolRuleMatch match = new LanguageToolRuleMatch("FOO", "This is a test.", 0, 4,
+        "foo", Collections.emptyList(), fragments.get(0));
+
+    continuation.addFragmentMatches(0, Collections.singletonList(match));
+    continuation.addFragmentMatches(1, null);
+    continuation.addFragmentMatches(2, Collections.emptyList());
+    Assertions.assertTrue(continuation.isDone());
+
+    Pair<List<List<LanguageToolRuleMatch>>, List<AnnotatedTextFragment>> checkingResult =
+        continuation.getCheckingResult();
+    Assertions.assertEquals(3, checkingResult.getKey().size());
+    Assertions.assertEquals(Collections.emptyList(), checkingResult.getKey().get(1));
+
+    // the fragment that could not be checked must not be reused as if it had no matches
+    Pair<List<List<LanguageToolRuleMatch>>, List<AnnotatedTextFragment>> reusableResult =
+        continuation.getReusableCheckingResult();
+    Assertions.assertEquals(Arrays.asList(fragments.get(0), fragments.get(2)),
+        reusableResult.getValue());
+    Assertions.assertEquals(Arrays.asList(Collections.singletonList(match),
+        Collections.emptyList()), reusableResult.getKey());
+  }
+}
@@ -0,0 +1,58 @@
+/* Copyright (C) 2020 Julian Valentin, LTeX Development Community
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package org.bsplines.ltexls.server;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import org.bsplines.ltexls.tools.CancellationToken;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class CheckingWatchdogTest {
+  @Test
+  public void testAbort() throws InterruptedException {
+    CheckingWatchdog checkingWatchdog = new CheckingWatchdog(Duration.ofMillis(100));
+    CancellationToken cancellationToken = new CancellationToken();
+    CheckingWatchdog.WatchedCheck watchedCheck = checkingWatchdog.watch(
+        "untitled:test.md", 13, 37, cancellationToken);
+    Assertions.assertFalse(watchedCheck.isCanceled());
+
+    for (int i = 0; (i < 50) && !watchedCheck.isCanceled(); i++) Thread.sleep(100);
+
+    Assertions.assertTrue(watchedCheck.isAborted());
+    Assertions.assertNotNull(watchedCheck.getAbortInstant());
+    Assertions.assertThrows(CancellationException.class, () -> watchedCheck.checkCanceled());
+    Assertions.assertFalse(cancellationToken.isCanceled());
+
+    List<CheckingWatchdog.WatchedCheck> stuckChecks = checkingWatchdog.getStuckChecks();
+    Assertions.assertEquals(1, stuckChecks.size());
+    Assertions.assertEquals("untitled:test.md", stuckChecks.get(0).getUri());
+    Assertions.assertEquals(13, stuckChecks.get(0).getFromPos());
+    Assertions.assertEquals(37, stuckChecks.get(0).getToPos());
+    Assertions.assertNull(stuckChecks.get(0).getEndInstant());
+
+    checkingWatchdog.unwatch(watchedCheck);
+    Assertions.assertNotNull(stuckChecks.get(0).getEndInstant());
+  }
+
+  @Test
+  public void testCancel() {
+    CheckingWatchdog checkingWatchdog = new CheckingWatchdog();
+    CancellationToken cancellationToken = new CancellationToken();
+    CheckingWatchdog.WatchedCheck watchedCheck = checkingWatchdog.watch(
+        "untitled:test.md", 0, 10, cancellationToken);
+
+    cancellationToken.cancel();
+    Assertions.assertTrue(watchedCheck.isCanceled());
+    Assertions.assertFalse(watchedCheck.isAborted());
+    Assertions.assertNull(watchedCheck.getAbortInstant());
+    checkingWatchdog.unwatch(watchedCheck);
+    Assertions.assertTrue(checkingWatchdog.getStuckChecks().isEmpty());
+  }
+}
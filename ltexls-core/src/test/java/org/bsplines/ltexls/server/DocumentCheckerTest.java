@@ -9,14 +9,22 @@ package org.bsplines.ltexls.server;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import org.bsplines.ltexls.languagetool.LanguageToolRuleMatch;
 import org.bsplines.ltexls.parsing.AnnotatedTextFragment;
 import org.bsplines.ltexls.settings.HiddenFalsePositive;
 import org.bsplines.ltexls.settings.Settings;
 import org.bsplines.ltexls.settings.SettingsManager;
+import org.bsplines.ltexls.tools.CancellationToken;
 import org.checkerframework.checker.nullness.util.NullnessUtil;
 import org.eclipse.lsp4j.CodeAction;
 import org.eclipse.lsp4j.CodeActionContext;
@@ -31,6 +39,7 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
 import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.languagetool.JLanguageTool;
 
 @TestInstance(Lifecycle.PER_CLASS)
 public class DocumentCheckerTest {
@@ -200,6 +209,209 @@ public class DocumentCheckerTest {
     Assertions.assertEquals(40, matches.get(0).getToPos());
   }
 
+  @Test
+  public void testCheckSpellingIfIdle() throws InterruptedException {
+    LtexTextDocumentItem document = createDocument("markdown", "This is a qwertyzuiopa.\n");
+    SettingsManager settingsManager =
+        new SettingsManager((new Settings()).withLogLevel(Level.FINEST));
+    DocumentChecker documentChecker = new DocumentChecker(settingsManager);
+    ReentrantLock checkingLock =
+        NullnessUtil.castNonNull(settingsManager.getLanguageToolInterface()).getCheckingLock();
+    CountDownLatch lockedLatch = new CountDownLatch(1);
+    CountDownLatch unlockLatch = new CountDownLatch(1);
+
+    // another check holds the LanguageTool instance
+    Thread thread = new Thread(() -> {
+      checkingLock.lock();
+      lockedLatch.countDown();
+
+      try {
+        unlockLatch.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        checkingLock.unlock();
+      }
+    });
+    thread.start();
+    lockedLatch.await();
+
+    Assertions.assertTrue(documentChecker.checkSpellingIfIdle(document.getSnapshot(),
+        settingsManager.getSettings(), null, new CancellationToken()) == null);
+
+    unlockLatch.countDown();
+    thread.join();
+
+    List<LanguageToolRuleMatch> matches = NullnessUtil.castNonNull(
+        documentChecker.checkSpellingIfIdle(
+          document.getSnapshot(), settingsManager.getSettings(), null,
+          new CancellationToken())).getKey();
+    Assertions.assertEquals(1, matches.size());
+    Assertions.assertEquals(10, matches.get(0).getFromPos());
+    Assertions.assertEquals(22, matches.get(0).getToPos());
+  }
+
+  @Test
+  public void testFragmentResultCache() {
+    LtexTextDocumentItem document = createDocument("markdown",
+        "# Test\n\nThis is an **test.**\n\nThis is an **test.**\n");
+    SettingsManager settingsManager =
+        new SettingsManager((new Settings()).withLogLevel(Level.FINEST));
+    DocumentChecker documentChecker = new DocumentChecker(settingsManager);
+
+    for (int i = 0; i < 2; i++) {
+      List<LanguageToolRuleMatch> matches = documentChecker.check(document,
+          new Range(new Position(2, 0), new Position(2, 20))).getKey();
+      Assertions.assertEquals(1, matches.size());
+      Assertions.assertEquals(16, matches.get(0).getFromPos());
+      Assertions.assertEquals(18, matches.get(0).getToPos());
+    }
+
+    List<LanguageToolRuleMatch> matches = documentChecker.check(document,
+        new Range(new Position(4, 0), new Position(4, 20))).getKey();
+    Assertions.assertEquals(1, matches.size());
+    Assertions.assertEquals("EN_A_VS_AN", NullnessUtil.castNonNull(matches.get(0).getRuleId()));
+    Assertions.assertEquals(38, matches.get(0).getFromPos());
+    Assertions.assertEquals(40, matches.get(0).getToPos());
+
+    document = createDocument("markdown", "This is an **test.**\n");
+    matches = documentChecker.check(document).getKey();
+    Assertions.assertEquals(1, matches.size());
+    Assertions.assertEquals(8, matches.get(0).getFromPos());
+    Assertions.assertEquals(10, matches.get(0).getToPos());
+  }
+
+  @Test
+  public void testPartialCheckingResults() {
+    LtexTextDocumentItem document = createDocument("latex",
+        "This is an \\textbf{test.}\n% LTeX: language=de-DE\nDies ist eine \\textbf{Test}.\n");
+    document.setCaretPosition(new Position(2, 5));
+    SettingsManager settingsManager =
+        new SettingsManager((new Settings()).withLogLevel(Level.FINEST));
+    DocumentChecker documentChecker = new DocumentChecker(settingsManager);
+    List<List<AnnotatedTextFragment>> partialFragments = new ArrayList<>();
+
+    Pair<List<List<LanguageToolRuleMatch>>, List<AnnotatedTextFragment>> checkingResult =
+        documentChecker.checkWithHiddenFalsePositives(document, null, null,
+          (Pair<List<List<LanguageToolRuleMatch>>, List<AnnotatedTextFragment>> partialResult) ->
+            partialFragments.add(new ArrayList<>(partialResult.getValue())));
+
+    Assertions.assertEquals(2, checkingResult.getValue().size());
+    Assertions.assertEquals(1, partialFragments.size());
+    Assertions.assertEquals(1, partialFragments.get(0).size());
+    Assertions.assertEquals("de-DE", partialFragments.get(0).get(0).getCodeFragment()
+        .getSettings().getLanguageShortCode());
+    Assertions.assertEquals("en-US", checkingResult.getValue().get(0).getCodeFragment()
+        .getSettings().getLanguageShortCode());
+  }
+
+  @Test
+  public void testTimeBudget() {
+    LtexTextDocumentItem document = createDocument("latex",
+        "This is an \\textbf{test.}\n% LTeX: language=de-DE\nDies ist eine \\textbf{Test}.\n"
+        + "% LTeX: language=en-US\nThis is a test.\n");
+    Settings settings = (new Settings()).withLogLevel(Level.FINEST);
+    DocumentChecker documentChecker = new DocumentChecker(new SettingsManager(settings));
+
+    // languages are checked in parallel, so one fragment of every language is checked
+    CheckingContinuation checkingContinuation = documentChecker.checkWithTimeBudget(
+        document.getSnapshot(), settings, null, null, null, new CancellationToken(),
+        Duration.ZERO);
+    Assertions.assertFalse(checkingContinuation.isDone());
+    Assertions.assertEquals(1, checkingContinuation.getRemainingFragmentCount());
+    Assertions.assertEquals(2, checkingContinuation.getPartialCheckingResult().getValue().size());
+
+    checkingContinuation = documentChecker.resumeCheck(
+        checkingContinuation, null, new CancellationToken(), Duration.ZERO);
+    Assertions.assertTrue(checkingContinuation.isDone());
+    Pair<List<List<LanguageToolRuleMatch>>, List<AnnotatedTextFragment>> checkingResult =
+        checkingContinuation.getCheckingResult();
+    Assertions.assertEquals(3, checkingResult.getValue().size());
+    Assertions.assertEquals("en-US", checkingResult.getValue().get(0).getCodeFragment()
+        .getSettings().getLanguageShortCode());
+    Assertions.assertEquals("de-DE", checkingResult.getValue().get(1).getCodeFragment()
+        .getSettings().getLanguageShortCode());
+    assertMatches(documentChecker.removeHiddenFalsePositives(checkingResult.getKey(),
+        checkingResult.getValue(), null), 8, 10, 58, 75);
+  }
+
+  @Test
+  public void testPrepareCheck() {
+    LtexTextDocumentItem document = createDocument("latex",
+        "This is an \\textbf{test.}\n% LTeX: language=de-DE\nDies ist eine \\textbf{Test}.\n");
+    Settings settings = new Settings();
+    DocumentChecker documentChecker = new DocumentChecker(new SettingsManager(settings));
+
+    CheckingContinuation checkingContinuation = documentChecker.prepareCheck(
+        document.getSnapshot(), settings, null, null);
+    Assertions.assertEquals(2, checkingContinuation.getRemainingFragmentCount());
+    Assertions.assertSame(document.getSnapshot(), checkingContinuation.getDocumentSnapshot());
+
+    checkingContinuation = documentChecker.checkWithTimeBudget(
+        checkingContinuation, null, new CancellationToken(), null);
+    Assertions.assertTrue(checkingContinuation.isDone());
+    Pair<List<List<LanguageToolRuleMatch>>, List<AnnotatedTextFragment>> checkingResult =
+        checkingContinuation.getCheckingResult();
+    assertMatches(documentChecker.removeHiddenFalsePositives(checkingResult.getKey(),
+        checkingResult.getValue(), null), 8, 10, 58, 75);
+  }
+
+  @Test
+  public void testCancellation() {
+    LtexTextDocumentItem document = createDocument("latex",
+        "This is an \\textbf{test.}\n% LTeX: language=de-DE\nDies ist eine \\textbf{Test}.\n");
+    SettingsManager settingsManager =
+        new SettingsManager((new Settings()).withLogLevel(Level.FINEST));
+    DocumentChecker documentChecker = new DocumentChecker(settingsManager);
+    CancellationToken cancellationToken = new CancellationToken();
+
+    Assertions.assertThrows(CancellationException.class,
+        () -> documentChecker.checkWithHiddenFalsePositives(document, null, null,
+          (Pair<List<List<LanguageToolRuleMatch>>, List<AnnotatedTextFragment>> partialResult) ->
+            cancellationToken.cancel(),
+          cancellationToken));
+
+    Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>> checkingResult =
+        documentChecker.check(document);
+    Assertions.assertEquals(2, checkingResult.getValue().size());
+    assertMatches(checkingResult.getKey(), 8, 10, 58, 75);
+  }
+
+  @Test
+  public void testChunking() {
+    StringBuilder codeBuilder = new StringBuilder();
+
+    for (int i = 0; i < 1000; i++) {
+      codeBuilder.append("Paragraph " + i + " contains a sentence.\n\n");
+    }
+
+    int fromPos = codeBuilder.length() + 8;
+    codeBuilder.append("This is an test.\n");
+    LtexTextDocumentItem document = createDocument("latex", codeBuilder.toString());
+    DocumentChecker documentChecker = new DocumentChecker(new SettingsManager());
+    Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>> checkingResult =
+        documentChecker.check(document);
+
+    List<AnnotatedTextFragment> annotatedTextFragments = checkingResult.getValue();
+    Assertions.assertTrue(annotatedTextFragments.size() > 2);
+    Assertions.assertEquals(JLanguageTool.ParagraphHandling.ONLYNONPARA,
+        annotatedTextFragments.get(0).getParagraphHandling());
+    Assertions.assertEquals(JLanguageTool.ParagraphHandling.ONLYPARA,
+        annotatedTextFragments.get(annotatedTextFragments.size() - 1).getParagraphHandling());
+
+    List<LanguageToolRuleMatch> matches = new ArrayList<>();
+    Set<String> matchKeys = new HashSet<>();
+
+    for (LanguageToolRuleMatch match : checkingResult.getKey()) {
+      Assertions.assertTrue(matchKeys.add(match.getRuleId() + "@" + match.getFromPos()));
+      if ("EN_A_VS_AN".equals(match.getRuleId())) matches.add(match);
+    }
+
+    Assertions.assertEquals(1, matches.size());
+    Assertions.assertEquals(fromPos, matches.get(0).getFromPos());
+    Assertions.assertEquals(fromPos + 2, matches.get(0).getToPos());
+  }
+
   @Test
   public void testCodeActionGenerator() {
     LtexTextDocumentItem document = createDocument("markdown",
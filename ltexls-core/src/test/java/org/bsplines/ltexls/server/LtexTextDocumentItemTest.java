@@ -59,6 +59,28 @@ public class LtexTextDocumentItemTest {
     assertPosition(document, 1, new Position(1, 0));
   }
 
+  @Test
+  public void testSnapshot() {
+    LtexLanguageServer languageServer = new LtexLanguageServer();
+    LtexTextDocumentItem document = new LtexTextDocumentItem(
+        languageServer, "untitled:text.md", "markdown", 1, "abc\ndef");
+    LtexTextDocumentSnapshot snapshot = document.getSnapshot();
+
+    document.applyTextChangeEvent(new TextDocumentContentChangeEvent(
+        new Range(new Position(0, 0), new Position(0, 0)), 0, "x\ny"));
+    document.setVersion(2);
+    Assertions.assertEquals("x\nyabc\ndef", document.getText());
+    Assertions.assertEquals(2, document.getSnapshot().getVersion());
+    Assertions.assertEquals(new Position(2, 0), document.convertPosition(7));
+
+    Assertions.assertEquals("abc\ndef", snapshot.getText());
+    Assertions.assertEquals(1, snapshot.getVersion());
+    Assertions.assertEquals("markdown", snapshot.getCodeLanguageId());
+    Assertions.assertEquals(2, snapshot.getLineCount());
+    Assertions.assertEquals(new Position(1, 2), snapshot.convertPosition(6));
+    assertNull(snapshot.getCaretPosition());
+  }
+
   @Test
   public void testApplyIncrementalTextChangeEvents() {
     LtexLanguageServer languageServer = new LtexLanguageServer();
@@ -0,0 +1,62 @@
+/* Copyright (C) 2020 Julian Valentin, LTeX Development Community
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package org.bsplines.ltexls.server;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.bsplines.ltexls.languagetool.LanguageToolRuleMatch;
+import org.bsplines.ltexls.parsing.AnnotatedTextFragment;
+import org.bsplines.ltexls.tools.CancellationToken;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.eclipse.xtext.xbase.lib.Pair;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class PendingCheckTest {
+  @Test
+  public void testJoin() {
+    CompletableFuture<Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>>>
+        checkingResultFuture = new CompletableFuture<>();
+    CancellationToken cancellationToken = new CancellationToken();
+    PendingCheck pendingCheck = new PendingCheck(checkingResultFuture, cancellationToken);
+
+    @Nullable CompletableFuture<Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>>>
+        requestFuture1 = pendingCheck.join();
+    @Nullable CompletableFuture<Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>>>
+        requestFuture2 = pendingCheck.join();
+    Assertions.assertNotNull(requestFuture1);
+    Assertions.assertNotNull(requestFuture2);
+    if ((requestFuture1 == null) || (requestFuture2 == null)) return;
+
+    requestFuture1.cancel(true);
+    Assertions.assertFalse(cancellationToken.isCanceled());
+    requestFuture2.cancel(true);
+    Assertions.assertTrue(cancellationToken.isCanceled());
+    Assertions.assertNull(pendingCheck.join());
+  }
+
+  @Test
+  public void testResult() {
+    CompletableFuture<Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>>>
+        checkingResultFuture = new CompletableFuture<>();
+    PendingCheck pendingCheck = new PendingCheck(checkingResultFuture, new CancellationToken());
+    @Nullable CompletableFuture<Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>>>
+        requestFuture = pendingCheck.join();
+    Assertions.assertNotNull(requestFuture);
+    if (requestFuture == null) return;
+
+    Pair<List<LanguageToolRuleMatch>, List<AnnotatedTextFragment>> checkingResult =
+        Pair.of(Collections.emptyList(), Collections.emptyList());
+    checkingResultFuture.complete(checkingResult);
+    Assertions.assertSame(checkingResult, requestFuture.join());
+
+    pendingCheck.cancel();
+    Assertions.assertNull(pendingCheck.join());
+  }
+}
@@ -0,0 +1,71 @@
+/* Copyright (C) 2020 Julian Valentin, LTeX Development Community
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package org.bsplines.ltexls.server;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import org.bsplines.ltexls.tools.CancellationToken;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class PreparedCheckPermitsTest {
+  @Test
+  public void testAcquireAndRelease() {
+    PreparedCheckPermits permits = new PreparedCheckPermits(2);
+    CompletableFuture<Void> future1 = permits.acquire(new CancellationToken());
+    CompletableFuture<Void> future2 = permits.acquire(new CancellationToken());
+    CompletableFuture<Void> future3 = permits.acquire(new CancellationToken());
+    CompletableFuture<Void> future4 = permits.acquire(new CancellationToken());
+    Assertions.assertTrue(future1.isDone());
+    Assertions.assertTrue(future2.isDone());
+    Assertions.assertFalse(future3.isDone());
+    Assertions.assertFalse(future4.isDone());
+    Assertions.assertEquals(0, permits.getAvailablePermitCount());
+    Assertions.assertEquals(2, permits.getWaitingCheckCount());
+
+    // waiting checks get the permits in the order in which they asked for them
+    permits.release();
+    Assertions.assertTrue(future3.isDone());
+    Assertions.assertFalse(future4.isDone());
+    permits.release();
+    Assertions.assertTrue(future4.isDone());
+
+    permits.release();
+    permits.release();
+    Assertions.assertEquals(2, permits.getAvailablePermitCount());
+    Assertions.assertEquals(0, permits.getWaitingCheckCount());
+  }
+
+  @Test
+  public void testCancellation() {
+    PreparedCheckPermits permits = new PreparedCheckPermits(1);
+    CancellationToken cancelledToken = new CancellationToken();
+    cancelledToken.cancel();
+
+    // a check that has already been cancelled doesn't wait for a permit
+    CompletableFuture<Void> cancelledFuture = permits.acquire(cancelledToken);
+    Assertions.assertTrue(cancelledFuture.isCompletedExceptionally());
+    Assertions.assertEquals(1, permits.getAvailablePermitCount());
+
+    CompletableFuture<Void> future1 = permits.acquire(new CancellationToken());
+    CancellationToken cancellationToken = new CancellationToken();
+    CompletableFuture<Void> future2 = permits.acquire(cancellationToken);
+    CompletableFuture<Void> future3 = permits.acquire(new CancellationToken());
+    Assertions.assertTrue(future1.isDone());
+    Assertions.assertFalse(future2.isDone());
+
+    // the permit goes to the next check that is still waiting
+    cancellationToken.cancel();
+    permits.release();
+    Assertions.assertThrows(CancellationException.class, () -> future2.join());
+    Assertions.assertTrue(future3.isDone());
+    Assertions.assertFalse(future3.isCompletedExceptionally());
+    Assertions.assertEquals(0, permits.getAvailablePermitCount());
+    Assertions.assertEquals(0, permits.getWaitingCheckCount());
+  }
+}
@@ -0,0 +1,64 @@
+/* Copyright (C) 2020 Julian Valentin, LTeX Development Community
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package org.bsplines.ltexls.settings;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class HiddenFalsePositiveIndexTest {
+  @Test
+  public void testIsHiddenFalsePositive() {
+    Set<HiddenFalsePositive> hiddenFalsePositives = new HashSet<>(Arrays.asList(
+        new HiddenFalsePositive("FOO", "^This is a test\\.$"),
+        new HiddenFalsePositive("FOO", "(?i)second"),
+        new HiddenFalsePositive("FOO", "(a)b\\1"),
+        new HiddenFalsePositive("FOO", "(?x) third  # comment"),
+        new HiddenFalsePositive("BAR", "Foobar")));
+    HiddenFalsePositiveIndex index = HiddenFalsePositiveIndex.get(hiddenFalsePositives);
+    Assertions.assertSame(index, HiddenFalsePositiveIndex.get(
+        new HashSet<>(hiddenFalsePositives)));
+
+    for (int i = 0; i < 2; i++) {
+      Assertions.assertTrue(index.isHiddenFalsePositive("FOO", "This is a test."));
+      Assertions.assertFalse(index.isHiddenFalsePositive("FOO", "This is a test. Foobar"));
+      Assertions.assertTrue(index.isHiddenFalsePositive("FOO", "The SECOND sentence."));
+      Assertions.assertTrue(index.isHiddenFalsePositive("FOO", "xabax"));
+      Assertions.assertFalse(index.isHiddenFalsePositive("FOO", "xabbx"));
+      Assertions.assertTrue(index.isHiddenFalsePositive("FOO", "The third sentence."));
+      Assertions.assertFalse(index.isHiddenFalsePositive("FOO", "Foobar"));
+      Assertions.assertTrue(index.isHiddenFalsePositive("BAR", "This is Foobar."));
+      Assertions.assertFalse(index.isHiddenFalsePositive("BAR", "This is a test."));
+      Assertions.assertFalse(index.isHiddenFalsePositive("BAZ", "This is a test."));
+    }
+
+    Assertions.assertFalse(HiddenFalsePositiveIndex.get(Collections.emptySet())
+        .isHiddenFalsePositive("FOO", "This is a test."));
+  }
+
+  @Test
+  public void testCatastrophicBacktracking() {
+    Set<HiddenFalsePositive> hiddenFalsePositives = new HashSet<>(Arrays.asList(
+        new HiddenFalsePositive("FOO", "(.*a){12}b"),
+        new HiddenFalsePositive("FOO", "second"),
+        new HiddenFalsePositive("FOO", "third")));
+    HiddenFalsePositiveIndex index = HiddenFalsePositiveIndex.get(hiddenFalsePositives);
+    String sentence = "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa";
+
+    // the first pattern takes ages for the sentence and is disabled, but the others still work
+    Assertions.assertTrue(index.isHiddenFalsePositive("FOO", "The second " + sentence));
+    Assertions.assertFalse(index.isHiddenFalsePositive("FOO", sentence));
+    Assertions.assertTrue(index.isHiddenFalsePositive("FOO", "The third " + sentence));
+    Assertions.assertFalse(index.isHiddenFalsePositive("FOO", "aaaaaaaaaaaab"));
+    Assertions.assertTrue(index.isHiddenFalsePositive("FOO", "second"));
+    Assertions.assertTrue(index.isHiddenFalsePositive("FOO", "third"));
+  }
+}
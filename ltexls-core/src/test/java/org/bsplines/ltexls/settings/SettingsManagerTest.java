@@ -0,0 +1,139 @@
+/* Copyright (C) 2020 Julian Valentin, LTeX Development Community
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package org.bsplines.ltexls.settings;
+
+import com.google.gson.JsonObject;
+import java.util.Collections;
+import org.bsplines.ltexls.languagetool.LanguageToolInterface;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.checker.nullness.util.NullnessUtil;
+import org.eclipse.lsp4j.DiagnosticSeverity;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class SettingsManagerTest {
+  @Test
+  public void testCachedSettings() {
+    SettingsManager settingsManager = new SettingsManager();
+    String uri = "file:///foo.tex";
+    Assertions.assertNull(settingsManager.getCachedSettings(uri));
+
+    JsonObject jsonSettings = new JsonObject();
+    jsonSettings.addProperty("language", "de-DE");
+    int generation = settingsManager.getCachedSettingsGeneration();
+    Settings settings = settingsManager.cacheSettings(uri, generation, jsonSettings, null);
+    Assertions.assertEquals("de-DE", settings.getLanguageShortCode());
+    Assertions.assertSame(settings, settingsManager.getCachedSettings(uri));
+
+    JsonObject sameJsonSettings = new JsonObject();
+    sameJsonSettings.addProperty("language", "de-DE");
+    Assertions.assertSame(settings, settingsManager.cacheSettings(
+        "file:///bar.tex", generation, sameJsonSettings, null));
+
+    settingsManager.invalidateCachedSettings();
+    Assertions.assertNull(settingsManager.getCachedSettings(uri));
+    Assertions.assertSame(settings, settingsManager.cacheSettings(
+        uri, generation, jsonSettings, null));
+    Assertions.assertNull(settingsManager.getCachedSettings(uri));
+
+    generation = settingsManager.getCachedSettingsGeneration();
+    settingsManager.cacheSettings(uri, generation, jsonSettings, null);
+    Assertions.assertSame(settings, settingsManager.getCachedSettings(uri));
+  }
+
+  @Test
+  public void testInvalidateCachedSettingsForScope() {
+    SettingsManager settingsManager = new SettingsManager();
+    String uri = "file:///foo.tex";
+    String otherUri = "file:///bar.tex";
+    JsonObject jsonSettings = new JsonObject();
+    jsonSettings.addProperty("language", "de-DE");
+    int generation = settingsManager.getCachedSettingsGeneration();
+    settingsManager.cacheSettings(uri, generation, jsonSettings, null);
+    Settings otherSettings = settingsManager.cacheSettings(
+        otherUri, generation, jsonSettings, null);
+
+    // a request for the settings is sent before the invalidation, but answered after it
+    int staleGeneration = settingsManager.getCachedSettingsGeneration();
+    settingsManager.invalidateCachedSettings(uri);
+    Assertions.assertNull(settingsManager.getCachedSettings(uri));
+    Assertions.assertSame(otherSettings, settingsManager.getCachedSettings(otherUri));
+
+    JsonObject staleJsonSettings = new JsonObject();
+    staleJsonSettings.addProperty("language", "fr");
+    settingsManager.cacheSettings(uri, staleGeneration, staleJsonSettings, null);
+    Assertions.assertNull(settingsManager.getCachedSettings(uri));
+
+    JsonObject newJsonSettings = new JsonObject();
+    newJsonSettings.addProperty("language", "en-US");
+    Settings newSettings = settingsManager.cacheSettings(uri,
+        settingsManager.getCachedSettingsGeneration(), newJsonSettings, null);
+    Assertions.assertSame(newSettings, settingsManager.getCachedSettings(uri));
+    Assertions.assertEquals("en-US", newSettings.getLanguageShortCode());
+  }
+
+  @Test
+  public void testLanguageToolInterfacePerSettings() {
+    // HTTP interfaces don't connect to the server before they check something
+    Settings settings = (new Settings()).withLanguageToolHttpServerUri("http://localhost:8081/");
+    SettingsManager settingsManager = new SettingsManager(settings);
+    Settings otherSettings = settings.withDisabledRules(Collections.singleton("FOO"));
+
+    // checks of documents with different settings don't reinitialize each other's interfaces
+    @Nullable LanguageToolInterface languageToolInterface =
+        settingsManager.getLanguageToolInterface(settings, 0);
+    @Nullable LanguageToolInterface otherLanguageToolInterface =
+        settingsManager.getLanguageToolInterface(otherSettings, 0);
+    Assertions.assertNotNull(languageToolInterface);
+    Assertions.assertNotNull(otherLanguageToolInterface);
+    Assertions.assertNotSame(languageToolInterface, otherLanguageToolInterface);
+    Assertions.assertSame(languageToolInterface,
+        settingsManager.getLanguageToolInterface(settings, 0));
+    Assertions.assertSame(otherLanguageToolInterface,
+        settingsManager.getLanguageToolInterface(otherSettings, 0));
+
+    // settings that are not relevant for LanguageTool don't matter
+    Assertions.assertSame(languageToolInterface, settingsManager.getLanguageToolInterface(
+        settings.withDiagnosticSeverity(DiagnosticSeverity.Error), 0));
+    Assertions.assertSame(languageToolInterface, settingsManager.getLanguageToolInterface());
+
+    @Nullable LanguageToolInterface additionalLanguageToolInterface =
+        settingsManager.getLanguageToolInterface(settings, 1);
+    Assertions.assertNotNull(additionalLanguageToolInterface);
+    Assertions.assertNotSame(languageToolInterface, additionalLanguageToolInterface);
+    Assertions.assertSame(additionalLanguageToolInterface,
+        settingsManager.getLanguageToolInterface(settings, 1));
+    settingsManager.getLanguageToolInterface(otherSettings, 0);
+    Assertions.assertSame(additionalLanguageToolInterface,
+        settingsManager.getLanguageToolInterface(settings, 1));
+  }
+
+  @Test
+  public void testRetireLanguageToolInterface() {
+    Settings settings = (new Settings()).withLanguageToolHttpServerUri("http://localhost:8081/");
+    SettingsManager settingsManager = new SettingsManager(settings);
+    @Nullable LanguageToolInterface languageToolInterface =
+        settingsManager.getLanguageToolInterface(settings, 0);
+    @Nullable LanguageToolInterface additionalLanguageToolInterface =
+        settingsManager.getLanguageToolInterface(settings, 1);
+    Assertions.assertNotNull(languageToolInterface);
+    Assertions.assertNotNull(additionalLanguageToolInterface);
+
+    // only the retired interface is replaced
+    settingsManager.retireLanguageToolInterface(
+        NullnessUtil.castNonNull(languageToolInterface));
+    @Nullable LanguageToolInterface newLanguageToolInterface =
+        settingsManager.getLanguageToolInterface(settings, 0);
+    Assertions.assertNotNull(newLanguageToolInterface);
+    Assertions.assertNotSame(languageToolInterface, newLanguageToolInterface);
+    Assertions.assertSame(newLanguageToolInterface,
+        settingsManager.getLanguageToolInterface(settings, 0));
+    Assertions.assertSame(additionalLanguageToolInterface,
+        settingsManager.getLanguageToolInterface(settings, 1));
+  }
+}
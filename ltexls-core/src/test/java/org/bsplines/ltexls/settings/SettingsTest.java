@@ -159,6 +159,10 @@ public class SettingsTest {
     jsonSettings.addProperty("checkFrequency", "manual");
     settings = new Settings(jsonSettings, jsonWorkspaceSpecificSettings);
     Assertions.assertEquals(CheckFrequency.MANUAL, settings.getCheckFrequency());
+
+    jsonSettings.addProperty("checkFrequency", "tiered");
+    settings = new Settings(jsonSettings, jsonWorkspaceSpecificSettings);
+    Assertions.assertEquals(CheckFrequency.TIERED, settings.getCheckFrequency());
   }
 
   @Test
@@ -263,11 +267,61 @@ public class SettingsTest {
     Assertions.assertEquals(CheckFrequency.MANUAL, settings.getCheckFrequency());
     settings2 = compareSettings(settings, settings2, false);
 
+    settings = settings.withFullCheckDelay(500);
+    Assertions.assertEquals(500, settings.getFullCheckDelay());
+    settings2 = compareSettings(settings, settings2, false);
+
+    settings = settings.withBackgroundCheckCpuShare(0.25);
+    Assertions.assertEquals(0.25, settings.getBackgroundCheckCpuShare());
+    settings2 = compareSettings(settings, settings2, false);
+
     settings = settings.withClearDiagnosticsWhenClosingFile(false);
     Assertions.assertEquals(false, settings.getClearDiagnosticsWhenClosingFile());
     settings2 = compareSettings(settings, settings2, false);
   }
 
+  @Test
+  public void testCopyOnWrite() {
+    Settings settings = (new Settings()).withLanguageShortCode("en-US")
+        .withDictionary(Collections.singleton("foo"));
+    Settings settings2 = settings.withLanguageShortCode("de-DE")
+        .withDictionary(Collections.singleton("bar"));
+    Settings settings3 = settings2.withLanguageShortCode("en-US");
+
+    Assertions.assertEquals(Collections.singleton("foo"), settings.getDictionary());
+    Assertions.assertEquals(Collections.singleton("bar"), settings2.getDictionary());
+    Assertions.assertEquals(Collections.singleton("foo"), settings3.getDictionary());
+    Assertions.assertEquals(settings, settings3);
+    Assertions.assertEquals(settings.hashCode(), settings3.hashCode());
+    Assertions.assertTrue(settings.getDifferencesRelevantForLanguageTool(settings3).isEmpty());
+  }
+
+  @Test
+  public void testGetChangeImpact() {
+    Settings settings = (new Settings()).withLanguageShortCode("en-US");
+    Assertions.assertEquals(SettingsChangeImpact.NONE, settings.getChangeImpact(settings));
+    Assertions.assertEquals(SettingsChangeImpact.NONE,
+        settings.getChangeImpact(new Settings(settings)));
+    Assertions.assertEquals(SettingsChangeImpact.LANGUAGE_TOOL, settings.getChangeImpact(null));
+    Assertions.assertEquals(SettingsChangeImpact.DIAGNOSTICS, settings.getChangeImpact(
+        settings.withDiagnosticSeverity(DiagnosticSeverity.Error)));
+    Assertions.assertEquals(SettingsChangeImpact.HIDDEN_FALSE_POSITIVES, settings.getChangeImpact(
+        settings.withHiddenFalsePositives(Collections.singleton(
+          new HiddenFalsePositive("FOO", "bar")))));
+    Assertions.assertEquals(SettingsChangeImpact.ANNOTATED_TEXT, settings.getChangeImpact(
+        settings.withLatexCommands(Collections.singletonMap("\\foo{}", "ignore"))
+        .withDiagnosticSeverity(DiagnosticSeverity.Error)));
+    Assertions.assertEquals(SettingsChangeImpact.LANGUAGE_TOOL, settings.getChangeImpact(
+        settings.withDisabledRules(Collections.singleton("FOO"))
+        .withLatexCommands(Collections.singletonMap("\\foo{}", "ignore"))));
+
+    // dictionaries of other languages matter due to magic comments
+    Settings settings2 = settings.withLanguageShortCode("de-DE")
+        .withDictionary(Collections.singleton("foo")).withLanguageShortCode("en-US");
+    Assertions.assertEquals(SettingsChangeImpact.LANGUAGE_TOOL,
+        settings.getChangeImpact(settings2));
+  }
+
   @Test
   public void testTildeExpansion() {
     Settings settings = new Settings();
@@ -0,0 +1,40 @@
+/* Copyright (C) 2020 Julian Valentin, LTeX Development Community
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package org.bsplines.ltexls.tools;
+
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class BoundedCharSequenceTest {
+  @Test
+  public void testCharSequence() {
+    BoundedCharSequence charSequence = new BoundedCharSequence("Hello World", 100);
+    Assertions.assertEquals(11, charSequence.length());
+    Assertions.assertEquals('W', charSequence.charAt(6));
+    Assertions.assertEquals("World", charSequence.subSequence(6, 11).toString());
+    Assertions.assertEquals("Hello World", charSequence.toString());
+    Assertions.assertTrue(Pattern.compile("W.*d").matcher(charSequence).find());
+  }
+
+  @Test
+  public void testStepBudget() {
+    BoundedCharSequence charSequence = new BoundedCharSequence("abc", 3);
+    CharSequence subSequence = charSequence.subSequence(0, 2);
+    charSequence.charAt(0);
+    subSequence.charAt(1);
+    charSequence.charAt(2);
+    Assertions.assertThrows(BoundedCharSequence.StepBudgetExhaustedException.class,
+        () -> subSequence.charAt(0));
+
+    String text = "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa";
+    Assertions.assertThrows(BoundedCharSequence.StepBudgetExhaustedException.class,
+        () -> Pattern.compile("(.*a){12}b").matcher(
+          new BoundedCharSequence(text, 100000)).find());
+  }
+}
@@ -0,0 +1,58 @@
+/* Copyright (C) 2020 Julian Valentin, LTeX Development Community
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package org.bsplines.ltexls.tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class IntervalIndexTest {
+  @Test
+  public void testFindIntersecting() {
+    IntervalIndex index = new IntervalIndex(new int[]{10, 0, 5, 20}, new int[]{15, 3, 30, 20});
+    Assertions.assertEquals(4, index.size());
+    Assertions.assertEquals(Arrays.asList(0, 2), index.findIntersecting(12, 12));
+    Assertions.assertEquals(Arrays.asList(1, 2), index.findIntersecting(3, 5));
+    Assertions.assertEquals(Arrays.asList(2, 3), index.findIntersecting(20, 20));
+    Assertions.assertEquals(Collections.emptyList(), index.findIntersecting(31, 40));
+    Assertions.assertEquals(Arrays.asList(0, 1, 2, 3), index.findIntersecting(0, 100));
+    Assertions.assertEquals(Collections.emptyList(),
+        (new IntervalIndex(new int[0], new int[0])).findIntersecting(0, 100));
+  }
+
+  @Test
+  public void testRandomIntervals() {
+    Random random = new Random(42);
+    int n = 500;
+    int[] fromPositions = new int[n];
+    int[] toPositions = new int[n];
+
+    for (int i = 0; i < n; i++) {
+      fromPositions[i] = random.nextInt(1000);
+      toPositions[i] = fromPositions[i] + random.nextInt(20);
+    }
+
+    IntervalIndex index = new IntervalIndex(fromPositions, toPositions);
+
+    for (int i = 0; i < 200; i++) {
+      int fromPos = random.nextInt(1000);
+      int toPos = fromPos + random.nextInt(10);
+      List<Integer> expected = new ArrayList<>();
+
+      for (int j = 0; j < n; j++) {
+        if ((fromPositions[j] <= toPos) && (toPositions[j] >= fromPos)) expected.add(j);
+      }
+
+      Assertions.assertEquals(expected, index.findIntersecting(fromPos, toPos));
+    }
+  }
+}
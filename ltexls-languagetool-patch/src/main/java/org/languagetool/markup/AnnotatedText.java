@@ -20,11 +20,9 @@ package org.languagetool.markup;
 
 import org.apache.commons.lang3.StringUtils;
 
-import java.io.Serializable;
 import java.util.AbstractMap;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -46,23 +44,14 @@ public class AnnotatedText {
     EmailNumberOfAttachments
   }
 
-  private static class MappingEntryComparator
-        implements Comparator<Map.Entry<Integer, Integer>>, Serializable {
-    private static final long serialVersionUID = 4375747732047541460L;
-
-    @Override
-    public int compare(Map.Entry<Integer, Integer> o1, Map.Entry<Integer, Integer> o2) {
-      int result = o1.getKey().compareTo(o2.getKey());
-      if (result == 0) result = o1.getValue().compareTo(o2.getValue());
-      return result;
-    }
-  }
-
   private List<TextPart> parts;
-  private List<Map.Entry<Integer, Integer>> mapping;  // plain text position to original text (with markup) position
-  private MappingEntryComparator mappingEntryComparator;
+  // plain text position to original text (with markup) position, sorted by plain text position
+  // (and by original text position for equal plain text positions)
+  private int[] plainTextPositions;
+  private int[] originalTextPositions;
   private Map<MetaDataKey, String> metaData;
   private Map<String, String> customMetaData;
+  private String plainText;
 
   public AnnotatedText(List<TextPart> parts, List<Map.Entry<Integer, Integer>> mapping,
       Map<MetaDataKey, String> metaData, Map<String, String> customMetaData) {
@@ -81,14 +70,45 @@ public class AnnotatedText {
     initialize(parts, integerMapping, metaData, customMetaData);
   }
 
+  /**
+   * Create an annotated text from a mapping that is already sorted, without copying the arrays.
+   */
+  AnnotatedText(List<TextPart> parts, int[] plainTextPositions, int[] originalTextPositions,
+      Map<MetaDataKey, String> metaData, Map<String, String> customMetaData) {
+    if (plainTextPositions.length != originalTextPositions.length) {
+      throw new IllegalArgumentException("mapping arrays must have the same length");
+    }
+
+    this.parts = Objects.requireNonNull(parts);
+    this.plainTextPositions = plainTextPositions;
+    this.originalTextPositions = originalTextPositions;
+    this.metaData = Objects.requireNonNull(metaData);
+    this.customMetaData = Objects.requireNonNull(customMetaData);
+  }
+
   public void initialize(List<TextPart> parts, List<Map.Entry<Integer, Integer>> mapping,
       Map<MetaDataKey, String> metaData, Map<String, String> customMetaData) {
+    // positions are non-negative, so sorting the packed pairs sorts by key, then by value
+    long[] packedMapping = new long[mapping.size()];
+
+    for (int i = 0; i < packedMapping.length; i++) {
+      Map.Entry<Integer, Integer> entry = mapping.get(i);
+      packedMapping[i] = (((long)entry.getKey()) << 32) | (entry.getValue() & 0xFFFFFFFFL);
+    }
+
+    Arrays.sort(packedMapping);
+    this.plainTextPositions = new int[packedMapping.length];
+    this.originalTextPositions = new int[packedMapping.length];
+
+    for (int i = 0; i < packedMapping.length; i++) {
+      this.plainTextPositions[i] = (int)(packedMapping[i] >>> 32);
+      this.originalTextPositions[i] = (int)packedMapping[i];
+    }
+
     this.parts = Objects.requireNonNull(parts);
-    this.mapping = copyMapping(Objects.requireNonNull(mapping));
-    this.mappingEntryComparator = new MappingEntryComparator();
-    Collections.sort(this.mapping, this.mappingEntryComparator);
     this.metaData = Objects.requireNonNull(metaData);
     this.customMetaData = Objects.requireNonNull(customMetaData);
+    this.plainText = null;
   }
 
   /**
@@ -109,13 +129,21 @@ public class AnnotatedText {
    * Get the plain text, without markup but with content from {@code interpretAs}.
    */
   public String getPlainText() {
-    StringBuilder sb = new StringBuilder();
-    for (TextPart part : parts) {
-      if (part.getType() == TextPart.Type.TEXT || part.getType() == TextPart.Type.FAKE_CONTENT) {
-        sb.append(part.getPart());
+    // LanguageTool and LTeX LS query the plain text many times per check
+    String plainText = this.plainText;
+
+    if (plainText == null) {
+      StringBuilder sb = new StringBuilder();
+      for (TextPart part : parts) {
+        if (part.getType() == TextPart.Type.TEXT || part.getType() == TextPart.Type.FAKE_CONTENT) {
+          sb.append(part.getPart());
+        }
       }
+      plainText = sb.toString();
+      this.plainText = plainText;
     }
-    return sb.toString();
+
+    return plainText;
   }
 
   /**
@@ -136,23 +164,34 @@ public class AnnotatedText {
    * @return copy of the internal mapping
    */
   public List<Map.Entry<Integer, Integer>> getMapping() {
-    return copyMapping(mapping);
+    List<Map.Entry<Integer, Integer>> result = new ArrayList<>(plainTextPositions.length);
+
+    for (int i = 0; i < plainTextPositions.length; i++) {
+      result.add(new AbstractMap.SimpleEntry<>(plainTextPositions[i], originalTextPositions[i]));
+    }
+
+    return result;
   }
 
   /**
-   * Return a copy of the specified mapping.
-   * @param mapping arbitrary mapping
-   * @return copy of mapping
+   * Return the number of entries of the internal mapping.
    */
-  private static List<Map.Entry<Integer, Integer>> copyMapping(
-      List<Map.Entry<Integer, Integer>> mapping) {
-    List<Map.Entry<Integer, Integer>> result = new ArrayList<>();
+  public int getMappingSize() {
+    return plainTextPositions.length;
+  }
 
-    for (Map.Entry<Integer, Integer> entry : mapping) {
-      result.add(new AbstractMap.SimpleEntry<>(entry.getKey(), entry.getValue()));
-    }
+  /**
+   * Return the plain text position of an entry of the internal mapping, without boxing.
+   */
+  public int getMappingPlainTextPosition(int index) {
+    return plainTextPositions[index];
+  }
 
-    return result;
+  /**
+   * Return the original text position of an entry of the internal mapping, without boxing.
+   */
+  public int getMappingOriginalTextPosition(int index) {
+    return originalTextPositions[index];
   }
 
   /**
@@ -172,27 +211,42 @@ public class AnnotatedText {
   public int getOriginalTextPositionFor(int plainTextPosition) {
     if (plainTextPosition < 0) {
       throw new IllegalArgumentException("plainTextPosition must be >= 0: " + plainTextPosition);
-    } else if (mapping.isEmpty()) {
+    } else if (plainTextPositions.length == 0) {
       throw new IllegalArgumentException("mapping must be non-empty");
-    } else if (mapping.size() == 1) {
-      return mapping.get(0).getValue();
+    } else if (plainTextPositions.length == 1) {
+      return originalTextPositions[0];
+    }
+
+    // index of the first entry with a plain text position greater than plainTextPosition
+    int lowerIndex = 0;
+    int upperIndex = plainTextPositions.length;
+
+    while (lowerIndex < upperIndex) {
+      int middleIndex = (lowerIndex + upperIndex) >>> 1;
+
+      if (plainTextPositions[middleIndex] <= plainTextPosition) {
+        lowerIndex = middleIndex + 1;
+      } else {
+        upperIndex = middleIndex;
+      }
     }
 
-    Map.Entry<Integer, Integer> entry =
-        new AbstractMap.SimpleEntry<>(plainTextPosition, Integer.MAX_VALUE);
-    int i = -Collections.binarySearch(mapping, entry, mappingEntryComparator) - 1;
+    // at the end of the plain text, this interpolates between the last two entries, i.e.,
+    // positions at the end are mapped to before trailing markup
+    int i = lowerIndex;
     if (i <= 0) i = 1;
-    if (i >= mapping.size()) i = mapping.size() - 1;
+    if (i >= plainTextPositions.length) i = plainTextPositions.length - 1;
 
-    Map.Entry<Integer, Integer> lowerNeighbor = mapping.get(i - 1);
-    Map.Entry<Integer, Integer> upperNeighbor = mapping.get(i);
+    int lowerPlainTextPosition = plainTextPositions[i - 1];
+    int upperPlainTextPosition = plainTextPositions[i];
 
-    if (lowerNeighbor.getKey() == plainTextPosition) {
-      return lowerNeighbor.getValue();
+    if (lowerPlainTextPosition == plainTextPosition) {
+      return originalTextPositions[i - 1];
     } else {
-      float t = (float)(plainTextPosition - lowerNeighbor.getKey()) /
-          (float)(upperNeighbor.getKey() - lowerNeighbor.getKey());
-      int result = Math.round((1 - t) * lowerNeighbor.getValue() + t * upperNeighbor.getValue());
+      float t = (float)(plainTextPosition - lowerPlainTextPosition) /
+          (float)(upperPlainTextPosition - lowerPlainTextPosition);
+      int result = Math.round((1 - t) * originalTextPositions[i - 1]
+          + t * originalTextPositions[i]);
       return result;
     }
   }
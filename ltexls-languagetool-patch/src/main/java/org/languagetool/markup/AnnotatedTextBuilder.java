@@ -18,7 +18,6 @@
  */
 package org.languagetool.markup;
 
-import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -112,11 +111,13 @@ public class AnnotatedTextBuilder {
    * Create the annotated text to be passed into {@link org.languagetool.JLanguageTool#check(AnnotatedText)}.
    */
   public AnnotatedText build() {
+    List<TextPart> coalescedParts = coalesceParts(parts);
+    int[] plainTextPositions = new int[coalescedParts.size() + 1];
+    int[] originalTextPositions = new int[coalescedParts.size() + 1];
     int plainTextPosition = 0;
     int totalPosition = 0;
-    List<Map.Entry<Integer, Integer>> mapping = new ArrayList<>();
-    mapping.add(new AbstractMap.SimpleEntry<>(0, 0));
-    for (TextPart part : parts) {
+    int i = 1;
+    for (TextPart part : coalescedParts) {
       if (part.getType() == TextPart.Type.TEXT) {
         plainTextPosition += part.getPart().length();
         totalPosition += part.getPart().length();
@@ -125,9 +126,33 @@ public class AnnotatedTextBuilder {
       } else if (part.getType() == TextPart.Type.FAKE_CONTENT) {
         plainTextPosition += part.getPart().length();
       }
-      mapping.add(new AbstractMap.SimpleEntry<>(plainTextPosition, totalPosition));
+      plainTextPositions[i] = plainTextPosition;
+      originalTextPositions[i] = totalPosition;
+      i++;
+    }
+    return new AnnotatedText(coalescedParts, plainTextPositions, originalTextPositions,
+        metaData, customMetaData);
+  }
+
+  /**
+   * Drop empty parts and merge consecutive parts of the same type. This does not change
+   * the position mapping, but keeps it small for builders that add many short parts.
+   */
+  private static List<TextPart> coalesceParts(List<TextPart> parts) {
+    List<TextPart> result = new ArrayList<>();
+    StringBuilder curPart = new StringBuilder();
+    TextPart.Type curType = null;
+    for (TextPart part : parts) {
+      if (part.getPart().isEmpty()) continue;
+      if ((curType != null) && (part.getType() != curType)) {
+        result.add(new TextPart(curPart.toString(), curType));
+        curPart.setLength(0);
+      }
+      curPart.append(part.getPart());
+      curType = part.getType();
     }
-    return new AnnotatedText(parts, mapping, metaData, customMetaData);
+    if (curType != null) result.add(new TextPart(curPart.toString(), curType));
+    return result;
   }
 
 }